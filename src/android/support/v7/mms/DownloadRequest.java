@@ -17,18 +17,20 @@
 
 package android.support.v7.mms;
 
+import android.app.Activity;
 import android.app.PendingIntent;
-import android.content.ContentResolver;
 import android.content.Context;
-import android.content.Intent;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.Parcel;
 import android.os.ParcelFileDescriptor;
 import android.os.Parcelable;
+import android.telephony.SmsManager;
 import android.text.TextUtils;
 import android.util.Log;
 
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.concurrent.Callable;
 import java.util.concurrent.Future;
@@ -39,6 +41,9 @@ import java.util.concurrent.TimeUnit;
  */
 class DownloadRequest extends MmsRequest {
 
+    // Destination of the downloaded pdu, opened up front so the response can be streamed into it
+    private ParcelFileDescriptor mPduFd;
+
     DownloadRequest(final String locationUrl, final Uri pduUri,
             final PendingIntent sentIntent) {
         super(locationUrl, pduUri, sentIntent);
@@ -46,23 +51,49 @@ class DownloadRequest extends MmsRequest {
 
     @Override
     protected boolean loadRequest(final Context context, final Bundle mmsConfig) {
-        // No need to load PDU from app. Always true.
-        return true;
-    }
-
-    @Override
-    protected boolean transferResponse(Context context, Intent fillIn, byte[] response) {
-        return writePduToContentUri(context, mPduUri, response);
+        // No need to load PDU from app. Just open the file the response is written to.
+        mPduFd = openPduFileDescriptor(context, mPduUri);
+        return mPduFd != null;
     }
 
     @Override
     protected byte[] doHttp(Context context, MmsNetworkManager netMgr, ApnSettingsLoader.Apn apn,
             Bundle mmsConfig, String userAgent, String uaProfUrl) throws MmsHttpException {
         final MmsHttpClient httpClient = netMgr.getHttpClient();
-        return httpClient.execute(getHttpRequestUrl(apn), null/*pdu*/, MmsHttpClient.METHOD_GET,
+        final FileOutputStream outStream = new FileOutputStream(mPduFd.getFileDescriptor());
+        try {
+            // Discard anything left behind by a failed attempt over a previous APN
+            outStream.getChannel().truncate(0);
+            outStream.getChannel().position(0);
+        } catch (IOException e) {
+            Log.e(MmsService.TAG, "Downloading PDU: failed to reset output", e);
+            throw new MmsHttpException(0/*statusCode*/, e);
+        }
+        // Stream the response straight into the caller's file instead of buffering it, so the
+        // memory used is independent of the message size
+        httpClient.execute(getHttpRequestUrl(apn), null/*pdu*/, MmsHttpClient.METHOD_GET,
                 !TextUtils.isEmpty(apn.getMmsProxy()), apn.getMmsProxy(), apn.getMmsProxyPort(),
-                mmsConfig, userAgent, uaProfUrl);
+                mmsConfig, userAgent, uaProfUrl, outStream);
+        // The response has already been transferred
+        return null;
+    }
 
+    @Override
+    void returnResult(final Context context, int result, final byte[] response,
+            final int httpStatusCode) {
+        // Make sure everything written is visible to the caller before notifying it
+        if (mPduFd != null) {
+            try {
+                mPduFd.close();
+            } catch (IOException e) {
+                Log.e(MmsService.TAG, "Downloading PDU: failed to close output", e);
+                if (result == Activity.RESULT_OK) {
+                    result = SmsManager.MMS_ERROR_IO_ERROR;
+                }
+            }
+            mPduFd = null;
+        }
+        super.returnResult(context, result, response, httpStatusCode);
     }
 
     @Override
@@ -71,47 +102,33 @@ class DownloadRequest extends MmsRequest {
     }
 
     /**
-     * Write pdu bytes to content provider uri
+     * Open the content provider uri the downloaded pdu is written to
      *
      * @param contentUri content provider uri to which bytes should be written
-     * @param pdu Bytes to write
-     * @return true if all bytes successfully written else false
+     * @return the opened file descriptor, or null on failure
      */
-    public boolean writePduToContentUri(final Context context, final Uri contentUri,
-            final byte[] pdu) {
-        if (contentUri == null || pdu == null) {
-            return false;
+    private ParcelFileDescriptor openPduFileDescriptor(final Context context,
+            final Uri contentUri) {
+        if (contentUri == null) {
+            return null;
         }
-        final Callable<Boolean> copyDownloadedPduToOutput = () -> {
-            ParcelFileDescriptor.AutoCloseOutputStream outStream = null;
+        final Callable<ParcelFileDescriptor> openDownloadedPduOutput = () -> {
             try {
-                final ContentResolver cr = context.getContentResolver();
-                final ParcelFileDescriptor pduFd = cr.openFileDescriptor(contentUri, "w");
-                outStream = new ParcelFileDescriptor.AutoCloseOutputStream(pduFd);
-                outStream.write(pdu);
-                return true;
-            } catch (IOException e) {
-                Log.e(MmsService.TAG, "Writing PDU to downloader: IO exception", e);
-                return false;
-            } finally {
-                if (outStream != null) {
-                    try {
-                        outStream.close();
-                    } catch (IOException ex) {
-                        // Ignore
-                    }
-                }
+                return context.getContentResolver().openFileDescriptor(contentUri, "w");
+            } catch (FileNotFoundException e) {
+                Log.e(MmsService.TAG, "Opening PDU for downloader: file not found", e);
+                return null;
             }
         };
-        final Future<Boolean> pendingResult =
-                mPduTransferExecutor.submit(copyDownloadedPduToOutput);
+        final Future<ParcelFileDescriptor> pendingResult =
+                mPduTransferExecutor.submit(openDownloadedPduOutput);
         try {
             return pendingResult.get(TASK_TIMEOUT_MS, TimeUnit.MILLISECONDS);
         } catch (Exception e) {
             // Typically a timeout occurred - cancel task
             pendingResult.cancel(true);
         }
-        return false;
+        return null;
     }
 
     public static final Parcelable.Creator<DownloadRequest> CREATOR = new Parcelable.Creator<>() {
@@ -27,7 +27,6 @@ import android.text.TextUtils;
 import android.util.Base64;
 import android.util.Log;
 
-import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
@@ -81,6 +80,9 @@ public class MmsHttpClient {
     // The possible NAI system property name
     private static final String NAI_PROPERTY = "persist.radio.cdma.nai";
 
+    // Size of the buffer used to move the response body from the connection to its destination
+    private static final int RESPONSE_BUFFER_SIZE = 16 * 1024;
+
     private final Context mContext;
     private final TelephonyManager mTelephonyManager;
 
@@ -113,6 +115,33 @@ public class MmsHttpClient {
     public byte[] execute(String urlString, byte[] pdu, String method, boolean isProxySet,
             String proxyHost, int proxyPort, Bundle mmsConfig, String userAgent, String uaProfUrl)
             throws MmsHttpException {
+        final ByteArrayOutputStream byteOut = new ByteArrayOutputStream();
+        execute(urlString, pdu, method, isProxySet, proxyHost, proxyPort, mmsConfig, userAgent,
+                uaProfUrl, byteOut);
+        return byteOut.toByteArray();
+    }
+
+    /**
+     * Execute an MMS HTTP request, streaming the response body to the given output as it
+     * arrives so that only a fixed size buffer of it is ever held in memory
+     *
+     * @param urlString The request URL, for sending it is usually the MMSC, and for downloading
+     *                  it is the message URL
+     * @param pdu For POST (sending) only, the PDU to send
+     * @param method HTTP method, POST for sending and GET for downloading
+     * @param isProxySet Is there a proxy for the MMSC
+     * @param proxyHost The proxy host
+     * @param proxyPort The proxy port
+     * @param mmsConfig The MMS config to use
+     * @param userAgent The user agent header value
+     * @param uaProfUrl The UA Prof URL header value
+     * @param responseOut Where to write the HTTP response body. It is not closed.
+     * @return The size of the HTTP response body
+     * @throws MmsHttpException For any failures, including failing to write the response
+     */
+    public long execute(String urlString, byte[] pdu, String method, boolean isProxySet,
+            String proxyHost, int proxyPort, Bundle mmsConfig, String userAgent, String uaProfUrl,
+            OutputStream responseOut) throws MmsHttpException {
         Log.d(MmsService.TAG, "HTTP: " + method + " " + Utils.redactUrlForNonVerbose(urlString)
                 + (isProxySet ? (", proxy=" + proxyHost + ":" + proxyPort) : "")
                 + ", PDU size=" + (pdu != null ? pdu.length : 0));
@@ -192,18 +221,21 @@ public class MmsHttpClient {
             if (responseCode / 100 != 2) {
                 throw new MmsHttpException(responseCode, responseMessage);
             }
-            final InputStream in = new BufferedInputStream(connection.getInputStream());
-            final ByteArrayOutputStream byteOut = new ByteArrayOutputStream();
-            final byte[] buf = new byte[4096];
+            final InputStream in = connection.getInputStream();
+            final byte[] buf = new byte[RESPONSE_BUFFER_SIZE];
+            long responseSize = 0;
             int count;
-            while ((count = in.read(buf)) > 0) {
-                byteOut.write(buf, 0, count);
+            try {
+                while ((count = in.read(buf)) > 0) {
+                    responseOut.write(buf, 0, count);
+                    responseSize += count;
+                }
+            } finally {
+                in.close();
             }
-            in.close();
-            final byte[] responseBody = byteOut.toByteArray();
-            Log.d(MmsService.TAG, "HTTP: response size="
-                    + (responseBody != null ? responseBody.length : 0));
-            return responseBody;
+            responseOut.flush();
+            Log.d(MmsService.TAG, "HTTP: response size=" + responseSize);
+            return responseSize;
         } catch (MalformedURLException e) {
             final String redactedUrl = Utils.redactUrlForNonVerbose(urlString);
             Log.e(MmsService.TAG, "HTTP: invalid URL " + redactedUrl, e);
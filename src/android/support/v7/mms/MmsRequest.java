@@ -56,14 +56,17 @@ abstract class MmsRequest implements Parcelable {
     protected abstract boolean loadRequest(Context context, Bundle mmsConfig);
 
     /**
-     * Transfer the received response to the caller
+     * Transfer the received response to the caller. Only called when {@link #doHttp} returned
+     * the response rather than streaming it to the caller itself.
      *
      * @param context the Context
      * @param fillIn the content of pending intent to be returned
      * @param response the pdu to transfer
      * @return true if transferring response PDU to calling app succeeds, false otherwise
      */
-    protected abstract boolean transferResponse(Context context, Intent fillIn, byte[] response);
+    protected boolean transferResponse(Context context, Intent fillIn, byte[] response) {
+        return true;
+    }
 
     /**
      * Making the HTTP request to MMSC
@@ -74,7 +77,8 @@ abstract class MmsRequest implements Parcelable {
      * @param mmsConfig The carrier configuration values to use
      * @param userAgent The User-Agent header value
      * @param uaProfUrl The UA Prof URL header value
-     * @return The HTTP response data
+     * @return The HTTP response data, or null if the request already streamed it to the caller
+     *         and there is nothing left for {@link #transferResponse} to do
      * @throws MmsHttpException If any network error happens
      */
     protected abstract byte[] doHttp(Context context, MmsNetworkManager netMgr,
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2024 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.v7.mms.pdu;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link ByteArrayInputStream} that reads from a {@link ByteBuffer} instead of a byte array.
+ *
+ * The parser's decoding primitives are all written against ByteArrayInputStream, so this lets
+ * them run unchanged over a heap buffer, a direct buffer or a memory-mapped file without first
+ * copying the whole PDU onto the heap.
+ */
+class ByteBufferInputStream extends ByteArrayInputStream {
+    private static final byte[] EMPTY = new byte[0];
+
+    private final ByteBuffer mBuffer;
+
+    /**
+     * Constructor.
+     *
+     * @param buffer the data between the buffer's position and limit is read by this stream.
+     *               The buffer itself is not modified.
+     */
+    ByteBufferInputStream(ByteBuffer buffer) {
+        super(EMPTY);
+        mBuffer = buffer.slice();
+    }
+
+    /**
+     * Return a view of the next {@code length} bytes and advance the stream past them.
+     *
+     * @param length number of bytes to slice
+     * @return a read-only buffer sharing content with this stream,
+     *         or null if fewer than {@code length} bytes remain
+     */
+    synchronized ByteBuffer readSlice(int length) {
+        if (length < 0 || length > mBuffer.remaining()) {
+            return null;
+        }
+        final ByteBuffer slice = mBuffer.slice();
+        slice.limit(length);
+        mBuffer.position(mBuffer.position() + length);
+        return slice.asReadOnlyBuffer();
+    }
+
+    @Override
+    public synchronized int read() {
+        return mBuffer.hasRemaining() ? (mBuffer.get() & 0xFF) : -1;
+    }
+
+    @Override
+    public synchronized int read(byte[] b, int off, int len) {
+        if (b == null) {
+            throw new NullPointerException();
+        } else if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (!mBuffer.hasRemaining()) {
+            return -1;
+        }
+        final int count = Math.min(len, mBuffer.remaining());
+        mBuffer.get(b, off, count);
+        return count;
+    }
+
+    @Override
+    public synchronized long skip(long n) {
+        final int count = (int) Math.max(0, Math.min(n, mBuffer.remaining()));
+        mBuffer.position(mBuffer.position() + count);
+        return count;
+    }
+
+    @Override
+    public synchronized int available() {
+        return mBuffer.remaining();
+    }
+
+    @Override
+    public synchronized void mark(int readAheadLimit) {
+        mark = mBuffer.position();
+    }
+
+    @Override
+    public synchronized void reset() {
+        mBuffer.position(mark);
+    }
+}
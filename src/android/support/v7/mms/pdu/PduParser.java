@@ -24,6 +24,7 @@ import android.util.SparseArray;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 public class PduParser {
@@ -111,6 +112,21 @@ public class PduParser {
         mParseContentDisposition = parseContentDisposition;
     }
 
+    /**
+     * Constructor. Parses the pdu in place: headers are decoded straight from the buffer and
+     * binary part data is exposed through {@link PduPart#getDataBuffer()} as views into it
+     * instead of being copied, so the buffer must stay valid while the parts are in use.
+     * Parts with a base64 or quoted-printable transfer encoding are still decoded to arrays.
+     *
+     * @param pduData pdu data to be parsed, between the buffer's position and limit.
+     *                May be a direct or memory-mapped buffer.
+     * @param parseContentDisposition whether to parse the Content-Disposition part header
+     */
+    public PduParser(ByteBuffer pduData, boolean parseContentDisposition) {
+        mPduDataStream = new ByteBufferInputStream(pduData);
+        mParseContentDisposition = parseContentDisposition;
+    }
+
     /**
      * Parse the pdu.
      *
@@ -928,12 +944,24 @@ public class PduParser {
 
             /* get part's data */
             if (dataLength > 0) {
-                byte[] partData = new byte[dataLength];
                 String partContentType = new String(part.getContentType());
-                pduDataStream.read(partData, 0, dataLength);
+                ByteBuffer partBuffer = null;
+                byte[] partData = null;
+                if (pduDataStream instanceof ByteBufferInputStream) {
+                    // Slice the data out of the pdu buffer rather than copying it.
+                    partBuffer = ((ByteBufferInputStream) pduDataStream).readSlice(dataLength);
+                }
+                if (null == partBuffer) {
+                    // Also reached when the data is truncated, which keeps whatever is left
+                    // the same way whether the pdu is parsed from an array or a buffer.
+                    partData = new byte[dataLength];
+                    pduDataStream.read(partData, 0, dataLength);
+                }
                 if (partContentType.equalsIgnoreCase(ContentType.MMS_MULTIPART_ALTERNATIVE)) {
                     // parse "multipart/vnd.wap.multipart.alternative".
-                    PduBody childBody = parseParts(new ByteArrayInputStream(partData));
+                    PduBody childBody = parseParts(null != partBuffer
+                            ? new ByteBufferInputStream(partBuffer)
+                            : new ByteArrayInputStream(partData));
                     // take the first part of children.
                     part = childBody.getPart(0);
                 } else {
@@ -941,21 +969,33 @@ public class PduParser {
                     byte[] partDataEncoding = part.getContentTransferEncoding();
                     if (null != partDataEncoding) {
                         String encoding = new String(partDataEncoding);
-                        if (encoding.equalsIgnoreCase(PduPart.P_BASE64)) {
+                        boolean isBase64 = encoding.equalsIgnoreCase(PduPart.P_BASE64);
+                        boolean isQuotedPrintable =
+                                encoding.equalsIgnoreCase(PduPart.P_QUOTED_PRINTABLE);
+                        if ((isBase64 || isQuotedPrintable) && null != partBuffer) {
+                            // The decoders work on arrays, so this part has to be copied.
+                            partData = new byte[partBuffer.remaining()];
+                            partBuffer.get(partData);
+                            partBuffer = null;
+                        }
+                        if (isBase64) {
                             // Decode "base64" into "binary".
                             partData = Base64.decodeBase64(partData);
-                        } else if (encoding.equalsIgnoreCase(PduPart.P_QUOTED_PRINTABLE)) {
+                        } else if (isQuotedPrintable) {
                             // Decode "quoted-printable" into "binary".
                             partData = QuotedPrintable.decodeQuotedPrintable(partData);
                         } else {
                             // "binary" is the default encoding.
                         }
                     }
-                    if (null == partData) {
+                    if (null != partBuffer) {
+                        part.setDataBuffer(partBuffer);
+                    } else if (null == partData) {
                         log("Decode part data error!");
                         return null;
+                    } else {
+                        part.setData(partData);
                     }
-                    part.setData(partData);
                 }
             }
 
@@ -1351,12 +1391,11 @@ public class PduParser {
      */
     protected static int skipWapValue(ByteArrayInputStream pduDataStream, int length) {
         assert(null != pduDataStream);
-        byte[] area = new byte[length];
-        int readLen = pduDataStream.read(area, 0, length);
-        if (readLen < length) { //The actually read length is lower than the length
+        long skipLen = pduDataStream.skip(length);
+        if (skipLen < length) { //The actually skipped length is lower than the length
             return -1;
         } else {
-            return readLen;
+            return (int) skipLen;
         }
     }
 
@@ -1729,8 +1768,7 @@ public class PduParser {
                                 thisEndPos = pduDataStream.available();
                                 if (thisStartPos - thisEndPos < len) {
                                     int last = len - (thisStartPos - thisEndPos);
-                                    byte[] temp = new byte[last];
-                                    pduDataStream.read(temp, 0, last);
+                                    pduDataStream.skip(last);
                                 }
                             }
 
@@ -21,6 +21,8 @@ package android.support.v7.mms.pdu;
 import android.net.Uri;
 import android.util.SparseArray;
 
+import java.nio.ByteBuffer;
+
 /**
  * The pdu part.
  */
@@ -118,6 +120,11 @@ public class PduPart {
       */
      private byte[] mPartData = null;
 
+     /**
+      * Part data as a view into the parsed PDU buffer.
+      */
+     private ByteBuffer mPartDataBuffer = null;
+
      private static final String TAG = "PduPart";
 
      /**
@@ -134,17 +141,63 @@ public class PduPart {
       */
      public void setData(byte[] data) {
          mPartData = data;
+         mPartDataBuffer = null;
      }
 
      /**
       * @return The part data or null if the data wasn't set or
-      * the data is stored as Uri.
+      * the data is stored as Uri. If the data is stored as a buffer it is
+      * copied into a byte array the first time this is called.
       * @see #getDataUri
+      * @see #getDataBuffer
       */
      public byte[] getData() {
+         if (mPartData == null && mPartDataBuffer != null) {
+             final ByteBuffer buffer = mPartDataBuffer.duplicate();
+             final byte[] data = new byte[buffer.remaining()];
+             buffer.get(data);
+             mPartData = data;
+         }
          return mPartData;
      }
 
+     /**
+      * Set part data. The data are stored as a view into a buffer which
+      * must stay valid for as long as the part is used.
+      *
+      * @param buffer the data between the buffer's position and limit
+      */
+     public void setDataBuffer(ByteBuffer buffer) {
+         mPartDataBuffer = buffer;
+         mPartData = null;
+     }
+
+     /**
+      * @return A read-only view of the part data without copying it, or null if
+      * the data wasn't set or is stored as Uri. Byte array data is wrapped.
+      * @see #getData
+      */
+     public ByteBuffer getDataBuffer() {
+         if (mPartDataBuffer != null) {
+             return mPartDataBuffer.asReadOnlyBuffer();
+         }
+         if (mPartData != null) {
+             return ByteBuffer.wrap(mPartData).asReadOnlyBuffer();
+         }
+         return null;
+     }
+
+     /**
+      * @return The size in bytes of the part data held in memory, or 0 if the
+      * data wasn't set or is stored as Uri.
+      */
+     public int getDataLength() {
+         if (mPartDataBuffer != null) {
+             return mPartDataBuffer.remaining();
+         }
+         return mPartData != null ? mPartData.length : 0;
+     }
+
      /**
       * Set data uri. The data are stored as Uri.
       *
@@ -17,17 +17,20 @@
 
 package com.android.messaging;
 
+import android.app.Activity;
 import android.app.Application;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.res.Configuration;
+import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
 import android.support.v7.mms.CarrierConfigValuesLoader;
 import android.support.v7.mms.MmsManager;
 import android.telephony.CarrierConfigManager;
+import android.view.Choreographer;
 
 import androidx.annotation.NonNull;
 
@@ -42,6 +45,7 @@ import com.android.messaging.util.BuglePrefsKeys;
 import com.android.messaging.util.DebugUtils;
 import com.android.messaging.util.LogUtil;
 import com.android.messaging.util.PhoneUtils;
+import com.android.messaging.util.StartupTimings;
 import com.android.messaging.util.Trace;
 
 import java.io.File;
@@ -53,6 +57,10 @@ import java.lang.Thread.UncaughtExceptionHandler;
 public class BugleApplication extends Application implements UncaughtExceptionHandler {
     private static final String TAG = LogUtil.BUGLE_TAG;
 
+    // Time after which deferred startup work runs even if no activity has drawn, e.g. when the
+    // process is started to receive a message
+    private static final long FIRST_FRAME_TIMEOUT_MILLIS = 1000;
+
     private UncaughtExceptionHandler sSystemUncaughtExceptionHandler;
 
     @Override
@@ -77,6 +85,10 @@ public class BugleApplication extends Application implements UncaughtExceptionHa
     }
 
     // Called by the "real" factory from FactoryImpl.register() (i.e. not run in tests)
+    //
+    // Only what must be ready before anything is shown runs here. The rest of the startup work
+    // is deferred until the first frame is drawn, then until the main thread is idle, see
+    // StartupTimings for the time taken by each step.
     public void initializeSync(final Factory factory) {
         Trace.beginSection("app.initializeSync");
         final Context context = factory.getApplicationContext();
@@ -86,20 +98,107 @@ public class BugleApplication extends Application implements UncaughtExceptionHa
 
         maybeStartProfiling();
 
-        BugleApplication.updateAppConfig(context);
-
+        StartupTimings.run(StartupTimings.PHASE_CRITICAL, "app.updateAppConfig",
+                () -> BugleApplication.updateAppConfig(context));
         // Initialize MMS lib
-        initMmsLib(context, carrierConfigValuesLoader);
+        StartupTimings.run(StartupTimings.PHASE_CRITICAL, "app.initMmsLib",
+                () -> initMmsLib(context, carrierConfigValuesLoader));
         // Initialize APN database
-        ApnDatabase.initializeAppContext(context);
-        // Fixup messages in flight if we crashed and send any pending
-        dataModel.onApplicationCreated();
-        // Register carrier config change receiver
-        registerCarrierConfigChangeReceiver(context);
+        StartupTimings.run(StartupTimings.PHASE_CRITICAL, "app.initApnDatabase",
+                () -> ApnDatabase.initializeAppContext(context));
+        // Fixup messages in flight if we crashed and send any pending. Not deferred, since a
+        // message sent in the meantime would be in flight too and could be failed by the fixup
+        StartupTimings.run(StartupTimings.PHASE_CRITICAL,
+                "dataModel.onApplicationCreated", dataModel::onApplicationCreated);
+
+        runAfterFirstFrame(() -> {
+            // Sync and listen for subscription changes
+            StartupTimings.run(StartupTimings.PHASE_AFTER_FIRST_FRAME,
+                    "dataModel.onApplicationStartupDeferred",
+                    dataModel::onApplicationStartupDeferred);
+            Looper.myQueue().addIdleHandler(() -> {
+                // Register carrier config change receiver, MMS config is loaded at startup by
+                // initializeAsync anyway
+                StartupTimings.run(StartupTimings.PHASE_IDLE,
+                        "app.registerCarrierConfigChangeReceiver",
+                        () -> registerCarrierConfigChangeReceiver(context));
+                return false;
+            });
+        });
 
         Trace.endSection();
     }
 
+    /**
+     * Run work on the main thread once the first activity has drawn its first frame, or after
+     * FIRST_FRAME_TIMEOUT_MILLIS if none does
+     */
+    private void runAfterFirstFrame(final Runnable work) {
+        final Handler handler = new Handler(getMainLooper());
+        final FirstFrameWatcher watcher = new FirstFrameWatcher(handler, work);
+        registerActivityLifecycleCallbacks(watcher);
+        handler.postDelayed(watcher::onFirstFrame, FIRST_FRAME_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Waits for the first frame of the first resumed activity
+     */
+    private class FirstFrameWatcher implements ActivityLifecycleCallbacks {
+        private final Handler mHandler;
+        private final Runnable mWork;
+        private boolean mDone;
+
+        FirstFrameWatcher(final Handler handler, final Runnable work) {
+            mHandler = handler;
+            mWork = work;
+        }
+
+        void onFirstFrame() {
+            if (mDone) {
+                return;
+            }
+            mDone = true;
+            unregisterActivityLifecycleCallbacks(this);
+            mHandler.removeCallbacksAndMessages(null);
+            StartupTimings.onFirstFrame();
+            mWork.run();
+        }
+
+        @Override
+        public void onActivityResumed(@NonNull final Activity activity) {
+            // The frame callback runs before the traversal of the activity's first frame, the
+            // message posted from it after that frame is drawn
+            Choreographer.getInstance().postFrameCallback(
+                    frameTimeNanos -> mHandler.postAtFrontOfQueue(this::onFirstFrame));
+        }
+
+        @Override
+        public void onActivityCreated(@NonNull final Activity activity,
+                final Bundle savedInstanceState) {
+        }
+
+        @Override
+        public void onActivityStarted(@NonNull final Activity activity) {
+        }
+
+        @Override
+        public void onActivityPaused(@NonNull final Activity activity) {
+        }
+
+        @Override
+        public void onActivityStopped(@NonNull final Activity activity) {
+        }
+
+        @Override
+        public void onActivitySaveInstanceState(@NonNull final Activity activity,
+                @NonNull final Bundle outState) {
+        }
+
+        @Override
+        public void onActivityDestroyed(@NonNull final Activity activity) {
+        }
+    }
+
     private static void registerCarrierConfigChangeReceiver(final Context context) {
         context.registerReceiver(new BroadcastReceiver() {
             @Override
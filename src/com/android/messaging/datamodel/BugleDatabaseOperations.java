@@ -41,6 +41,7 @@ import com.android.messaging.datamodel.data.ConversationListItemData;
 import com.android.messaging.datamodel.data.MessageData;
 import com.android.messaging.datamodel.data.MessagePartData;
 import com.android.messaging.datamodel.data.ParticipantData;
+import com.android.messaging.datamodel.media.MediaCacheManager;
 import com.android.messaging.sms.MmsUtils;
 import com.android.messaging.ui.UIIntents;
 import com.android.messaging.util.Assert;
@@ -438,11 +439,16 @@ public class BugleDatabaseOperations {
             // Delete existing messages
             if (cutoffTimestamp == Long.MAX_VALUE) {
                 // Delete parts and messages
+                removeCachedPartImages(dbWrapper, MessageColumns.CONVERSATION_ID + "=?",
+                        new String[] { conversationId });
                 dbWrapper.delete(DatabaseHelper.MESSAGES_TABLE,
                         MessageColumns.CONVERSATION_ID + "=?", new String[] { conversationId });
                 conversationMessagesDeleted = true;
             } else {
                 // Delete all messages prior to the cutoff
+                removeCachedPartImages(dbWrapper, MessageColumns.CONVERSATION_ID + "=? AND "
+                        + MessageColumns.RECEIVED_TIMESTAMP + "<=?",
+                        new String[] { conversationId, Long.toString(cutoffTimestamp) });
                 dbWrapper.delete(DatabaseHelper.MESSAGES_TABLE,
                         MessageColumns.CONVERSATION_ID + "=? AND "
                                 + MessageColumns.RECEIVED_TIMESTAMP + "<=?",
@@ -1095,6 +1101,30 @@ public class BugleDatabaseOperations {
         updateMessageRowIfExists(dbWrapper, message.getMessageId(), values);
     }
 
+    /**
+     * Remove the images cached on disk for the parts of the messages matching the selection.
+     * Called before the messages are deleted, so that no thumbnail of a deleted attachment is
+     * left behind.
+     */
+    @DoesNotRunOnMainThread
+    public static void removeCachedPartImages(final DatabaseWrapper dbWrapper,
+            final String messageSelection, final String[] selectionArgs) {
+        final ArrayList<String> contentUris = new ArrayList<>();
+        try (Cursor cursor = dbWrapper.query(DatabaseHelper.PARTS_TABLE,
+                new String[] { PartColumns.CONTENT_URI },
+                PartColumns.CONTENT_URI + " IS NOT NULL AND " + PartColumns.MESSAGE_ID + " IN ("
+                        + "SELECT " + MessageColumns._ID + " FROM " + DatabaseHelper.MESSAGES_TABLE
+                        + " WHERE " + messageSelection + ")",
+                selectionArgs, null, null, null)) {
+            while (cursor.moveToNext()) {
+                contentUris.add(cursor.getString(0));
+            }
+        }
+        if (!contentUris.isEmpty()) {
+            MediaCacheManager.get().removeSourcesFromDiskCaches(contentUris);
+        }
+    }
+
     /**
      * Delete all parts for a message
      */
@@ -1123,6 +1153,8 @@ public class BugleDatabaseOperations {
             if (message != null) {
                 final String conversationId = message.getConversationId();
                 // Delete message
+                removeCachedPartImages(dbWrapper, MessageColumns._ID + "=?",
+                        new String[] { messageId });
                 count = dbWrapper.delete(DatabaseHelper.MESSAGES_TABLE,
                         MessageColumns._ID + "=?", new String[] { messageId });
 
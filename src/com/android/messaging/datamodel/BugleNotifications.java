@@ -40,6 +40,7 @@ import android.text.SpannableStringBuilder;
 import android.text.TextUtils;
 import android.text.style.StyleSpan;
 import android.text.style.TextAppearanceSpan;
+import android.util.LruCache;
 
 import androidx.collection.SimpleArrayMap;
 import androidx.core.app.NotificationCompat;
@@ -57,6 +58,7 @@ import com.android.messaging.datamodel.MessageNotificationState.MultiMessageNoti
 import com.android.messaging.datamodel.action.MarkAsReadAction;
 import com.android.messaging.datamodel.action.MarkAsSeenAction;
 import com.android.messaging.datamodel.action.RedownloadMmsAction;
+import com.android.messaging.datamodel.action.UpdateMessageNotificationAction;
 import com.android.messaging.datamodel.media.AvatarRequestDescriptor;
 import com.android.messaging.datamodel.media.ImageResource;
 import com.android.messaging.datamodel.media.MediaRequest;
@@ -80,6 +82,8 @@ import com.android.messaging.util.PendingIntentConstants;
 import com.android.messaging.util.ThreadUtil;
 import com.android.messaging.util.UriUtil;
 
+import java.io.PrintWriter;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
@@ -138,6 +142,32 @@ public class BugleNotifications {
      */
     private static final float OBSERVABLE_CONVERSATION_NOTIFICATION_VOLUME = 0.25f;
 
+    // Uptime of the last post of the message notification for a new message, and whether a
+    // deferred update is waiting to be posted, by the conversation id of the message. Guarded
+    // by sUpdateTimes.
+    private static final HashMap<String, Long> sUpdateTimes = new HashMap<>();
+    private static final HashMap<String, Boolean> sDeferredUpdateSilent = new HashMap<>();
+    private static long sMessageUpdateCount;
+    private static long sDeferredUpdateCount;
+    private static long sMergedUpdateCount;
+
+    private static final int AVATAR_CACHE_BYTES = 2 * 1024 * 1024;
+
+    // Avatar bitmaps handed to the posted notifications, as {icon, wearable background}, by
+    // avatar uri. Kept while message notifications are shown, so that updating them doesn't load
+    // the same avatars again.
+    private static final LruCache<String, Bitmap[]> sAvatarBitmaps =
+            new LruCache<String, Bitmap[]>(AVATAR_CACHE_BYTES) {
+                @Override
+                protected int sizeOf(final String key, final Bitmap[] value) {
+                    int size = 0;
+                    for (final Bitmap bitmap : value) {
+                        size += bitmap != null ? bitmap.getByteCount() : 0;
+                    }
+                    return size;
+                }
+            };
+
     /**
      * Entry point for posting notifications.
      * Don't call this on the UI thread.
@@ -421,6 +451,13 @@ public class BugleNotifications {
 
         if (state.mParticipantAvatarsUris != null) {
             final Uri avatarUri = state.mParticipantAvatarsUris.get(0);
+            final boolean withHiRes = isWearCompanionAppInstalled();
+            final String avatarKey = avatarUri + (withHiRes ? ":wear" : "");
+            final Bitmap[] cachedBitmaps = sAvatarBitmaps.get(avatarKey);
+            if (cachedBitmaps != null) {
+                sendNotification(state, cachedBitmaps[0], cachedBitmaps[1]);
+                return;
+            }
             final AvatarRequestDescriptor descriptor = new AvatarRequestDescriptor(avatarUri,
                     sIconWidth, sIconHeight, true);
             final MediaRequest<ImageResource> imageRequest = descriptor.buildSyncMediaRequest(
@@ -436,7 +473,7 @@ public class BugleNotifications {
             if (avatarImage != null) {
                 ImageResource avatarHiRes = null;
                 try {
-                    if (isWearCompanionAppInstalled()) {
+                    if (withHiRes) {
                         // For Wear users, we need to request a high-res avatar image to use as the
                         // notification card background. If the sender has a contact photo, we'll
                         // request the display photo from the Contacts provider. Otherwise, we ask
@@ -458,10 +495,12 @@ public class BugleNotifications {
 
                     // We have to make copies of the bitmaps to hand to the NotificationManager
                     // because the bitmap in the ImageResource is managed and will automatically
-                    // get released.
-                    Bitmap avatarBitmap = Bitmap.createBitmap(avatarImage.getBitmap());
+                    // get released. The copies are kept for the next updates.
+                    Bitmap avatarBitmap = copyBitmap(avatarImage.getBitmap());
                     Bitmap avatarHiResBitmap = (avatarHiRes != null) ?
-                            Bitmap.createBitmap(avatarHiRes.getBitmap()) : null;
+                            copyBitmap(avatarHiRes.getBitmap()) : null;
+                    sAvatarBitmaps.put(avatarKey,
+                            new Bitmap[] { avatarBitmap, avatarHiResBitmap });
                     sendNotification(state, avatarBitmap, avatarHiResBitmap);
                     return;
                 } finally {
@@ -476,6 +515,15 @@ public class BugleNotifications {
         sendNotification(state, null, null);
     }
 
+    private static Bitmap copyBitmap(final Bitmap bitmap) {
+        Config config = bitmap.getConfig();
+        // Make sure our bitmap has a valid format.
+        if (config == null) {
+            config = Bitmap.Config.ARGB_8888;
+        }
+        return bitmap.copy(config, false /* isMutable */);
+    }
+
     /**
      * Returns the thumbnailUri from the avatar URI, or null if avatar URI does not have thumbnail.
      */
@@ -540,10 +588,16 @@ public class BugleNotifications {
 
     private static void createMessageNotification(final boolean silent,
             final String conversationId) {
-        final NotificationState state = MessageNotificationState.getNotificationState();
         final boolean softSound = DataModel.get().isNewMessageObservable(conversationId);
+        // Only updates for a new message are deferred, the others may remove lines
+        if (!softSound && !TextUtils.isEmpty(conversationId)
+                && deferUpdate(silent, conversationId)) {
+            return;
+        }
+        final NotificationState state = MessageNotificationState.getNotificationState();
         if (state == null) {
             cancel(PendingIntentConstants.SMS_NOTIFICATION_ID);
+            sAvatarBitmaps.evictAll();
             if (softSound && !TextUtils.isEmpty(conversationId)) {
                 playObservableConversationNotificationSound(conversationId);
             }
@@ -581,6 +635,66 @@ public class BugleNotifications {
         writeGroupChildIds(context, groupChildIds);
     }
 
+    /**
+     * Posts of the message notification for new messages of a conversation are at least
+     * NOTIFICATION_UPDATE_INTERVAL_MILLIS_DEFAULT apart. An update within that time of the last
+     * post is deferred to its end, merged with any other update deferred for the conversation.
+     * Called before the notification state is built, so that deferred updates don't query it.
+     *
+     * @param conversationId the conversation of the new message
+     * @return true if the update was deferred and should not be posted now
+     */
+    private static boolean deferUpdate(final boolean silent, final String conversationId) {
+        final long interval = BugleGservicesKeys.NOTIFICATION_UPDATE_INTERVAL_MILLIS_DEFAULT;
+        final long now = SystemClock.uptimeMillis();
+        synchronized (sUpdateTimes) {
+            sMessageUpdateCount++;
+            final Long lastUpdateTime = sUpdateTimes.get(conversationId);
+            if (lastUpdateTime == null || now - lastUpdateTime >= interval) {
+                // Forget the conversations not updated recently
+                sUpdateTimes.values().removeIf(time -> now - time >= interval);
+                sUpdateTimes.put(conversationId, now);
+                return false;
+            }
+            final Boolean deferredSilent = sDeferredUpdateSilent.get(conversationId);
+            if (deferredSilent != null) {
+                // The deferred update will pick this one up, with sound if either has
+                sDeferredUpdateSilent.put(conversationId, deferredSilent && silent);
+                sMergedUpdateCount++;
+                return true;
+            }
+            sDeferredUpdateSilent.put(conversationId, silent);
+            sDeferredUpdateCount++;
+            ThreadUtil.getMainThreadHandler().postAtTime(() -> {
+                final boolean updateSilent;
+                synchronized (sUpdateTimes) {
+                    updateSilent = sDeferredUpdateSilent.remove(conversationId);
+                    // The deferred update is due, don't defer it again
+                    sUpdateTimes.remove(conversationId);
+                }
+                UpdateMessageNotificationAction.updateMessageNotification(updateSilent,
+                        conversationId);
+            }, lastUpdateTime + interval);
+            return true;
+        }
+    }
+
+    /**
+     * Print the number of message notification updates posted and avoided, and the hits of the
+     * avatar bitmap cache
+     */
+    public static void dump(final PrintWriter writer) {
+        writer.println("Message notification updates:");
+        synchronized (sUpdateTimes) {
+            writer.println("  new message updates: " + sMessageUpdateCount + ", deferred: "
+                    + sDeferredUpdateCount + ", posts avoided by merging: " + sMergedUpdateCount
+                    + ", pending: " + sDeferredUpdateSilent.size() + ", interval: "
+                    + BugleGservicesKeys.NOTIFICATION_UPDATE_INTERVAL_MILLIS_DEFAULT + " ms");
+        }
+        writer.println("  avatar bitmaps: " + sAvatarBitmaps.size() / 1024 + " KB, hits: "
+                + sAvatarBitmaps.hitCount() + ", misses: " + sAvatarBitmaps.missCount());
+    }
+
     private static void updateBuilderAudioVibrate(final NotificationState state,
             final NotificationCompat.Builder notifBuilder, final boolean silent,
             final String conversationId) {
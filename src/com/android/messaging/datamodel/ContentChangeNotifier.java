@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2024 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.messaging.datamodel;
+
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+
+import com.android.messaging.util.BugleGservicesKeys;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+
+/**
+ * Coalesces the change notifications of {@link MessagingContentProvider}.
+ *
+ * Uris changed while the calling thread is in a {@link DatabaseWrapper} transaction are held
+ * until its outermost transaction ends, since readers cannot see the changes before that
+ * anyway. Changed uris are then collected for a debounce window after the first one and each
+ * distinct uri is published once, so that a sync batch or a group MMS touching the same
+ * conversations many times restarts their loaders once. The changes are published from a
+ * background thread, so that the binder calls to the content resolver stay off the main thread.
+ *
+ * It also counts the changes requested and published per uri, to show the fan-out in dumps.
+ */
+class ContentChangeNotifier {
+    /**
+     * Publishes the change of a uri to observers
+     */
+    interface Publisher {
+        void publish(Uri uri);
+    }
+
+    private static final int MAX_DUMPED_URIS = 20;
+
+    private static ContentChangeNotifier sInstance;
+
+    private final Publisher mPublisher;
+    private final long mDebounceMillis;
+    private final Uri mRootUri;
+    private final Handler mHandler;
+
+    // Uris changed in the transactions of each thread, published when they end
+    private final ThreadLocal<LinkedHashSet<Uri>> mTransactionUris =
+            ThreadLocal.withInitial(LinkedHashSet::new);
+
+    // Uris waiting for the end of the debounce window
+    private final LinkedHashSet<Uri> mPendingUris = new LinkedHashSet<>();
+    private boolean mFlushScheduled;
+
+    // Uri to {requested, published} counts
+    private final HashMap<Uri, long[]> mCounts = new HashMap<>();
+    private long mRequestedCount;
+    private long mPublishedCount;
+
+    private final Runnable mFlushRunnable = this::flush;
+
+    static synchronized ContentChangeNotifier get() {
+        if (sInstance == null) {
+            final HandlerThread thread = new HandlerThread("ContentChangeNotifier",
+                    Process.THREAD_PRIORITY_BACKGROUND);
+            thread.start();
+            sInstance = new ContentChangeNotifier(MessagingContentProvider::publishChange,
+                    BugleGservicesKeys.CONTENT_CHANGE_DEBOUNCE_MILLIS_DEFAULT,
+                    MessagingContentProvider.ROOT_URI, new Handler(thread.getLooper()));
+        }
+        return sInstance;
+    }
+
+    /**
+     * @param rootUri uri whose change covers all the others, which are then not published
+     * @param handler handler of the thread the changes are published from
+     */
+    ContentChangeNotifier(final Publisher publisher, final long debounceMillis,
+            final Uri rootUri, final Handler handler) {
+        mPublisher = publisher;
+        mDebounceMillis = debounceMillis;
+        mRootUri = rootUri;
+        mHandler = handler;
+    }
+
+    /**
+     * Record the change of a uri, to be published after the current transaction, if any, and
+     * the debounce window
+     */
+    void notifyChange(final Uri uri) {
+        synchronized (this) {
+            mRequestedCount++;
+            getCounts(uri)[0]++;
+        }
+        if (DatabaseWrapper.isInTransactionOnThisThread()) {
+            mTransactionUris.get().add(uri);
+        } else {
+            schedule(uri);
+        }
+    }
+
+    /**
+     * Called when the outermost transaction of the calling thread ends
+     * @param successful whether the transaction was committed; the uris changed in a rolled
+     * back transaction are dropped
+     */
+    void onTransactionEnded(final boolean successful) {
+        final LinkedHashSet<Uri> uris = mTransactionUris.get();
+        if (!successful) {
+            uris.clear();
+        }
+        if (uris.isEmpty()) {
+            return;
+        }
+        final ArrayList<Uri> ended = new ArrayList<>(uris);
+        uris.clear();
+        for (final Uri uri : ended) {
+            schedule(uri);
+        }
+    }
+
+    private synchronized void schedule(final Uri uri) {
+        mPendingUris.add(uri);
+        if (!mFlushScheduled) {
+            mFlushScheduled = true;
+            mHandler.postDelayed(mFlushRunnable, mDebounceMillis);
+        }
+    }
+
+    private void flush() {
+        final ArrayList<Uri> uris;
+        synchronized (this) {
+            mFlushScheduled = false;
+            if (mPendingUris.contains(mRootUri)) {
+                uris = new ArrayList<>(1);
+                uris.add(mRootUri);
+            } else {
+                uris = new ArrayList<>(mPendingUris);
+            }
+            mPendingUris.clear();
+            mPublishedCount += uris.size();
+            for (final Uri uri : uris) {
+                getCounts(uri)[1]++;
+            }
+        }
+        for (final Uri uri : uris) {
+            mPublisher.publish(uri);
+        }
+    }
+
+    private long[] getCounts(final Uri uri) {
+        long[] counts = mCounts.get(uri);
+        if (counts == null) {
+            counts = new long[2];
+            mCounts.put(uri, counts);
+        }
+        return counts;
+    }
+
+    /**
+     * Print the number of changes requested and published, in total and for the uris changed
+     * most often
+     */
+    synchronized void dump(final PrintWriter writer) {
+        writer.println("Content change notifications:");
+        writer.println("  requested: " + mRequestedCount + ", published: " + mPublishedCount
+                + ", pending: " + mPendingUris.size() + ", debounce: " + mDebounceMillis + " ms");
+        final ArrayList<Map.Entry<Uri, long[]>> entries = new ArrayList<>(mCounts.entrySet());
+        entries.sort((lhs, rhs) -> Long.compare(rhs.getValue()[0], lhs.getValue()[0]));
+        for (int i = 0; i < Math.min(MAX_DUMPED_URIS, entries.size()); i++) {
+            final Map.Entry<Uri, long[]> entry = entries.get(i);
+            writer.println("  " + entry.getKey() + ": requested " + entry.getValue()[0]
+                    + ", published " + entry.getValue()[1]);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2024 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.messaging.datamodel;
+
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.database.MatrixCursor;
+
+import androidx.recyclerview.widget.ListUpdateCallback;
+
+import java.util.List;
+
+/**
+ * A snapshot of the conversation list loaded by {@link ConversationListLoader}. A snapshot made
+ * by applying the changes of some conversations to the previous one carries the list operations
+ * that turn the previous snapshot into this one, so that only the changed rows are rebound.
+ */
+public class ConversationListCursor extends MatrixCursor {
+    private static final int OP_INSERT = 0;
+    private static final int OP_REMOVE = 1;
+    private static final int OP_MOVE = 2;
+    private static final int OP_CHANGE = 3;
+
+    private final long mVersion;
+    // Version of the snapshot the operations apply to, or -1 if there are none
+    private final long mBaseVersion;
+    // Operations as {type, position, to position} in the order they were applied
+    private final List<int[]> mOps;
+
+    ConversationListCursor(final String[] columnNames, final List<Object[]> rows,
+            final long version, final long baseVersion, final List<int[]> ops) {
+        super(columnNames, rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            addRow(rows.get(i));
+        }
+        mVersion = version;
+        mBaseVersion = baseVersion;
+        mOps = ops;
+    }
+
+    static int[] makeInsert(final int position) {
+        return new int[] { OP_INSERT, position, 0 };
+    }
+
+    static int[] makeRemove(final int position) {
+        return new int[] { OP_REMOVE, position, 0 };
+    }
+
+    static int[] makeMove(final int fromPosition, final int toPosition) {
+        return new int[] { OP_MOVE, fromPosition, toPosition };
+    }
+
+    static int[] makeChange(final int position) {
+        return new int[] { OP_CHANGE, position, 0 };
+    }
+
+    /**
+     * @return whether this snapshot carries the operations from the given cursor to it
+     */
+    public boolean isUpdateOf(Cursor cursor) {
+        while (cursor instanceof CursorWrapper) {
+            cursor = ((CursorWrapper) cursor).getWrappedCursor();
+        }
+        return mBaseVersion >= 0 && cursor instanceof ConversationListCursor
+                && ((ConversationListCursor) cursor).mVersion == mBaseVersion;
+    }
+
+    /**
+     * Replay the operations from the previous snapshot to this one
+     */
+    public void dispatchUpdatesTo(final ListUpdateCallback callback) {
+        for (final int[] op : mOps) {
+            switch (op[0]) {
+                case OP_INSERT:
+                    callback.onInserted(op[1], 1);
+                    break;
+                case OP_REMOVE:
+                    callback.onRemoved(op[1], 1);
+                    break;
+                case OP_MOVE:
+                    callback.onMoved(op[1], op[2]);
+                    break;
+                case OP_CHANGE:
+                    callback.onChanged(op[1], 1, null);
+                    break;
+            }
+        }
+    }
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright (C) 2024 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.messaging.datamodel;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.text.TextUtils;
+
+import com.android.messaging.datamodel.data.ConversationListItemData.ConversationListViewColumns;
+import com.android.messaging.util.LogUtil;
+import com.android.messaging.util.ThreadUtil;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Loader of the conversation list that keeps the list in memory, sorted as the query sorts it,
+ * and applies the changes of single conversations to it.
+ *
+ * A change notified on the uri of a conversation ({@link
+ * MessagingContentProvider#buildConversationMetadataUri}) only queries the row of that
+ * conversation and moves it to its new place in the list. Any other change of the conversation
+ * list, or changes of many conversations at once, reload the whole list. The delivered cursors
+ * are {@link ConversationListCursor}s carrying the list operations from the previous one.
+ */
+public class ConversationListLoader extends BoundCursorLoader {
+    private static final String TAG = LogUtil.BUGLE_DATAMODEL_TAG;
+
+    // Beyond this many changed conversations, reloading the list is cheaper
+    private static final int MAX_INCREMENTAL_CHANGES = 16;
+
+    private static final AtomicLong sNextVersion = new AtomicLong();
+
+    private final ContentObserver mObserver;
+    private boolean mObserverRegistered;
+
+    // Guarded by this: conversations changed since the last load, or whether the whole list has
+    private final LinkedHashSet<String> mChangedConversationIds = new LinkedHashSet<>();
+    private boolean mReloadNeeded = true;
+
+    // Only used by loadInBackground, which runs one load at a time
+    private String[] mColumnNames;
+    private int mIdIndex;
+    private int mSortTimestampIndex;
+    private ArrayList<Object[]> mRows;
+    private long mVersion = -1;
+
+    public ConversationListLoader(final String bindingId, final Context context,
+            final String[] projection, final String selection, final String sortOrder) {
+        super(bindingId, context, MessagingContentProvider.CONVERSATIONS_URI, projection,
+                selection, null /* selectionArgs */, sortOrder);
+        mObserver = new ContentObserver(ThreadUtil.getMainThreadHandler()) {
+            @Override
+            public boolean deliverSelfNotifications() {
+                return true;
+            }
+
+            @Override
+            public void onChange(final boolean selfChange) {
+                onChange(selfChange, null);
+            }
+
+            @Override
+            public void onChange(final boolean selfChange, final Uri uri) {
+                onConversationsChanged(uri);
+            }
+        };
+    }
+
+    private void onConversationsChanged(final Uri uri) {
+        final String conversationId = getConversationId(uri);
+        synchronized (this) {
+            if (conversationId != null) {
+                mChangedConversationIds.add(conversationId);
+            } else {
+                mReloadNeeded = true;
+            }
+        }
+        onContentChanged();
+    }
+
+    /**
+     * @return the id of the single conversation the change uri is about, or null
+     */
+    private static String getConversationId(final Uri uri) {
+        if (uri == null) {
+            return null;
+        }
+        final List<String> segments = uri.getPathSegments();
+        final List<String> listSegments =
+                MessagingContentProvider.CONVERSATIONS_URI.getPathSegments();
+        if (segments.size() != listSegments.size() + 1
+                || !TextUtils.equals(uri.getAuthority(),
+                        MessagingContentProvider.CONVERSATIONS_URI.getAuthority())
+                || !segments.subList(0, listSegments.size()).equals(listSegments)) {
+            return null;
+        }
+        return segments.get(segments.size() - 1);
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if (!mObserverRegistered) {
+            getContext().getContentResolver().registerContentObserver(getUri(),
+                    true /* notifyForDescendants */, mObserver);
+            mObserverRegistered = true;
+        }
+        super.onStartLoading();
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        if (mObserverRegistered) {
+            getContext().getContentResolver().unregisterContentObserver(mObserver);
+            mObserverRegistered = false;
+        }
+        synchronized (this) {
+            mReloadNeeded = true;
+            mChangedConversationIds.clear();
+        }
+    }
+
+    @Override
+    public Cursor loadInBackground() {
+        final ArrayList<String> changedIds;
+        final boolean reload;
+        synchronized (this) {
+            reload = mReloadNeeded || mRows == null
+                    || mChangedConversationIds.size() > MAX_INCREMENTAL_CHANGES;
+            changedIds = new ArrayList<>(mChangedConversationIds);
+            mChangedConversationIds.clear();
+            mReloadNeeded = false;
+        }
+        try {
+            return reload ? loadList() : loadChanges(changedIds);
+        } catch (final RuntimeException e) {
+            synchronized (this) {
+                mReloadNeeded = true;
+            }
+            throw e;
+        }
+    }
+
+    private Cursor loadList() {
+        final ArrayList<Object[]> rows = new ArrayList<>();
+        try (final Cursor cursor = getContext().getContentResolver().query(getUri(),
+                getProjection(), getSelection(), getSelectionArgs(), getSortOrder())) {
+            if (cursor == null) {
+                return null;
+            }
+            mColumnNames = cursor.getColumnNames();
+            mIdIndex = cursor.getColumnIndexOrThrow(ConversationListViewColumns._ID);
+            mSortTimestampIndex = cursor.getColumnIndexOrThrow(
+                    ConversationListViewColumns.SORT_TIMESTAMP);
+            while (cursor.moveToNext()) {
+                rows.add(readRow(cursor));
+            }
+        }
+        mRows = rows;
+        mVersion = sNextVersion.incrementAndGet();
+        return new ConversationListCursor(mColumnNames, rows, mVersion, -1 /* baseVersion */,
+                new ArrayList<>());
+    }
+
+    private Cursor loadChanges(final List<String> conversationIds) {
+        final ArrayList<Object[]> rows = new ArrayList<>(mRows);
+        final ArrayList<int[]> ops = new ArrayList<>();
+        final String selection = (TextUtils.isEmpty(getSelection()) ? ""
+                : "(" + getSelection() + ") AND ")
+                + ConversationListViewColumns._ID + "=?";
+        for (final String conversationId : conversationIds) {
+            Object[] row = null;
+            try (final Cursor cursor = getContext().getContentResolver().query(getUri(),
+                    getProjection(), selection, new String[] { conversationId }, null)) {
+                if (cursor == null) {
+                    return loadList();
+                }
+                if (cursor.moveToFirst()) {
+                    row = readRow(cursor);
+                }
+            }
+            applyChange(rows, conversationId, row, ops);
+        }
+        if (LogUtil.isLoggable(TAG, LogUtil.VERBOSE)) {
+            LogUtil.v(TAG, "ConversationListLoader: applied changes of "
+                    + conversationIds.size() + " conversations as " + ops.size() + " operations");
+        }
+        final long baseVersion = mVersion;
+        mRows = rows;
+        mVersion = sNextVersion.incrementAndGet();
+        return new ConversationListCursor(mColumnNames, rows, mVersion, baseVersion, ops);
+    }
+
+    /**
+     * Replace the row of a conversation, keeping the list sorted by descending sort timestamp
+     *
+     * @param row the new row, or null if the conversation is no longer in the list
+     */
+    private void applyChange(final ArrayList<Object[]> rows, final String conversationId,
+            final Object[] row, final List<int[]> ops) {
+        int oldPosition = -1;
+        for (int i = 0; i < rows.size(); i++) {
+            if (conversationId.equals(String.valueOf(rows.get(i)[mIdIndex]))) {
+                oldPosition = i;
+                break;
+            }
+        }
+        if (oldPosition >= 0) {
+            rows.remove(oldPosition);
+        }
+        if (row == null) {
+            if (oldPosition >= 0) {
+                ops.add(ConversationListCursor.makeRemove(oldPosition));
+            }
+            return;
+        }
+
+        final long sortTimestamp = getSortTimestamp(row);
+        int newPosition = 0;
+        while (newPosition < rows.size()
+                && getSortTimestamp(rows.get(newPosition)) >= sortTimestamp) {
+            newPosition++;
+        }
+        rows.add(newPosition, row);
+        if (oldPosition < 0) {
+            ops.add(ConversationListCursor.makeInsert(newPosition));
+        } else {
+            if (newPosition != oldPosition) {
+                ops.add(ConversationListCursor.makeMove(oldPosition, newPosition));
+            }
+            ops.add(ConversationListCursor.makeChange(newPosition));
+        }
+    }
+
+    private long getSortTimestamp(final Object[] row) {
+        final Object value = row[mSortTimestampIndex];
+        return value instanceof Number ? ((Number) value).longValue() : 0;
+    }
+
+    private static Object[] readRow(final Cursor cursor) {
+        final Object[] row = new Object[cursor.getColumnCount()];
+        for (int i = 0; i < row.length; i++) {
+            switch (cursor.getType(i)) {
+                case Cursor.FIELD_TYPE_INTEGER:
+                    row[i] = cursor.getLong(i);
+                    break;
+                case Cursor.FIELD_TYPE_FLOAT:
+                    row[i] = cursor.getDouble(i);
+                    break;
+                case Cursor.FIELD_TYPE_STRING:
+                    row[i] = cursor.getString(i);
+                    break;
+                case Cursor.FIELD_TYPE_BLOB:
+                    row[i] = cursor.getBlob(i);
+                    break;
+                default:
+                    row[i] = null;
+                    break;
+            }
+        }
+        return row;
+    }
+}
@@ -146,7 +146,16 @@ public abstract class DataModel {
                 || isFocusedConversation(conversationId);
     }
 
+    /**
+     * Fixes up the messages left in flight by a previous process and sends the pending ones.
+     * Runs before anything is shown, so that nothing sent by this process is mistaken for them.
+     */
     public abstract void onApplicationCreated();
 
+    /**
+     * Starts the startup work that can wait until the first frame is drawn
+     */
+    public abstract void onApplicationStartupDeferred();
+
     public abstract SyncManager getSyncManager();
 }
@@ -210,6 +210,10 @@ public class DataModelImpl extends DataModel {
 
         FixupMessageStatusOnStartupAction.fixupMessageStatus();
         ProcessPendingMessagesAction.processFirstPendingMessage();
+    }
+
+    @Override
+    public void onApplicationStartupDeferred() {
         SyncManager.immediateSync();
 
         // Start listening for subscription change events for refreshing any data associated
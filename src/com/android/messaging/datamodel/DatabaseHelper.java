@@ -56,6 +56,8 @@ public class DatabaseHelper extends SQLiteOpenHelper {
     public static final String PARTS_TABLE = "parts";
     public static final String PARTICIPANTS_TABLE = "participants";
     public static final String CONVERSATION_PARTICIPANTS_TABLE = "conversation_participants";
+    // Full-text index over the text of message parts
+    public static final String PARTS_FTS_TABLE = "parts_fts";
 
     // Views
     static final String DRAFT_PARTS_VIEW = "draft_parts_view";
@@ -223,6 +225,12 @@ public class DatabaseHelper extends SQLiteOpenHelper {
          */
         public static final String RETRY_START_TIMESTAMP = "retry_start_timestamp";
 
+        /*
+         * Time before which a message awaiting a retry should not be sent/downloaded again. This
+         * is the per message backoff between automatic retries.
+         */
+        public static final String NEXT_RETRY_TIMESTAMP = "next_retry_timestamp";
+
         // Columns which map to the SMS provider
 
         /* Message ID from the platform provider */
@@ -272,6 +280,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                     + MessageColumns.RAW_TELEPHONY_STATUS + " INT DEFAULT(0), "
                     + MessageColumns.SELF_PARTICIPANT_ID + " INT, "
                     + MessageColumns.RETRY_START_TIMESTAMP + " INT DEFAULT(0), "
+                    + MessageColumns.NEXT_RETRY_TIMESTAMP + " INT DEFAULT(0), "
                     + "FOREIGN KEY (" + MessageColumns.CONVERSATION_ID + ") REFERENCES "
                     + CONVERSATIONS_TABLE + "(" + ConversationColumns._ID + ") ON DELETE CASCADE "
                     + "FOREIGN KEY (" + MessageColumns.SENDER_PARTICIPANT_ID + ") REFERENCES "
@@ -360,6 +369,46 @@ public class DatabaseHelper extends SQLiteOpenHelper {
             + PartColumns.MESSAGE_ID + " = NEW." + MessageColumns._ID
             + "; END;";
 
+    // Full-text index of the parts table. It is an external content table, so it does not keep
+    // its own copy of the text; its docid is the part id.
+    static final String CREATE_PARTS_FTS_TABLE_SQL =
+            "CREATE VIRTUAL TABLE " + PARTS_FTS_TABLE + " USING fts4("
+                    + "content=\"" + PARTS_TABLE + "\", "
+                    + PartColumns.TEXT + ", "
+                    + "tokenize=unicode61)";
+
+    // The triggers keeping the full-text index up to date. Index entries have to be removed
+    // while the indexed text is still in the parts table, so before a delete or update.
+    static final String CREATE_PARTS_FTS_INSERT_TRIGGER_SQL =
+            "CREATE TRIGGER " + PARTS_FTS_TABLE + "_insert_TRIGGER AFTER INSERT ON "
+            + PARTS_TABLE + " FOR EACH ROW WHEN NEW." + PartColumns.TEXT + " IS NOT NULL"
+            + " BEGIN INSERT INTO " + PARTS_FTS_TABLE + "(docid, " + PartColumns.TEXT + ")"
+            + " VALUES (NEW." + PartColumns._ID + ", NEW." + PartColumns.TEXT + "); END";
+
+    static final String CREATE_PARTS_FTS_DELETE_TRIGGER_SQL =
+            "CREATE TRIGGER " + PARTS_FTS_TABLE + "_delete_TRIGGER BEFORE DELETE ON "
+            + PARTS_TABLE + " FOR EACH ROW WHEN OLD." + PartColumns.TEXT + " IS NOT NULL"
+            + " BEGIN DELETE FROM " + PARTS_FTS_TABLE + " WHERE docid=OLD." + PartColumns._ID
+            + "; END";
+
+    static final String CREATE_PARTS_FTS_BEFORE_UPDATE_TRIGGER_SQL =
+            "CREATE TRIGGER " + PARTS_FTS_TABLE + "_before_update_TRIGGER BEFORE UPDATE OF "
+            + PartColumns.TEXT + " ON " + PARTS_TABLE
+            + " FOR EACH ROW WHEN OLD." + PartColumns.TEXT + " IS NOT NULL"
+            + " BEGIN DELETE FROM " + PARTS_FTS_TABLE + " WHERE docid=OLD." + PartColumns._ID
+            + "; END";
+
+    static final String CREATE_PARTS_FTS_AFTER_UPDATE_TRIGGER_SQL =
+            "CREATE TRIGGER " + PARTS_FTS_TABLE + "_after_update_TRIGGER AFTER UPDATE OF "
+            + PartColumns.TEXT + " ON " + PARTS_TABLE
+            + " FOR EACH ROW WHEN NEW." + PartColumns.TEXT + " IS NOT NULL"
+            + " BEGIN INSERT INTO " + PARTS_FTS_TABLE + "(docid, " + PartColumns.TEXT + ")"
+            + " VALUES (NEW." + PartColumns._ID + ", NEW." + PartColumns.TEXT + "); END";
+
+    // Indexes the text of all the parts already in the parts table
+    static final String REBUILD_PARTS_FTS_TABLE_SQL =
+            "INSERT INTO " + PARTS_FTS_TABLE + "(" + PARTS_FTS_TABLE + ") VALUES('rebuild')";
+
     // Primary sort index for parts table : by message_id
     private static final String PARTS_TABLE_MESSAGE_INDEX_SQL =
             "CREATE INDEX index_" + PARTS_TABLE + "_message_id ON " + PARTS_TABLE + "("
@@ -519,6 +568,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
         CREATE_PARTS_TABLE_SQL,
         CREATE_PARTICIPANTS_TABLE_SQL,
         CREATE_CONVERSATION_PARTICIPANTS_TABLE_SQL,
+        CREATE_PARTS_FTS_TABLE_SQL,
     };
 
     // List of all our indices
@@ -536,6 +586,10 @@ public class DatabaseHelper extends SQLiteOpenHelper {
     private static final String[] CREATE_TRIGGER_SQLS = new String[] {
             CREATE_PARTS_TRIGGER_SQL,
             CREATE_MESSAGES_TRIGGER_SQL,
+            CREATE_PARTS_FTS_INSERT_TRIGGER_SQL,
+            CREATE_PARTS_FTS_DELETE_TRIGGER_SQL,
+            CREATE_PARTS_FTS_BEFORE_UPDATE_TRIGGER_SQL,
+            CREATE_PARTS_FTS_AFTER_UPDATE_TRIGGER_SQL,
     };
 
     // List of all our views
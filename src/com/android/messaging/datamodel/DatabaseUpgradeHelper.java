@@ -48,6 +48,12 @@ public class DatabaseUpgradeHelper {
         if (currentVersion < 2) {
             currentVersion = upgradeToVersion2(db);
         }
+        if (currentVersion < 3) {
+            currentVersion = upgradeToVersion3(db);
+        }
+        if (currentVersion < 4) {
+            currentVersion = upgradeToVersion4(db);
+        }
         // Rebuild all the views
         final Context context = Factory.get().getApplicationContext();
         DatabaseHelper.dropAllViews(db);
@@ -63,6 +69,25 @@ public class DatabaseUpgradeHelper {
         return 2;
     }
 
+    private int upgradeToVersion3(final SQLiteDatabase db) {
+        db.execSQL(DatabaseHelper.CREATE_PARTS_FTS_TABLE_SQL);
+        db.execSQL(DatabaseHelper.CREATE_PARTS_FTS_INSERT_TRIGGER_SQL);
+        db.execSQL(DatabaseHelper.CREATE_PARTS_FTS_DELETE_TRIGGER_SQL);
+        db.execSQL(DatabaseHelper.CREATE_PARTS_FTS_BEFORE_UPDATE_TRIGGER_SQL);
+        db.execSQL(DatabaseHelper.CREATE_PARTS_FTS_AFTER_UPDATE_TRIGGER_SQL);
+        // Index the existing messages
+        db.execSQL(DatabaseHelper.REBUILD_PARTS_FTS_TABLE_SQL);
+        LogUtil.i(TAG, "Ugraded database to version 3");
+        return 3;
+    }
+
+    private int upgradeToVersion4(final SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + DatabaseHelper.MESSAGES_TABLE + " ADD COLUMN " +
+                DatabaseHelper.MessageColumns.NEXT_RETRY_TIMESTAMP + " INT DEFAULT(0)");
+        LogUtil.i(TAG, "Ugraded database to version 4");
+        return 4;
+    }
+
     /**
      * Checks db version correctness at the end of each milestone release. If target database
      * version lies beyond the version range that the current release may handle, we snap the
@@ -53,6 +53,8 @@ public class DatabaseWrapper {
     static class TransactionData {
         long time;
         boolean transactionSuccessful;
+        // A nested transaction ended without success, which rolls this one back too
+        boolean nestedTransactionFailed;
     }
 
     // track transaction on a per thread basis
@@ -131,9 +133,11 @@ public class DatabaseWrapper {
             transactionStartTime = f.time;
             t1 = System.currentTimeMillis();
         }
+        boolean rolledBack = !f.transactionSuccessful || f.nestedTransactionFailed;
         try {
             mDatabase.endTransaction();
         } catch (SQLiteFullException ex) {
+            rolledBack = true;
             LogUtil.e(TAG, "Database full, unable to endTransaction", ex);
             UiUtils.showToastAtBottom(R.string.db_full);
         }
@@ -142,6 +146,20 @@ public class DatabaseWrapper {
                     ">>> endTransaction (total for this transaction: %d)",
                     (System.currentTimeMillis() - transactionStartTime)));
         }
+        if (sTransactionDepth.get().isEmpty()) {
+            // Publish the changes notified during the transaction now that they are visible,
+            // or drop them if it was rolled back
+            ContentChangeNotifier.get().onTransactionEnded(!rolledBack);
+        } else if (rolledBack) {
+            sTransactionDepth.get().peek().nestedTransactionFailed = true;
+        }
+    }
+
+    /**
+     * @return whether the calling thread is in a transaction
+     */
+    static boolean isInTransactionOnThisThread() {
+        return !sTransactionDepth.get().isEmpty();
     }
 
     public void yieldTransaction() {
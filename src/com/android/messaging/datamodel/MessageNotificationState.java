@@ -42,6 +42,9 @@ import androidx.core.app.NotificationManagerCompat;
 
 import com.android.messaging.Factory;
 import com.android.messaging.R;
+import com.android.messaging.datamodel.DatabaseHelper.ConversationColumns;
+import com.android.messaging.datamodel.DatabaseHelper.MessageColumns;
+import com.android.messaging.datamodel.DatabaseHelper.ParticipantColumns;
 import com.android.messaging.datamodel.data.ConversationListItemData;
 import com.android.messaging.datamodel.data.ConversationMessageData;
 import com.android.messaging.datamodel.data.ConversationParticipantsData;
@@ -797,162 +800,270 @@ public abstract class MessageNotificationState extends NotificationState {
         }
     }
 
+    // Query of the unseen messages to notify with the values their notification lines depend on,
+    // newest first. It only reads the messages table and rows joined by primary key, unlike the
+    // notification query that joins and groups the parts of each message.
+    private static final String NOTIFICATION_INDEX_QUERY_SQL = "SELECT "
+            + "m." + MessageColumns.CONVERSATION_ID + ", "
+            + "m." + MessageColumns._ID + ", "
+            + "m." + MessageColumns.STATUS + ", "
+            + "c." + ConversationColumns.NAME + ", "
+            + "c." + ConversationColumns.PARTICIPANT_COUNT + ", "
+            + "c." + ConversationColumns.CURRENT_SELF_ID + ", "
+            + "p." + ParticipantColumns.FULL_NAME + ", "
+            + "p." + ParticipantColumns.FIRST_NAME + ", "
+            + "p." + ParticipantColumns.PROFILE_PHOTO_URI
+            + " FROM " + DatabaseHelper.MESSAGES_TABLE + " m"
+            + " JOIN " + DatabaseHelper.CONVERSATIONS_TABLE + " c ON c." + ConversationColumns._ID
+            + "=m." + MessageColumns.CONVERSATION_ID
+            + " LEFT JOIN " + DatabaseHelper.PARTICIPANTS_TABLE + " p ON p."
+            + ParticipantColumns._ID + "=m." + MessageColumns.SENDER_PARTICIPANT_ID
+            + " WHERE m." + MessageColumns.STATUS + " IN ("
+            + MessageData.BUGLE_STATUS_INCOMING_COMPLETE + ", "
+            + MessageData.BUGLE_STATUS_INCOMING_YET_TO_MANUAL_DOWNLOAD + ")"
+            + " AND m." + MessageColumns.SEEN + "=0"
+            + " ORDER BY m." + MessageColumns.RECEIVED_TIMESTAMP + " DESC";
+    private static final int INDEX_CONVERSATION_ID = 0;
+
     /**
-     * Performs a query on the database.
+     * Notification lines of a conversation along with what they were built from
      */
-    private static ConversationInfoList createConversationInfoList() {
-        // Map key is conversation id. We use LinkedHashMap to ensure that entries are iterated in
-        // the same order they were originally added. We scan unseen messages from newest to oldest,
-        // so the corresponding conversations are added in that order, too.
-        final Map<String, ConversationLineInfo> convLineInfos = new LinkedHashMap<>();
-        int messageCount = 0;
+    private static final class CachedConversationLines {
+        final String mSignature;
+        final ConversationLineInfo mConvInfo;
 
-        Cursor convMessageCursor = null;
-        try {
-            final Context context = Factory.get().getApplicationContext();
-            final DatabaseWrapper db = DataModel.get().getDatabase();
+        CachedConversationLines(final String signature, final ConversationLineInfo convInfo) {
+            mSignature = signature;
+            mConvInfo = convInfo;
+        }
+    }
 
-            convMessageCursor = db.rawQuery(
-                    ConversationMessageData.getNotificationQuerySql(),
-                    null);
+    // Notification lines of the conversations in the last notification, by conversation id
+    private static HashMap<String, CachedConversationLines> sCachedConversationLines =
+            new HashMap<>();
+    // Settings the cached lines were built with
+    private static String sCachedLinesConfig;
+
+    /**
+     * Performs a query on the database.
+     *
+     * The notification lines of a conversation are kept from the previous call as long as its
+     * unseen messages, their senders and the conversation itself are unchanged, so that only the
+     * conversations that changed are queried in full and have their names scanned. Whether they
+     * changed is found from a light query of the unseen messages.
+     */
+    private static synchronized ConversationInfoList createConversationInfoList() {
+        final Context context = Factory.get().getApplicationContext();
+        final DatabaseWrapper db = DataModel.get().getDatabase();
+        final int maxMessages = getMaxMessagesInConversationNotification();
+        final String linesConfig = maxMessages + ":"
+                + context.getResources().getConfiguration().getLocales().toLanguageTags();
+        if (!linesConfig.equals(sCachedLinesConfig)) {
+            sCachedConversationLines.clear();
+            sCachedLinesConfig = linesConfig;
+        }
 
-            if (convMessageCursor != null && convMessageCursor.moveToFirst()) {
-                if (LogUtil.isLoggable(TAG, LogUtil.VERBOSE)) {
-                    LogUtil.v(TAG, "MessageNotificationState: Found unseen message notifications.");
+        // Signature of the unseen messages of each conversation. We scan unseen messages from
+        // newest to oldest, so the conversations are added in that order, too.
+        final LinkedHashMap<String, StringBuilder> signatures = new LinkedHashMap<>();
+        try (final Cursor indexCursor = db.rawQuery(NOTIFICATION_INDEX_QUERY_SQL, null)) {
+            while (indexCursor.moveToNext()) {
+                final String convId = indexCursor.getString(INDEX_CONVERSATION_ID);
+                StringBuilder signature = signatures.get(convId);
+                if (signature == null) {
+                    signature = new StringBuilder();
+                    signatures.put(convId, signature);
+                }
+                for (int i = INDEX_CONVERSATION_ID + 1; i < indexCursor.getColumnCount(); i++) {
+                    signature.append(indexCursor.getString(i)).append('\n');
                 }
-                final ConversationMessageData convMessageData =
-                        new ConversationMessageData();
-
-                HashMap<String, Integer> firstNames = null;
-                String conversationIdForFirstNames = null;
-                String groupConversationName = null;
-                final int maxMessages = getMaxMessagesInConversationNotification();
-
-                do {
-                    convMessageData.bind(convMessageCursor);
-
-                    // First figure out if this is a valid message.
-                    String authorFullName = convMessageData.getSenderFullName();
-                    String authorFirstName = convMessageData.getSenderFirstName();
-                    final String messageText = convMessageData.getText();
-
-                    final String convId = convMessageData.getConversationId();
-                    final String messageId = convMessageData.getMessageId();
-
-                    CharSequence text = messageText;
-                    final boolean isManualDownloadNeeded = convMessageData.getIsMmsNotification();
-                    if (isManualDownloadNeeded) {
-                        // Don't try and convert the text from html if it's sms and not a sms push
-                        // notification.
-                        Assert.equals(MessageData.BUGLE_STATUS_INCOMING_YET_TO_MANUAL_DOWNLOAD,
-                                convMessageData.getStatus());
-                        text = context.getResources().getString(
-                                R.string.message_title_manual_download);
-                    }
-                    ConversationLineInfo currConvInfo = convLineInfos.get(convId);
-                    if (currConvInfo == null) {
-                        final ConversationListItemData convData =
-                                ConversationListItemData.getExistingConversation(db, convId);
-                        final int subId = BugleDatabaseOperations.getSelfSubscriptionId(db,
-                                convData.getSelfId());
-                        groupConversationName = convData.getName();
-                        final Uri avatarUri = AvatarUriUtil.createAvatarUri(
-                                convMessageData.getSenderProfilePhotoUri(),
-                                convMessageData.getSenderFullName(),
-                                convMessageData.getSenderNormalizedDestination(),
-                                convMessageData.getSenderContactLookupKey());
-                        currConvInfo = new ConversationLineInfo(convId,
-                                convData.getIsGroup(),
-                                groupConversationName,
-                                convData.getIncludeEmailAddress(),
-                                convMessageData.getReceivedTimeStamp(),
-                                convData.getSelfId(),
-                                avatarUri,
-                                convMessageData.getSenderContactLookupUri(),
-                                subId,
-                                convData.getParticipantCount());
-                        convLineInfos.put(convId, currConvInfo);
-                    }
-                    // Prepare the message line
-                    if (currConvInfo.mTotalMessageCount < maxMessages) {
-                        if (currConvInfo.mIsGroup) {
-                            if (authorFirstName == null) {
-                                // authorFullName might be null as well. In that case, we won't
-                                // show an author. That is better than showing all the group
-                                // names again on the 2nd line.
-                                authorFirstName = authorFullName;
-                            }
-                        } else {
-                            // don't recompute this if we don't need to
-                            if (!TextUtils.equals(conversationIdForFirstNames, convId)) {
-                                firstNames = scanFirstNames(convId);
-                                conversationIdForFirstNames = convId;
-                            }
-                            if (firstNames != null) {
-                                final Integer count = firstNames.get(authorFirstName);
-                                if (count != null && count > 1) {
-                                    authorFirstName = authorFullName;
-                                }
-                            }
-
-                            if (authorFullName == null) {
-                                authorFullName = groupConversationName;
-                            }
-                            if (authorFirstName == null) {
-                                authorFirstName = groupConversationName;
-                            }
-                        }
-                        final String subjectText = MmsUtils.cleanseMmsSubject(
-                                context.getResources(),
-                                convMessageData.getMmsSubject());
-                        if (!TextUtils.isEmpty(subjectText)) {
-                            final String subjectLabel =
-                                    context.getString(R.string.subject_label);
-                            final SpannableStringBuilder spanBuilder =
-                                    new SpannableStringBuilder();
-
-                            spanBuilder.append(context.getString(R.string.notification_subject,
-                                    subjectLabel, subjectText));
-                            spanBuilder.setSpan(new TextAppearanceSpan(
-                                    context, R.style.NotificationSubjectText), 0,
-                                    subjectLabel.length(),
-                                    Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
-                            if (!TextUtils.isEmpty(text)) {
-                                // Now add the actual message text below the subject header.
-                                spanBuilder.append(System.getProperty("line.separator") + text);
-                            }
-                            text = spanBuilder;
-                        }
-                        // If we've got attachments, find the best one. If one of the messages is
-                        // a photo, save the url so we'll display a big picture notification.
-                        // Otherwise, show the first one we find.
-                        Uri attachmentUri = null;
-                        String attachmentType = null;
-                        final MessagePartData messagePartData =
-                                getMostInterestingAttachment(convMessageData);
-                        if (messagePartData != null) {
-                            attachmentUri = messagePartData.getContentUri();
-                            attachmentType = messagePartData.getContentType();
-                        }
-                        currConvInfo.mLineInfos.add(new MessageLineInfo(currConvInfo.mIsGroup,
-                                authorFullName, authorFirstName, text,
-                                attachmentUri, attachmentType, isManualDownloadNeeded, messageId));
-                    }
-                    messageCount++;
-                    currConvInfo.mTotalMessageCount++;
-                } while (convMessageCursor.moveToNext());
             }
-        } finally {
-            if (convMessageCursor != null) {
-                convMessageCursor.close();
+        }
+
+        final ArrayList<String> changedConvIds = new ArrayList<>();
+        for (final Map.Entry<String, StringBuilder> entry : signatures.entrySet()) {
+            final CachedConversationLines cached = sCachedConversationLines.get(entry.getKey());
+            if (cached == null || !TextUtils.equals(cached.mSignature, entry.getValue())) {
+                changedConvIds.add(entry.getKey());
+            }
+        }
+
+        // Map key is conversation id
+        final Map<String, ConversationLineInfo> changedConvLineInfos = new HashMap<>();
+        if (!changedConvIds.isEmpty()) {
+            final boolean queryAll = changedConvIds.size() > MmsUtils.MAX_IDS_PER_QUERY;
+            try (final Cursor convMessageCursor = queryAll
+                    ? db.rawQuery(ConversationMessageData.getNotificationQuerySql(), null)
+                    : db.rawQuery(ConversationMessageData.getNotificationQuerySql(
+                            changedConvIds.size()), changedConvIds.toArray(new String[0]))) {
+                addConversationLines(context, db, convMessageCursor, maxMessages,
+                        changedConvLineInfos);
             }
         }
-        if (convLineInfos.isEmpty()) {
+
+        final HashMap<String, CachedConversationLines> cachedConversationLines = new HashMap<>();
+        final List<ConversationLineInfo> convInfos = Lists.newLinkedList();
+        int messageCount = 0;
+        for (final Map.Entry<String, StringBuilder> entry : signatures.entrySet()) {
+            final String convId = entry.getKey();
+            final ConversationLineInfo convInfo;
+            if (changedConvIds.contains(convId)) {
+                convInfo = changedConvLineInfos.get(convId);
+                if (convInfo == null) {
+                    // Seen since the unseen messages were listed
+                    continue;
+                }
+            } else {
+                convInfo = sCachedConversationLines.get(convId).mConvInfo;
+            }
+            cachedConversationLines.put(convId,
+                    new CachedConversationLines(entry.getValue().toString(), convInfo));
+            convInfos.add(convInfo);
+            messageCount += convInfo.mTotalMessageCount;
+        }
+        sCachedConversationLines = cachedConversationLines;
+
+        if (LogUtil.isLoggable(TAG, LogUtil.VERBOSE)) {
+            LogUtil.v(TAG, "MessageNotificationState: " + signatures.size()
+                    + " conversations with unseen messages, " + changedConvIds.size()
+                    + " changed");
+        }
+        if (convInfos.isEmpty()) {
             return null;
         } else {
-            return new ConversationInfoList(messageCount,
-                    Lists.newLinkedList(convLineInfos.values()));
+            return new ConversationInfoList(messageCount, convInfos);
+        }
+    }
+
+    /**
+     * Add the notification lines of the unseen messages of the cursor to the lines of their
+     * conversations, creating the conversations as they are first seen
+     */
+    private static void addConversationLines(final Context context, final DatabaseWrapper db,
+            final Cursor convMessageCursor, final int maxMessages,
+            final Map<String, ConversationLineInfo> convLineInfos) {
+        if (convMessageCursor == null || !convMessageCursor.moveToFirst()) {
+            return;
         }
+        if (LogUtil.isLoggable(TAG, LogUtil.VERBOSE)) {
+            LogUtil.v(TAG, "MessageNotificationState: Found unseen message notifications.");
+        }
+        final ConversationMessageData convMessageData = new ConversationMessageData();
+
+        HashMap<String, Integer> firstNames = null;
+        String conversationIdForFirstNames = null;
+
+        do {
+            convMessageData.bind(convMessageCursor);
+
+            // First figure out if this is a valid message.
+            String authorFullName = convMessageData.getSenderFullName();
+            String authorFirstName = convMessageData.getSenderFirstName();
+            final String messageText = convMessageData.getText();
+
+            final String convId = convMessageData.getConversationId();
+            final String messageId = convMessageData.getMessageId();
+
+            CharSequence text = messageText;
+            final boolean isManualDownloadNeeded = convMessageData.getIsMmsNotification();
+            if (isManualDownloadNeeded) {
+                // Don't try and convert the text from html if it's sms and not a sms push
+                // notification.
+                Assert.equals(MessageData.BUGLE_STATUS_INCOMING_YET_TO_MANUAL_DOWNLOAD,
+                        convMessageData.getStatus());
+                text = context.getResources().getString(
+                        R.string.message_title_manual_download);
+            }
+            ConversationLineInfo currConvInfo = convLineInfos.get(convId);
+            if (currConvInfo == null) {
+                final ConversationListItemData convData =
+                        ConversationListItemData.getExistingConversation(db, convId);
+                final int subId = BugleDatabaseOperations.getSelfSubscriptionId(db,
+                        convData.getSelfId());
+                final Uri avatarUri = AvatarUriUtil.createAvatarUri(
+                        convMessageData.getSenderProfilePhotoUri(),
+                        convMessageData.getSenderFullName(),
+                        convMessageData.getSenderNormalizedDestination(),
+                        convMessageData.getSenderContactLookupKey());
+                currConvInfo = new ConversationLineInfo(convId,
+                        convData.getIsGroup(),
+                        convData.getName(),
+                        convData.getIncludeEmailAddress(),
+                        convMessageData.getReceivedTimeStamp(),
+                        convData.getSelfId(),
+                        avatarUri,
+                        convMessageData.getSenderContactLookupUri(),
+                        subId,
+                        convData.getParticipantCount());
+                convLineInfos.put(convId, currConvInfo);
+            }
+            // Prepare the message line
+            if (currConvInfo.mTotalMessageCount < maxMessages) {
+                if (currConvInfo.mIsGroup) {
+                    if (authorFirstName == null) {
+                        // authorFullName might be null as well. In that case, we won't
+                        // show an author. That is better than showing all the group
+                        // names again on the 2nd line.
+                        authorFirstName = authorFullName;
+                    }
+                } else {
+                    // don't recompute this if we don't need to
+                    if (!TextUtils.equals(conversationIdForFirstNames, convId)) {
+                        firstNames = scanFirstNames(convId);
+                        conversationIdForFirstNames = convId;
+                    }
+                    if (firstNames != null) {
+                        final Integer count = firstNames.get(authorFirstName);
+                        if (count != null && count > 1) {
+                            authorFirstName = authorFullName;
+                        }
+                    }
+
+                    if (authorFullName == null) {
+                        authorFullName = currConvInfo.mGroupConversationName;
+                    }
+                    if (authorFirstName == null) {
+                        authorFirstName = currConvInfo.mGroupConversationName;
+                    }
+                }
+                final String subjectText = MmsUtils.cleanseMmsSubject(
+                        context.getResources(),
+                        convMessageData.getMmsSubject());
+                if (!TextUtils.isEmpty(subjectText)) {
+                    final String subjectLabel =
+                            context.getString(R.string.subject_label);
+                    final SpannableStringBuilder spanBuilder =
+                            new SpannableStringBuilder();
+
+                    spanBuilder.append(context.getString(R.string.notification_subject,
+                            subjectLabel, subjectText));
+                    spanBuilder.setSpan(new TextAppearanceSpan(
+                            context, R.style.NotificationSubjectText), 0,
+                            subjectLabel.length(),
+                            Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+                    if (!TextUtils.isEmpty(text)) {
+                        // Now add the actual message text below the subject header.
+                        spanBuilder.append(System.getProperty("line.separator") + text);
+                    }
+                    text = spanBuilder;
+                }
+                // If we've got attachments, find the best one. If one of the messages is
+                // a photo, save the url so we'll display a big picture notification.
+                // Otherwise, show the first one we find.
+                Uri attachmentUri = null;
+                String attachmentType = null;
+                final MessagePartData messagePartData =
+                        getMostInterestingAttachment(convMessageData);
+                if (messagePartData != null) {
+                    attachmentUri = messagePartData.getContentUri();
+                    attachmentType = messagePartData.getContentType();
+                }
+                currConvInfo.mLineInfos.add(new MessageLineInfo(currConvInfo.mIsGroup,
+                        authorFullName, authorFirstName, text,
+                        attachmentUri, attachmentType, isManualDownloadNeeded, messageId));
+            }
+            currConvInfo.mTotalMessageCount++;
+        } while (convMessageCursor.moveToNext());
     }
 
     /**
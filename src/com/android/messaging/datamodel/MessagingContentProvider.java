@@ -22,8 +22,10 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.MatrixCursor;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.os.Bundle;
 import android.os.ParcelFileDescriptor;
 import android.text.TextUtils;
 
@@ -32,13 +34,18 @@ import androidx.annotation.NonNull;
 import com.android.messaging.Factory;
 import com.android.messaging.datamodel.DatabaseHelper.ConversationColumns;
 import com.android.messaging.datamodel.DatabaseHelper.ConversationParticipantsColumns;
+import com.android.messaging.datamodel.DatabaseHelper.MessageColumns;
 import com.android.messaging.datamodel.DatabaseHelper.ParticipantColumns;
 import com.android.messaging.datamodel.data.ConversationListItemData;
 import com.android.messaging.datamodel.data.ConversationMessageData;
+import com.android.messaging.datamodel.data.ConversationMessagesCursor;
 import com.android.messaging.datamodel.data.MessageData;
+import com.android.messaging.datamodel.data.MessageSearchResultData;
 import com.android.messaging.datamodel.data.ParticipantData;
+import com.android.messaging.datamodel.media.BitmapPool;
 import com.android.messaging.util.LogUtil;
 import com.android.messaging.util.PhoneUtils;
+import com.android.messaging.util.StartupTimings;
 import com.android.messaging.widget.BugleWidgetProvider;
 import com.android.messaging.widget.WidgetConversationProvider;
 
@@ -56,6 +63,9 @@ public class MessagingContentProvider extends ContentProvider {
             "com.android.messaging.datamodel.MessagingContentProvider";
     private static final String CONTENT_AUTHORITY = "content://" + AUTHORITY + '/';
 
+    // Parent of all the uris of the provider
+    static final Uri ROOT_URI = Uri.parse(CONTENT_AUTHORITY);
+
     // Conversations query
     private static final String CONVERSATIONS_QUERY = "conversations";
 
@@ -70,6 +80,34 @@ public class MessagingContentProvider extends ContentProvider {
     public static final Uri CONVERSATION_MESSAGES_URI = Uri.parse(CONTENT_AUTHORITY +
             MESSAGES_QUERY + "/conversation");
 
+    // Conversation messages query parameters that limit the result to the newest messages, so
+    // that long conversations are not loaded in full. The window starts at a received timestamp
+    // rather than at an offset, so it stays put while messages are added or removed.
+
+    // Only messages received at or after this timestamp are returned
+    public static final String WINDOW_START_PARAMETER = "window_start";
+    // Moves the start of the window back by this many messages, or without a window start,
+    // makes it the newest this many messages
+    public static final String PAGE_SIZE_PARAMETER = "page_size";
+
+    // Extra of windowed conversation messages cursors with the number of messages left out
+    // before the start of the window
+    public static final String EXTRA_OLDER_MESSAGE_COUNT = "older_message_count";
+
+    // Messages of a conversation shown in the conversation view, i.e. all but the draft
+    private static final String MESSAGES_IN_CONVERSATION_SELECTION =
+            MessageColumns.CONVERSATION_ID + "=? AND "
+            + MessageColumns.STATUS + "<>" + MessageData.BUGLE_STATUS_OUTGOING_DRAFT;
+
+    // Message search query. Results are paged with the limit and offset parameters.
+    public static final Uri MESSAGE_SEARCH_URI = Uri.parse(CONTENT_AUTHORITY +
+            MESSAGES_QUERY + "/search");
+    // What the user typed to search for
+    public static final String SEARCH_QUERY_PARAMETER = "q";
+    public static final String SEARCH_LIMIT_PARAMETER = "limit";
+    public static final String SEARCH_OFFSET_PARAMETER = "offset";
+    private static final int DEFAULT_SEARCH_LIMIT = 50;
+
     // Conversation participants query
     private static final String PARTICIPANTS_QUERY = "participants";
 
@@ -101,16 +139,49 @@ public class MessagingContentProvider extends ContentProvider {
      * different tables at once.
      */
     public static void notifyEverythingChanged() {
-        final Uri uri = Uri.parse(CONTENT_AUTHORITY);
+        ContentChangeNotifier.get().notifyChange(ROOT_URI);
+    }
+
+    /**
+     * Notify the observers of a uri, and the widgets showing its data. Called by
+     * {@link ContentChangeNotifier} once the changes of the uri have been coalesced.
+     */
+    static void publishChange(final Uri uri) {
         final Context context = Factory.get().getApplicationContext();
         final ContentResolver cr = context.getContentResolver();
         cr.notifyChange(uri, null);
 
-        // Notify any conversations widgets the conversation list has changed.
-        BugleWidgetProvider.notifyConversationListChanged(context);
+        if (ROOT_URI.equals(uri)) {
+            // Notify any conversations widgets the conversation list has changed.
+            BugleWidgetProvider.notifyConversationListChanged(context);
+
+            // Notify all conversation widgets to update.
+            WidgetConversationProvider.notifyMessagesChanged(context, null /*conversationId*/);
+        } else if (CONVERSATIONS_URI.equals(uri) || isConversationUri(uri)) {
+            // Notify the widget the conversation list changed
+            BugleWidgetProvider.notifyConversationListChanged(context);
+        } else if (isConversationMessagesUri(uri)) {
+            // Notify the widget the messages changed
+            WidgetConversationProvider.notifyMessagesChanged(context,
+                    uri.getLastPathSegment());
+        }
+    }
+
+    private static boolean isConversationUri(final Uri uri) {
+        return uri.getPathSegments().size() == CONVERSATIONS_URI.getPathSegments().size() + 1
+                && uri.toString().startsWith(CONVERSATIONS_URI.toString() + '/');
+    }
+
+    private static boolean isConversationMessagesUri(final Uri uri) {
+        return uri.getPathSegments().size() == CONVERSATION_MESSAGES_URI.getPathSegments().size()
+                + 1 && uri.toString().startsWith(CONVERSATION_MESSAGES_URI.toString() + '/');
+    }
 
-        // Notify all conversation widgets to update.
-        WidgetConversationProvider.notifyMessagesChanged(context, null /*conversationId*/);
+    /**
+     * Print the counts of change notifications
+     */
+    public static void dumpChangeNotifications(final PrintWriter writer) {
+        ContentChangeNotifier.get().dump(writer);
     }
 
     /**
@@ -123,19 +194,16 @@ public class MessagingContentProvider extends ContentProvider {
     }
 
     public static void notifyParticipantsChanged(final String conversationId) {
-        final Uri uri = buildConversationParticipantsUri(conversationId);
-        final ContentResolver cr = Factory.get().getApplicationContext().getContentResolver();
-        cr.notifyChange(uri, null);
+        ContentChangeNotifier.get().notifyChange(
+                buildConversationParticipantsUri(conversationId));
     }
 
     public static void notifyAllMessagesChanged() {
-        final ContentResolver cr = Factory.get().getApplicationContext().getContentResolver();
-        cr.notifyChange(CONVERSATION_MESSAGES_URI, null);
+        ContentChangeNotifier.get().notifyChange(CONVERSATION_MESSAGES_URI);
     }
 
     public static void notifyAllParticipantsChanged() {
-        final ContentResolver cr = Factory.get().getApplicationContext().getContentResolver();
-        cr.notifyChange(CONVERSATION_PARTICIPANTS_URI, null);
+        ContentChangeNotifier.get().notifyChange(CONVERSATION_PARTICIPANTS_URI);
     }
 
     // Default value for unknown dimension of image
@@ -150,6 +218,7 @@ public class MessagingContentProvider extends ContentProvider {
     private static final int CONVERSATION_IMAGES_QUERY_CODE = 50;
     private static final int DRAFT_IMAGES_QUERY_CODE = 60;
     private static final int PARTICIPANTS_QUERY_CODE = 70;
+    private static final int MESSAGE_SEARCH_QUERY_CODE = 80;
 
     // TODO: Move to a better structured URI namespace.
     private static final UriMatcher sURIMatcher = new UriMatcher(UriMatcher.NO_MATCH);
@@ -165,6 +234,21 @@ public class MessagingContentProvider extends ContentProvider {
                 CONVERSATION_IMAGES_QUERY_CODE);
         sURIMatcher.addURI(AUTHORITY, DRAFT_IMAGES_QUERY + "/*",
                 DRAFT_IMAGES_QUERY_CODE);
+        sURIMatcher.addURI(AUTHORITY, MESSAGES_QUERY + "/search", MESSAGE_SEARCH_QUERY_CODE);
+    }
+
+    /**
+     * Build a message search uri for a page of the results of a search.
+     *
+     * @param query what the user typed to search for
+     */
+    public static Uri buildMessageSearchUri(final String query, final int limit,
+            final int offset) {
+        return MESSAGE_SEARCH_URI.buildUpon()
+                .appendQueryParameter(SEARCH_QUERY_PARAMETER, query)
+                .appendQueryParameter(SEARCH_LIMIT_PARAMETER, String.valueOf(limit))
+                .appendQueryParameter(SEARCH_OFFSET_PARAMETER, String.valueOf(offset))
+                .build();
     }
 
     /**
@@ -176,15 +260,31 @@ public class MessagingContentProvider extends ContentProvider {
         return builder.build();
     }
 
-    public static void notifyMessagesChanged(final String conversationId) {
-        final Uri uri = buildConversationMessagesUri(conversationId);
-        final Context context = Factory.get().getApplicationContext();
-        final ContentResolver cr = context.getContentResolver();
-        cr.notifyChange(uri, null);
-        notifyConversationListChanged();
+    /**
+     * Build a messages uri for a window of the newest messages of a conversation.
+     *
+     * @param windowStart the received timestamp the window starts at, or -1 to start it at the
+     * newest message
+     * @param pageSize the number of older messages to extend the window by, or 0 to keep it
+     */
+    public static Uri buildConversationMessagesUri(final String conversationId,
+            final long windowStart, final int pageSize) {
+        final Uri.Builder builder = CONVERSATION_MESSAGES_URI.buildUpon();
+        builder.appendPath(conversationId);
+        if (windowStart >= 0) {
+            builder.appendQueryParameter(WINDOW_START_PARAMETER, String.valueOf(windowStart));
+        }
+        if (pageSize > 0) {
+            builder.appendQueryParameter(PAGE_SIZE_PARAMETER, String.valueOf(pageSize));
+        }
+        return builder.build();
+    }
 
-        // Notify the widget the messages changed
-        WidgetConversationProvider.notifyMessagesChanged(context, conversationId);
+    public static void notifyMessagesChanged(final String conversationId) {
+        ContentChangeNotifier.get().notifyChange(buildConversationMessagesUri(conversationId));
+        // The conversation uri is under the conversation list uri, so its observers are notified
+        // too, and the conversation list only reloads this conversation
+        ContentChangeNotifier.get().notifyChange(buildConversationMetadataUri(conversationId));
     }
 
     /**
@@ -196,25 +296,19 @@ public class MessagingContentProvider extends ContentProvider {
         return builder.build();
     }
 
+    /**
+     * Notify that a conversation changed, which includes its row of the conversation list
+     */
     public static void notifyConversationMetadataChanged(final String conversationId) {
-        final Uri uri = buildConversationMetadataUri(conversationId);
-        final ContentResolver cr = Factory.get().getApplicationContext().getContentResolver();
-        cr.notifyChange(uri, null);
-        notifyConversationListChanged();
+        ContentChangeNotifier.get().notifyChange(buildConversationMetadataUri(conversationId));
     }
 
     public static void notifyPartsChanged() {
-        final ContentResolver cr = Factory.get().getApplicationContext().getContentResolver();
-        cr.notifyChange(PARTS_URI, null);
+        ContentChangeNotifier.get().notifyChange(PARTS_URI);
     }
 
     public static void notifyConversationListChanged() {
-        final Context context = Factory.get().getApplicationContext();
-        final ContentResolver cr = context.getContentResolver();
-        cr.notifyChange(CONVERSATIONS_URI, null);
-
-        // Notify the widget the conversation list changed
-        BugleWidgetProvider.notifyConversationListChanged(context);
+        ContentChangeNotifier.get().notifyChange(CONVERSATIONS_URI);
     }
 
     /**
@@ -311,7 +405,20 @@ public class MessagingContentProvider extends ContentProvider {
                     // selection/sorting for this query.
 
                     if (selection == null && selectionArgs == null && sortOrder == null) {
-                        return queryConversationMessages(conversationId, uri);
+                        final String windowStart =
+                                uri.getQueryParameter(WINDOW_START_PARAMETER);
+                        final String pageSize = uri.getQueryParameter(PAGE_SIZE_PARAMETER);
+                        if (windowStart == null && pageSize == null) {
+                            return queryConversationMessages(conversationId, uri);
+                        }
+                        try {
+                            return queryConversationMessagesWindow(conversationId,
+                                    windowStart != null ? Long.parseLong(windowStart) : -1,
+                                    pageSize != null ? Integer.parseInt(pageSize) : 0,
+                                    uri.buildUpon().clearQuery().build());
+                        } catch (final NumberFormatException e) {
+                            throw new IllegalArgumentException("Malformed URI " + uri);
+                        }
                     } else {
                         throw new IllegalArgumentException(
                                 "Cannot set selection or sort order with this query");
@@ -319,6 +426,19 @@ public class MessagingContentProvider extends ContentProvider {
                 } else {
                     throw new IllegalArgumentException("Malformed URI " + uri);
                 }
+            case MESSAGE_SEARCH_QUERY_CODE:
+                // Like the conversation messages query, this is a raw query that cannot be
+                // filtered or sorted
+                if (selection == null && selectionArgs == null && sortOrder == null) {
+                    try {
+                        return queryMessageSearch(uri);
+                    } catch (final NumberFormatException e) {
+                        throw new IllegalArgumentException("Malformed URI " + uri);
+                    }
+                } else {
+                    throw new IllegalArgumentException(
+                            "Cannot set selection or sort order with this query");
+                }
             case CONVERSATION_IMAGES_QUERY_CODE:
                 queryBuilder.setTables(ConversationImagePartsView.getViewName());
                 if (uri.getPathSegments().size() == 2) {
@@ -360,12 +480,82 @@ public class MessagingContentProvider extends ContentProvider {
 
     private Cursor queryConversationMessages(final String conversationId, final Uri notifyUri) {
         final String[] queryArgs = { conversationId };
-        final Cursor cursor = getDatabaseWrapper().rawQuery(
-                ConversationMessageData.getConversationMessagesQuerySql(), queryArgs);
+        final DatabaseWrapper db = getDatabaseWrapper();
+        final Cursor cursor = ConversationMessagesCursor.wrap(db, db.rawQuery(
+                ConversationMessageData.getConversationMessagesQuerySql(), queryArgs), queryArgs);
+        cursor.setNotificationUri(getContext().getContentResolver(), notifyUri);
+        return cursor;
+    }
+
+    /**
+     * Query the messages of a conversation received at or after a timestamp, optionally moved
+     * back by a number of older messages first. The number of messages before the window is
+     * returned in the {@link #EXTRA_OLDER_MESSAGE_COUNT} extra of the cursor.
+     */
+    private Cursor queryConversationMessagesWindow(final String conversationId,
+            long windowStart, final int pageSize, final Uri notifyUri) {
+        final DatabaseWrapper db = getDatabaseWrapper();
+        if (pageSize > 0) {
+            windowStart = getConversationMessagesWindowStart(db, conversationId,
+                    windowStart >= 0 ? windowStart : Long.MAX_VALUE, pageSize);
+        }
+        final String[] queryArgs = { conversationId, String.valueOf(windowStart) };
+        final Cursor cursor = ConversationMessagesCursor.wrap(db, db.rawQuery(
+                ConversationMessageData.getConversationMessagesWindowQuerySql(), queryArgs),
+                queryArgs);
+        final Bundle extras = new Bundle();
+        extras.putLong(EXTRA_OLDER_MESSAGE_COUNT, windowStart <= 0 ? 0 : db.queryNumEntries(
+                DatabaseHelper.MESSAGES_TABLE, MESSAGES_IN_CONVERSATION_SELECTION
+                        + " AND " + MessageColumns.RECEIVED_TIMESTAMP + "<?", queryArgs));
+        cursor.setExtras(extras);
         cursor.setNotificationUri(getContext().getContentResolver(), notifyUri);
         return cursor;
     }
 
+    /**
+     * Find where a window of conversation messages starts after being extended by a page,
+     * seeking on the sort index from the current start rather than skipping over the messages
+     * already in the window.
+     * @return the received timestamp of the oldest message of the page, or 0 if the page
+     * reaches the first message of the conversation
+     */
+    private static long getConversationMessagesWindowStart(final DatabaseWrapper db,
+            final String conversationId, final long windowStart, final int pageSize) {
+        try (final Cursor cursor = db.rawQuery("SELECT " + MessageColumns.RECEIVED_TIMESTAMP
+                + " FROM " + DatabaseHelper.MESSAGES_TABLE
+                + " WHERE " + MESSAGES_IN_CONVERSATION_SELECTION
+                + " AND " + MessageColumns.RECEIVED_TIMESTAMP + "<?"
+                + " ORDER BY " + MessageColumns.RECEIVED_TIMESTAMP + " DESC"
+                + " LIMIT 1 OFFSET " + (pageSize - 1),
+                new String[] { conversationId, String.valueOf(windowStart) })) {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        }
+    }
+
+    /**
+     * Query a page of the messages matching a full-text search, best matches first
+     */
+    private Cursor queryMessageSearch(final Uri uri) {
+        final String matchQuery = MessageSearchResultData.buildMatchQuery(
+                uri.getQueryParameter(SEARCH_QUERY_PARAMETER));
+        final String limit = uri.getQueryParameter(SEARCH_LIMIT_PARAMETER);
+        final String offset = uri.getQueryParameter(SEARCH_OFFSET_PARAMETER);
+        final String[] queryArgs = {
+                matchQuery,
+                String.valueOf(limit != null ? Integer.parseInt(limit) : DEFAULT_SEARCH_LIMIT),
+                String.valueOf(offset != null ? Integer.parseInt(offset) : 0) };
+        final Cursor cursor;
+        if (matchQuery == null) {
+            cursor = new MatrixCursor(MessageSearchResultData.getProjection(), 0);
+        } else {
+            cursor = getDatabaseWrapper().rawQuery(MessageSearchResultData.getSearchQuerySql(),
+                    queryArgs);
+        }
+        // Results change with any message
+        cursor.setNotificationUri(getContext().getContentResolver(), CONVERSATION_MESSAGES_URI);
+        return cursor;
+    }
+
     @Override
     public String getType(@NonNull final Uri uri) {
         final StringBuilder sb = new
@@ -441,6 +631,12 @@ public class MessagingContentProvider extends ContentProvider {
             defaultSmsApp = "None";
         }
         writer.println("Default SMS app: " + defaultSmsApp);
+        DataModel.get().getSyncManager().getBatchSizeController().dump(writer);
+        BitmapPool.get().dump(writer);
+        PhoneUtils.dumpCanonicalPhoneNumberCache(writer);
+        dumpChangeNotifications(writer);
+        StartupTimings.dump(writer);
+        BugleNotifications.dump(writer);
     }
 
     @Override
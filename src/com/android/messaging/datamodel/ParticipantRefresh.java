@@ -445,8 +445,7 @@ public class ParticipantRefresh {
                         ContactUtil.INDEX_DISPLAY_NAME));
                 participantData.setFirstName(
                         ContactUtil.lookupFirstName(db.getContext(), selfContactId));
-                participantData.setProfilePhotoUri(selfCursor.getString(
-                        ContactUtil.INDEX_PHOTO_URI));
+                participantData.setProfilePhotoUri(ContactUtil.getVersionedPhotoUri(selfCursor));
                 participantData.setLookupKey(selfCursor.getString(
                         ContactUtil.INDEX_SELF_QUERY_LOOKUP_KEY));
                 return SELF_PROFILE_EXISTS;
@@ -510,8 +509,7 @@ public class ParticipantRefresh {
                     matchingDisplayName = matchingContactCursor.getString(
                             ContactUtil.INDEX_DISPLAY_NAME);
                     matchingFirstName = ContactUtil.lookupFirstName(db.getContext(), contactId);
-                    matchingPhotoUri = matchingContactCursor.getString(
-                            ContactUtil.INDEX_PHOTO_URI);
+                    matchingPhotoUri = ContactUtil.getVersionedPhotoUri(matchingContactCursor);
                     matchingLookupKey = matchingContactCursor.getString(
                             ContactUtil.INDEX_LOOKUP_KEY);
                     matchingDestination = matchingContactCursor.getString(
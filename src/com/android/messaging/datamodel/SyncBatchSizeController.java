@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2024 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.messaging.datamodel;
+
+import com.android.messaging.util.BugleGservicesKeys;
+import com.android.messaging.util.BuglePrefs;
+import com.android.messaging.util.BuglePrefsKeys;
+import com.android.messaging.util.LogUtil;
+
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+
+/**
+ * Decides how many messages each sync batch should update so that applying a batch to the local
+ * database takes about {@link BugleGservicesKeys#SMS_SYNC_BATCH_TIME_LIMIT_MILLIS_DEFAULT}.
+ *
+ * SMS and MMS have very different costs to write, so a per-message cost is estimated for each
+ * by a least squares fit over the last few batches rather than from the previous batch alone.
+ * The learned costs are persisted so that the first batch of the next sync is already sized
+ * correctly.
+ */
+public class SyncBatchSizeController {
+    private static final String TAG = LogUtil.BUGLE_DATAMODEL_TAG;
+
+    // Number of recent batches the costs are fitted over
+    private static final int WINDOW_SIZE = 8;
+
+    // Number of recent decisions kept for dump
+    private static final int HISTORY_SIZE = 32;
+
+    private static final class Sample {
+        final int mSmsCount;
+        final int mMmsCount;
+        final long mTxnTimeMillis;
+        int mNextBatchSize;
+
+        Sample(final int smsCount, final int mmsCount, final long txnTimeMillis) {
+            mSmsCount = smsCount;
+            mMmsCount = mmsCount;
+            mTxnTimeMillis = txnTimeMillis;
+        }
+    }
+
+    private final ArrayDeque<Sample> mWindow = new ArrayDeque<>(WINDOW_SIZE);
+    private final ArrayDeque<Sample> mHistory = new ArrayDeque<>(HISTORY_SIZE);
+
+    private boolean mLoaded;
+    // Estimated cost of writing one message, in microseconds. 0 when not known yet.
+    private long mSmsCostMicros;
+    private long mMmsCostMicros;
+    // Share of MMS among the messages synced, in thousandths
+    private int mMmsPermille;
+
+    SyncBatchSizeController() {
+    }
+
+    /**
+     * @return the number of messages the first batch of a new sync should update, or 0 to
+     *         start from the minimum batch size when nothing has been learned yet
+     */
+    public synchronized int getInitialBatchSize() {
+        ensureLoaded();
+        return computeBatchSize();
+    }
+
+    /**
+     * Record the outcome of a sync batch and decide the size of the next one
+     *
+     * @param smsCount number of SMS added by the batch
+     * @param mmsCount number of MMS added by the batch
+     * @param deleteCount number of local messages deleted by the batch
+     * @param txnTimeMillis time the local database transaction took in ms
+     * @return Target number of messages to sync for next batch
+     */
+    public synchronized int onBatchApplied(final int smsCount, final int mmsCount,
+            final int deleteCount, final long txnTimeMillis) {
+        ensureLoaded();
+        if (txnTimeMillis <= 0 || smsCount + mmsCount + deleteCount <= 0) {
+            return computeBatchSize();
+        }
+        // Deletes are plain row removals, so they are costed like SMS
+        final Sample sample = new Sample(smsCount + deleteCount, mmsCount, txnTimeMillis);
+        if (mWindow.size() == WINDOW_SIZE) {
+            mWindow.removeFirst();
+        }
+        mWindow.addLast(sample);
+        updateCosts();
+
+        sample.mNextBatchSize = computeBatchSize();
+        if (mHistory.size() == HISTORY_SIZE) {
+            mHistory.removeFirst();
+        }
+        mHistory.addLast(sample);
+
+        final BuglePrefs prefs = BuglePrefs.getApplicationPrefs();
+        prefs.putLong(BuglePrefsKeys.SYNC_SMS_COST_MICROS, mSmsCostMicros);
+        prefs.putLong(BuglePrefsKeys.SYNC_MMS_COST_MICROS, mMmsCostMicros);
+        prefs.putInt(BuglePrefsKeys.SYNC_MMS_PERMILLE, mMmsPermille);
+
+        if (LogUtil.isLoggable(TAG, LogUtil.DEBUG)) {
+            LogUtil.d(TAG, "SyncBatchSizeController: batch of " + smsCount + " SMS, " + mmsCount
+                    + " MMS, " + deleteCount + " deletes took " + txnTimeMillis + " ms; cost is "
+                    + mSmsCostMicros + " us/SMS, " + mMmsCostMicros + " us/MMS; next batch "
+                    + sample.mNextBatchSize);
+        }
+        return sample.mNextBatchSize;
+    }
+
+    private void ensureLoaded() {
+        if (!mLoaded) {
+            final BuglePrefs prefs = BuglePrefs.getApplicationPrefs();
+            mSmsCostMicros = prefs.getLong(BuglePrefsKeys.SYNC_SMS_COST_MICROS,
+                    BuglePrefsKeys.SYNC_SMS_COST_MICROS_DEFAULT);
+            mMmsCostMicros = prefs.getLong(BuglePrefsKeys.SYNC_MMS_COST_MICROS,
+                    BuglePrefsKeys.SYNC_MMS_COST_MICROS_DEFAULT);
+            mMmsPermille = prefs.getInt(BuglePrefsKeys.SYNC_MMS_PERMILLE,
+                    BuglePrefsKeys.SYNC_MMS_PERMILLE_DEFAULT);
+            mLoaded = true;
+        }
+    }
+
+    /**
+     * Fit txnTime = smsCost * smsCount + mmsCost * mmsCount over the window. When the window
+     * does not pin down both costs (e.g. every batch had the same mix), keep the previous ratio
+     * between them and only rescale it to the observed times.
+     */
+    private void updateCosts() {
+        double sss = 0, smm = 0, ssm = 0, sst = 0, smt = 0;
+        long totalSms = 0, totalMms = 0;
+        for (final Sample sample : mWindow) {
+            final double s = sample.mSmsCount;
+            final double m = sample.mMmsCount;
+            final double t = sample.mTxnTimeMillis * 1000.0;
+            sss += s * s;
+            smm += m * m;
+            ssm += s * m;
+            sst += s * t;
+            smt += m * t;
+            totalSms += sample.mSmsCount;
+            totalMms += sample.mMmsCount;
+        }
+        mMmsPermille = (int) (totalMms * 1000 / (totalSms + totalMms));
+
+        double smsCost = -1;
+        double mmsCost = -1;
+        final double det = sss * smm - ssm * ssm;
+        if (totalMms == 0) {
+            smsCost = sst / sss;
+            mmsCost = mMmsCostMicros > 0 ? mMmsCostMicros : smsCost;
+        } else if (totalSms == 0) {
+            mmsCost = smt / smm;
+            smsCost = mSmsCostMicros > 0 ? mSmsCostMicros : mmsCost;
+        } else if (det > 1e-6 * sss * smm) {
+            smsCost = (sst * smm - smt * ssm) / det;
+            mmsCost = (smt * sss - sst * ssm) / det;
+        }
+        if (smsCost <= 0 || mmsCost <= 0) {
+            // Rescale the previous estimates, or split evenly if there are none
+            final double priorSms = mSmsCostMicros > 0 ? mSmsCostMicros : 1;
+            final double priorMms = mMmsCostMicros > 0 ? mMmsCostMicros : priorSms;
+            double predicted = 0;
+            double observed = 0;
+            for (final Sample sample : mWindow) {
+                predicted += priorSms * sample.mSmsCount + priorMms * sample.mMmsCount;
+                observed += sample.mTxnTimeMillis * 1000.0;
+            }
+            final double scale = observed / predicted;
+            smsCost = priorSms * scale;
+            mmsCost = priorMms * scale;
+        }
+        mSmsCostMicros = Math.max(1, Math.round(smsCost));
+        mMmsCostMicros = Math.max(1, Math.round(mmsCost));
+    }
+
+    private int computeBatchSize() {
+        if (mSmsCostMicros <= 0 || mMmsCostMicros <= 0) {
+            return 0;
+        }
+        final long costMicros = (mSmsCostMicros * (1000 - mMmsPermille)
+                + mMmsCostMicros * mMmsPermille) / 1000;
+        return (int) Math.min(Integer.MAX_VALUE,
+                BugleGservicesKeys.SMS_SYNC_BATCH_TIME_LIMIT_MILLIS_DEFAULT * 1000
+                        / Math.max(1, costMicros));
+    }
+
+    /**
+     * Print the learned costs and the recent batch size decisions
+     */
+    public synchronized void dump(final PrintWriter writer) {
+        ensureLoaded();
+        writer.println("Sync batch sizing:");
+        writer.println("  cost per SMS: " + mSmsCostMicros + " us, per MMS: " + mMmsCostMicros
+                + " us, MMS share: " + (mMmsPermille / 10.0) + "%");
+        writer.println("  initial batch size: " + computeBatchSize());
+        for (final Sample sample : mHistory) {
+            writer.println("  batch: " + sample.mSmsCount + " SMS/deletes, " + sample.mMmsCount
+                    + " MMS in " + sample.mTxnTimeMillis + " ms -> next " + sample.mNextBatchSize);
+        }
+    }
+}
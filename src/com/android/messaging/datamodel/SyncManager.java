@@ -81,6 +81,8 @@ public class SyncManager {
 
     private final ThreadInfoCache mThreadInfoCache = new ThreadInfoCache();
 
+    private final SyncBatchSizeController mBatchSizeController = new SyncBatchSizeController();
+
     /**
      * User customization to conversations. If this is set, we need to recover them after
      * a full sync.
@@ -348,6 +350,13 @@ public class SyncManager {
                         + mSyncOnChanges + "/" + mNotifyOnChanges);
             }
 
+            // A change of a single thread, such as its deletion, drops its cached recipients so
+            // that they are looked up again if the thread is still there on the next sync
+            final long threadId = getThreadId(uri);
+            if (threadId > 0) {
+                mThreadInfoCache.invalidateThread(threadId);
+            }
+
             if (mSyncOnChanges) {
                 // If sync is already running this will do nothing - but at end of each sync
                 // action there is a check for recent messages that should catch new changes.
@@ -357,12 +366,44 @@ public class SyncManager {
                 // TODO: Secondary users are not going to get notifications
             }
         }
+
+        /**
+         * @return the id of the thread a change uri such as content://mms-sms/conversations/12
+         * refers to, or -1 if it does not refer to a single thread
+         */
+        private long getThreadId(final Uri uri) {
+            if (uri == null) {
+                return -1;
+            }
+            final List<String> segments = uri.getPathSegments();
+            if (segments.size() != 2 || !"conversations".equals(segments.get(0))) {
+                return -1;
+            }
+            try {
+                return Long.parseLong(segments.get(1));
+            } catch (final NumberFormatException e) {
+                return -1;
+            }
+        }
     }
 
     public ThreadInfoCache getThreadInfoCache() {
         return mThreadInfoCache;
     }
 
+    public SyncBatchSizeController getBatchSizeController() {
+        return mBatchSizeController;
+    }
+
+    /**
+     * Cache of the conversation and recipients of telephony threads for syncs.
+     *
+     * The thread->conversationId map only lives for one sync batch, since conversations can be
+     * deleted between batches. The thread->recipients map outlives the batches: the recipients
+     * of a thread never change and thread ids are not reused, so it is only invalidated when
+     * telephony reports a thread change and when a full sync starts. It is warmed with all the
+     * threads at once, so that incremental syncs do not query the recipients of known threads.
+     */
     public static class ThreadInfoCache {
         // Cache of thread->conversationId map
         private final LongSparseArray<String> mThreadToConversationId = new LongSparseArray<>();
@@ -370,18 +411,69 @@ public class SyncManager {
         // Cache of thread->recipients map
         private final LongSparseArray<List<String>> mThreadToRecipients = new LongSparseArray<>();
 
+        // Whether mThreadToRecipients has been loaded with all the threads
+        private boolean mRecipientsWarm;
+
         // Remember the conversation ids that need to be archived
         private final HashSet<String> mArchivedConversations = new HashSet<>();
 
+        /**
+         * Clear the state of the previous sync batch. The thread recipients are kept.
+         */
         public synchronized void clear() {
             if (LogUtil.isLoggable(TAG, LogUtil.DEBUG)) {
                 LogUtil.d(TAG, "SyncManager: Cleared ThreadInfoCache");
             }
             mThreadToConversationId.clear();
-            mThreadToRecipients.clear();
             mArchivedConversations.clear();
         }
 
+        /**
+         * Drop the recipients of all the threads, to be loaded again
+         */
+        public synchronized void invalidateRecipients() {
+            if (LogUtil.isLoggable(TAG, LogUtil.DEBUG)) {
+                LogUtil.d(TAG, "SyncManager: Invalidated ThreadInfoCache recipients");
+            }
+            mThreadToRecipients.clear();
+            mRecipientsWarm = false;
+        }
+
+        /**
+         * Drop the recipients of a thread, to be loaded again on its next lookup
+         */
+        public synchronized void invalidateThread(final long threadId) {
+            mThreadToRecipients.remove(threadId);
+            mThreadToConversationId.remove(threadId);
+        }
+
+        /**
+         * Load the recipients of all the threads with one bulk query of the threads and one of
+         * the canonical addresses, unless already loaded. Threads created afterwards are looked
+         * up one by one by {@link #getThreadRecipients}.
+         */
+        public void warmUp() {
+            synchronized (this) {
+                if (mRecipientsWarm) {
+                    return;
+                }
+            }
+            final LongSparseArray<List<String>> allRecipients = MmsUtils.getAllThreadRecipients();
+            synchronized (this) {
+                for (int i = 0; i < allRecipients.size(); i++) {
+                    final long threadId = allRecipients.keyAt(i);
+                    if (!mThreadToRecipients.containsKey(threadId)) {
+                        mThreadToRecipients.put(threadId, allRecipients.valueAt(i));
+                    }
+                }
+                mRecipientsWarm = true;
+            }
+            if (LogUtil.isLoggable(TAG, LogUtil.DEBUG)) {
+                LogUtil.d(TAG, "SyncManager: Warmed ThreadInfoCache with "
+                        + allRecipients.size() + " threads");
+            }
+        }
+
         public synchronized boolean isArchived(final String conversationId) {
             return mArchivedConversations.contains(conversationId);
         }
@@ -431,16 +523,50 @@ public class SyncManager {
         }
 
 
+        /**
+         * Load the recipients of the given threads that are not cached yet, with a few bulk
+         * queries of the threads and their canonical addresses
+         */
+        public void prefetchThreadRecipients(final long[] threadIds) {
+            final long[] missingThreadIds = new long[threadIds.length];
+            int missingCount = 0;
+            synchronized (this) {
+                for (final long threadId : threadIds) {
+                    if (threadId > 0 && !mThreadToRecipients.containsKey(threadId)) {
+                        missingThreadIds[missingCount++] = threadId;
+                    }
+                }
+            }
+            if (missingCount == 0) {
+                return;
+            }
+            final LongSparseArray<List<String>> recipients = MmsUtils.getRecipientsByThreads(
+                    missingThreadIds, missingCount);
+            synchronized (this) {
+                for (int i = 0; i < recipients.size(); i++) {
+                    mThreadToRecipients.put(recipients.keyAt(i), recipients.valueAt(i));
+                }
+            }
+        }
+
         /**
          * Load the recipients of a thread from telephony provider. If we fail, use
          * a predefined unknown recipient. This should not return null.
+         *
+         * The provider is queried without holding the cache lock so that sync workers can
+         * resolve different threads concurrently.
          */
-        public synchronized List<String> getThreadRecipients(final long threadId) {
-            List<String> recipients = mThreadToRecipients.get(threadId);
+        public List<String> getThreadRecipients(final long threadId) {
+            List<String> recipients;
+            synchronized (this) {
+                recipients = mThreadToRecipients.get(threadId);
+            }
             if (recipients == null) {
                 recipients = MmsUtils.getRecipientsByThread(threadId);
                 if (recipients != null && recipients.size() > 0) {
-                    mThreadToRecipients.put(threadId, recipients);
+                    synchronized (this) {
+                        mThreadToRecipients.put(threadId, recipients);
+                    }
                 }
             }
 
@@ -59,6 +59,28 @@ public abstract class Action implements Parcelable {
         return null;
     }
 
+    /**
+     * Idempotent actions whose effect depends only on the state at the time they execute can
+     * return a key here. While an action with the same key is waiting to execute, starting
+     * another is a no-op, whether it runs in process or through the job queues. Actions
+     * delivered by alarms and pending intents are not coalesced. Such actions must not be started
+     * with an {@link ActionMonitor}.
+     * @return key identifying equivalent actions, or null if every instance has to run
+     */
+    protected String getCoalescingKey() {
+        return null;
+    }
+
+    /**
+     * Actions started from the UI whose loss along with the process is harmless can return true
+     * to run on the in-process executor, when it is enabled, instead of the job queue. Anything
+     * started from a receiver, or whose effect must survive the process being killed, keeps the
+     * default so that its work is redelivered by ActionServiceImpl and BackgroundWorkerService.
+     */
+    protected boolean runsInProcess() {
+        return false;
+    }
+
     /**
      * Queues up background work ie. {@link #doBackgroundWork} will be called on the
      * background worker thread.
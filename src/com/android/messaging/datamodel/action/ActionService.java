@@ -20,6 +20,8 @@ import android.app.PendingIntent;
 import android.content.Context;
 import android.os.Bundle;
 
+import java.util.ArrayList;
+
 /**
  * Class providing interface for the ActionService - can be stubbed for testing
  */
@@ -31,10 +33,18 @@ public class ActionService {
     }
 
     /**
-     * Start an action by posting it over the the ActionService
+     * Start an action by posting it over the the ActionService, or by handing it to the
+     * in-process executor when that is enabled and the action allows it
      */
     public void startAction(final Action action) {
-        ActionServiceImpl.startAction(action);
+        if (!ActionServiceImpl.addPendingCoalescingKey(action)) {
+            return;
+        }
+        if (InProcessActionExecutor.runsInProcess(action)) {
+            InProcessActionExecutor.get().startAction(action);
+        } else {
+            ActionServiceImpl.startAction(action);
+        }
     }
 
     /**
@@ -46,18 +56,18 @@ public class ActionService {
     }
 
     /**
-     * Process a response from the BackgroundWorker in the ActionService
+     * Process the responses from a pass of the BackgroundWorker in the ActionService
+     * @param responses the response of each action, in the same order
      */
-    protected void handleResponseFromBackgroundWorker(
-            final Action action, final Bundle response) {
-        ActionServiceImpl.handleResponseFromBackgroundWorker(action, response);
+    protected void handleResponsesFromBackgroundWorker(final ArrayList<Action> actions,
+            final ArrayList<Bundle> responses) {
+        ActionServiceImpl.handleResponsesFromBackgroundWorker(actions, responses);
     }
 
     /**
-     * Process a failure from the BackgroundWorker in the ActionService
+     * Process the failures from a pass of the BackgroundWorker in the ActionService
      */
-    protected void handleFailureFromBackgroundWorker(final Action action,
-            final Exception exception) {
-        ActionServiceImpl.handleFailureFromBackgroundWorker(action, exception);
+    protected void handleFailuresFromBackgroundWorker(final ArrayList<Action> actions) {
+        ActionServiceImpl.handleFailuresFromBackgroundWorker(actions);
     }
 }
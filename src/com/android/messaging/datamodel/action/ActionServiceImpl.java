@@ -33,6 +33,9 @@ import com.android.messaging.datamodel.DataModel;
 import com.android.messaging.util.LogUtil;
 import com.android.messaging.util.LoggingTimer;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+
 /**
  * ActionService used to perform background processing for data model
  */
@@ -45,20 +48,78 @@ public class ActionServiceImpl extends JobIntentService {
      */
     public static final int JOB_ID = 1000;
 
+    // Coalescing keys of the started actions waiting to execute
+    private static final HashSet<String> sPendingCoalescingKeys = new HashSet<>();
+
+    // Actions started on the calling thread while it handles a job, see beginStartBatch
+    private static final ThreadLocal<ArrayList<Action>> sStartedActions = new ThreadLocal<>();
+
     public ActionServiceImpl() {
         super();
     }
 
+    /**
+     * Record that an action with a coalescing key is waiting to execute
+     * @return false if an equivalent action is already waiting, so this one need not start
+     */
+    static boolean addPendingCoalescingKey(final Action action) {
+        final String coalescingKey = action.getCoalescingKey();
+        if (coalescingKey == null) {
+            return true;
+        }
+        synchronized (sPendingCoalescingKeys) {
+            if (sPendingCoalescingKeys.add(coalescingKey)) {
+                return true;
+            }
+        }
+        if (LogUtil.isLoggable(TAG, LogUtil.VERBOSE)) {
+            LogUtil.v(TAG, "ActionServiceImpl: coalesced " + action.actionKey);
+        }
+        return false;
+    }
+
     /**
      * Start action by sending intent to the service
      * @param action - action to start
      */
     protected static void startAction(final Action action) {
+        action.markStart();
+        final ArrayList<Action> startedActions = sStartedActions.get();
+        if (startedActions != null) {
+            startedActions.add(action);
+            return;
+        }
         final Intent intent = makeIntent(OP_START_ACTION);
         final Bundle actionBundle = new Bundle();
         actionBundle.putParcelable(BUNDLE_ACTION, action);
         intent.putExtra(EXTRA_ACTION_BUNDLE, actionBundle);
-        action.markStart();
+        startServiceWithIntent(intent);
+    }
+
+    /**
+     * Hold the actions started on the calling thread until {@link #endStartBatch}, which starts
+     * them with a single job. Only called while a job of this service or of
+     * BackgroundWorkerService is handled on the thread: that job keeps the process alive until
+     * the batch is queued, and is redelivered, starting the actions again, if the process dies
+     * before.
+     */
+    static void beginStartBatch() {
+        sStartedActions.set(new ArrayList<>());
+    }
+
+    /**
+     * Start the actions held since {@link #beginStartBatch} with a single job
+     */
+    static void endStartBatch() {
+        final ArrayList<Action> startedActions = sStartedActions.get();
+        sStartedActions.remove();
+        if (startedActions == null || startedActions.isEmpty()) {
+            return;
+        }
+        final Intent intent = makeIntent(OP_START_ACTIONS);
+        final Bundle actionBundle = new Bundle();
+        actionBundle.putParcelableArrayList(BUNDLE_ACTIONS, startedActions);
+        intent.putExtra(EXTRA_ACTION_BUNDLE, actionBundle);
         startServiceWithIntent(intent);
     }
 
@@ -79,32 +140,30 @@ public class ActionServiceImpl extends JobIntentService {
     }
 
     /**
-     * Handle response returned by BackgroundWorker
-     * @param response - response from service
+     * Handle the responses returned by a pass of the BackgroundWorker, as one job
+     * @param responses - response from service for each action, in the same order
      */
-    protected static void handleResponseFromBackgroundWorker(final Action action,
-            final Bundle response) {
+    protected static void handleResponsesFromBackgroundWorker(final ArrayList<Action> actions,
+            final ArrayList<Bundle> responses) {
         final Intent intent = makeIntent(OP_RECEIVE_BACKGROUND_RESPONSE);
 
         final Bundle actionBundle = new Bundle();
-        actionBundle.putParcelable(BUNDLE_ACTION, action);
+        actionBundle.putParcelableArrayList(BUNDLE_ACTIONS, actions);
+        actionBundle.putParcelableArrayList(BUNDLE_WORKER_RESPONSES, responses);
         intent.putExtra(EXTRA_ACTION_BUNDLE, actionBundle);
-        intent.putExtra(EXTRA_WORKER_RESPONSE, response);
 
         startServiceWithIntent(intent);
     }
 
     /**
-     * Handle response returned by BackgroundWorker
+     * Handle the failures returned by a pass of the BackgroundWorker, as one job
      */
-    protected static void handleFailureFromBackgroundWorker(final Action action,
-            final Exception exception) {
+    protected static void handleFailuresFromBackgroundWorker(final ArrayList<Action> actions) {
         final Intent intent = makeIntent(OP_RECEIVE_BACKGROUND_FAILURE);
 
         final Bundle actionBundle = new Bundle();
-        actionBundle.putParcelable(BUNDLE_ACTION, action);
+        actionBundle.putParcelableArrayList(BUNDLE_ACTIONS, actions);
         intent.putExtra(EXTRA_ACTION_BUNDLE, actionBundle);
-        intent.putExtra(EXTRA_WORKER_EXCEPTION, exception);
 
         startServiceWithIntent(intent);
     }
@@ -113,14 +172,15 @@ public class ActionServiceImpl extends JobIntentService {
     protected static final int OP_START_ACTION = 200;
     protected static final int OP_RECEIVE_BACKGROUND_RESPONSE = 201;
     protected static final int OP_RECEIVE_BACKGROUND_FAILURE = 202;
+    protected static final int OP_START_ACTIONS = 203;
 
     // extras
     protected static final String EXTRA_OP_CODE = "op";
     protected static final String EXTRA_ACTION_BUNDLE = "datamodel_action_bundle";
-    protected static final String EXTRA_WORKER_EXCEPTION = "worker_exception";
-    protected static final String EXTRA_WORKER_RESPONSE = "worker_response";
     protected static final String EXTRA_WORKER_UPDATE = "worker_update";
     protected static final String BUNDLE_ACTION = "bundle_action";
+    protected static final String BUNDLE_ACTIONS = "bundle_actions";
+    protected static final String BUNDLE_WORKER_RESPONSES = "bundle_worker_responses";
 
     private BackgroundWorker mBackgroundWorker;
 
@@ -230,41 +290,79 @@ public class ActionServiceImpl extends JobIntentService {
     protected void onHandleWork(@NonNull final Intent intent) {
         final int opcode = intent.getIntExtra(EXTRA_OP_CODE, 0);
 
-        Action action;
         final Bundle actionBundle = intent.getBundleExtra(EXTRA_ACTION_BUNDLE);
         actionBundle.setClassLoader(getClassLoader());
+        if (InProcessActionExecutor.isEnabled()) {
+            // Keep all action processing on the in-process executor's thread
+            InProcessActionExecutor.get().runOnActionThreadAndWait(
+                    () -> handleWork(opcode, intent, actionBundle));
+        } else {
+            handleWork(opcode, intent, actionBundle);
+        }
+    }
+
+    private void handleWork(final int opcode, final Intent intent, final Bundle actionBundle) {
+        // Actions started while handling this job are started together once it is done
+        beginStartBatch();
         switch(opcode) {
             case OP_START_ACTION: {
-                action = actionBundle.getParcelable(BUNDLE_ACTION, Action.class);
+                final Action action = actionBundle.getParcelable(BUNDLE_ACTION, Action.class);
                 executeAction(action);
+                action.sendBackgroundActions(mBackgroundWorker);
+                break;
+            }
+
+            case OP_START_ACTIONS: {
+                final ArrayList<Action> actions =
+                        actionBundle.getParcelableArrayList(BUNDLE_ACTIONS, Action.class);
+                for (final Action action : actions) {
+                    executeAction(action);
+                    action.sendBackgroundActions(mBackgroundWorker);
+                }
                 break;
             }
 
             case OP_RECEIVE_BACKGROUND_RESPONSE: {
-                action = actionBundle.getParcelable(BUNDLE_ACTION, Action.class);
-                final Bundle response = intent.getBundleExtra(EXTRA_WORKER_RESPONSE);
-                processBackgroundResponse(action, response);
+                final ArrayList<Action> actions =
+                        actionBundle.getParcelableArrayList(BUNDLE_ACTIONS, Action.class);
+                final ArrayList<Bundle> responses =
+                        actionBundle.getParcelableArrayList(BUNDLE_WORKER_RESPONSES, Bundle.class);
+                for (int i = 0; i < actions.size(); i++) {
+                    final Action action = actions.get(i);
+                    processBackgroundResponse(action, responses.get(i));
+                    action.sendBackgroundActions(mBackgroundWorker);
+                }
                 break;
             }
 
             case OP_RECEIVE_BACKGROUND_FAILURE: {
-                action = actionBundle.getParcelable(BUNDLE_ACTION, Action.class);
-                processBackgroundFailure(action);
+                final ArrayList<Action> actions =
+                        actionBundle.getParcelableArrayList(BUNDLE_ACTIONS, Action.class);
+                for (final Action action : actions) {
+                    processBackgroundFailure(action);
+                    action.sendBackgroundActions(mBackgroundWorker);
+                }
                 break;
             }
 
             default:
                 throw new RuntimeException("Unrecognized opcode in ActionServiceImpl");
         }
-
-        action.sendBackgroundActions(mBackgroundWorker);
+        endStartBatch();
     }
 
     private static final long EXECUTION_TIME_WARN_LIMIT_MS = 1000; // 1 second
     /**
-     * Local execution of action on ActionService thread
+     * Local execution of action on ActionService thread (or the in-process executor's thread)
      */
-    private void executeAction(final Action action) {
+    static void executeAction(final Action action) {
+        final String coalescingKey = action.getCoalescingKey();
+        if (coalescingKey != null) {
+            // Requests from now on may see different state, so they must run again
+            synchronized (sPendingCoalescingKeys) {
+                sPendingCoalescingKeys.remove(coalescingKey);
+            }
+        }
         action.markBeginExecute();
 
         final LoggingTimer timer = createLoggingTimer(action, "#executeAction");
@@ -280,7 +378,7 @@ public class ActionServiceImpl extends JobIntentService {
     /**
      * Process response on ActionService thread
      */
-    private void processBackgroundResponse(final Action action, final Bundle response) {
+    static void processBackgroundResponse(final Action action, final Bundle response) {
         final LoggingTimer timer = createLoggingTimer(action, "#processBackgroundResponse");
         timer.start();
 
@@ -292,7 +390,7 @@ public class ActionServiceImpl extends JobIntentService {
     /**
      * Process failure on ActionService thread
      */
-    private void processBackgroundFailure(final Action action) {
+    static void processBackgroundFailure(final Action action) {
         final LoggingTimer timer = createLoggingTimer(action, "#processBackgroundFailure");
         timer.start();
 
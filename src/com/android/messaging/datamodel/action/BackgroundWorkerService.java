@@ -30,6 +30,8 @@ import com.android.messaging.util.Assert;
 import com.android.messaging.util.LogUtil;
 import com.android.messaging.util.LoggingTimer;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 
 /**
@@ -54,33 +56,27 @@ public class BackgroundWorkerService extends JobIntentService {
     }
 
     /**
-     * Queue a list of requests from action service to this worker
+     * Queue a list of requests from action service to this worker. The list goes in one job and
+     * is worked on in a single pass.
      */
     public static void queueBackgroundWork(final List<Action> actions) {
-        for (final Action action : actions) {
-            startServiceWithAction(action, 0);
+        if (actions.isEmpty()) {
+            return;
         }
+        final Intent intent = new Intent();
+        intent.putParcelableArrayListExtra(EXTRA_ACTIONS, new ArrayList<>(actions));
+        intent.putExtra(EXTRA_ATTEMPT, 0);
+        startServiceWithIntent(OP_PROCESS_REQUESTS, intent);
     }
 
     // ops
-    protected static final int OP_PROCESS_REQUEST = 400;
+    protected static final int OP_PROCESS_REQUESTS = 400;
 
     // extras
     protected static final String EXTRA_OP_CODE = "op";
-    protected static final String EXTRA_ACTION = "action";
+    protected static final String EXTRA_ACTIONS = "actions";
     protected static final String EXTRA_ATTEMPT = "retry_attempt";
 
-    /**
-     * Queue action intent to the BackgroundWorkerService.
-     */
-    private static void startServiceWithAction(final Action action,
-            final int retryCount) {
-        final Intent intent = new Intent();
-        intent.putExtra(EXTRA_ACTION, action);
-        intent.putExtra(EXTRA_ATTEMPT, retryCount);
-        startServiceWithIntent(OP_PROCESS_REQUEST, intent);
-    }
-
     /**
      * Queue intent to the BackgroundWorkerService.
      */
@@ -101,10 +97,13 @@ public class BackgroundWorkerService extends JobIntentService {
     protected void onHandleWork(@NonNull final Intent intent) {
         final int opcode = intent.getIntExtra(EXTRA_OP_CODE, 0);
 
-        if (opcode == OP_PROCESS_REQUEST) {
-            final Action action = intent.getParcelableExtra(EXTRA_ACTION);
-            final int attempt = intent.getIntExtra(EXTRA_ATTEMPT, -1);
-            doBackgroundWork(action, attempt);
+        if (opcode == OP_PROCESS_REQUESTS) {
+            final ArrayList<Action> actions =
+                    intent.getParcelableArrayListExtra(EXTRA_ACTIONS, Action.class);
+            // Actions started by the background work are started together once it is done
+            ActionServiceImpl.beginStartBatch();
+            doBackgroundWork(actions, mHost);
+            ActionServiceImpl.endStartBatch();
         } else {
             LogUtil.w(TAG, "Unrecognized opcode in BackgroundWorkerService " + opcode);
             throw new RuntimeException("Unrecognized opcode in BackgroundWorkerService");
@@ -112,27 +111,47 @@ public class BackgroundWorkerService extends JobIntentService {
     }
 
     /**
-     * Local execution of background work for action on ActionService thread
+     * Local execution of background work for actions on the background worker thread. The
+     * actions are grouped by type, in the order each type first appears, and each group is
+     * worked on and timed as one unit. The responses and the failures of the whole pass are
+     * then handed back to the action service as one batch each.
+     * @param host the action service the responses and failures are handed back to
      */
-    private void doBackgroundWork(final Action action, final int attempt) {
-        action.markBackgroundWorkStarting();
-        Bundle response;
-        try {
-            final LoggingTimer timer = new LoggingTimer(
-                    TAG, action.getClass().getSimpleName() + "#doBackgroundWork");
-            timer.start();
-
-            response = action.doBackgroundWork();
+    static void doBackgroundWork(final List<Action> actions, final ActionService host) {
+        final LinkedHashMap<Class<?>, ArrayList<Action>> groups = new LinkedHashMap<>();
+        for (final Action action : actions) {
+            groups.computeIfAbsent(action.getClass(), type -> new ArrayList<>()).add(action);
+        }
 
+        final ArrayList<Action> completedActions = new ArrayList<>();
+        final ArrayList<Bundle> responses = new ArrayList<>();
+        final ArrayList<Action> failedActions = new ArrayList<>();
+        for (final ArrayList<Action> group : groups.values()) {
+            final LoggingTimer timer = new LoggingTimer(TAG, group.get(0).getClass()
+                    .getSimpleName() + "#doBackgroundWork x" + group.size());
+            timer.start();
+            for (final Action action : group) {
+                action.markBackgroundWorkStarting();
+                try {
+                    final Bundle response = action.doBackgroundWork();
+                    action.markBackgroundCompletionQueued();
+                    completedActions.add(action);
+                    responses.add(response);
+                } catch (final Exception exception) {
+                    LogUtil.e(TAG, "Error in background worker", exception);
+                    Assert.fail("Unexpected error in background worker - abort");
+                    action.markBackgroundCompletionQueued();
+                    failedActions.add(action);
+                }
+            }
             timer.stopAndLog();
-            action.markBackgroundCompletionQueued();
-            mHost.handleResponseFromBackgroundWorker(action, response);
-        } catch (final Exception exception) {
-            final boolean retry = false;
-            LogUtil.e(TAG, "Error in background worker", exception);
-            Assert.fail("Unexpected error in background worker - abort");
-            action.markBackgroundCompletionQueued();
-            mHost.handleFailureFromBackgroundWorker(action, exception);
+        }
+
+        if (!completedActions.isEmpty()) {
+            host.handleResponsesFromBackgroundWorker(completedActions, responses);
+        }
+        if (!failedActions.isEmpty()) {
+            host.handleFailuresFromBackgroundWorker(failedActions);
         }
     }
 }
@@ -78,9 +78,8 @@ public class DeleteMessageAction extends Action implements Parcelable {
                     LogUtil.w(TAG, "DeleteMessageAction: Could not delete local message "
                             + messageId);
                 }
+                // This also updates the conversation's row in the conversation list
                 MessagingContentProvider.notifyMessagesChanged(message.getConversationId());
-                // We may have changed the conversation list
-                MessagingContentProvider.notifyConversationListChanged();
 
                 final Uri messageUri = message.getSmsMessageUri();
                 if (messageUri != null) {
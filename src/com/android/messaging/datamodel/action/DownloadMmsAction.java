@@ -307,6 +307,19 @@ public class DownloadMmsAction extends Action implements Parcelable {
 
     static void updateMessageStatus(final Uri messageUri, final String messageId,
             final String conversationId, final int status, final int rawStatus) {
+        updateMessageStatus(messageUri, messageId, conversationId, status, rawStatus,
+                0 /* nextRetryTimestamp */);
+    }
+
+    /**
+     * Update the status of a message
+     *
+     * @param nextRetryTimestamp time before which a message left retrying should not be
+     *     downloaded again
+     */
+    static void updateMessageStatus(final Uri messageUri, final String messageId,
+            final String conversationId, final int status, final int rawStatus,
+            final long nextRetryTimestamp) {
         final Context context = Factory.get().getApplicationContext();
         // Downloading status just kept in local DB but need to fix up telephony DB first
         if (status == MessageData.BUGLE_STATUS_INCOMING_AUTO_DOWNLOADING ||
@@ -317,6 +330,7 @@ public class DownloadMmsAction extends Action implements Parcelable {
         final ContentValues values = new ContentValues();
         values.put(MessageColumns.STATUS, status);
         values.put(MessageColumns.RAW_TELEPHONY_STATUS, rawStatus);
+        values.put(MessageColumns.NEXT_RETRY_TIMESTAMP, nextRetryTimestamp);
         final DatabaseWrapper db = DataModel.get().getDatabase();
         BugleDatabaseOperations.updateMessageRowIfExists(db, messageId, values);
 
@@ -88,6 +88,12 @@ public class GetOrCreateConversationAction extends Action implements Parcelable
         actionParameters.putParcelableArrayList(KEY_PARTICIPANTS_LIST, participants);
     }
 
+    @Override
+    protected boolean runsInProcess() {
+        // Started by the UI waiting for the result, which starts it again if needed
+        return true;
+    }
+
     /**
      * Lookup the conversation or create a new one.
      */
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2024 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.messaging.datamodel.action;
+
+import android.content.Context;
+import android.os.PowerManager;
+
+import com.android.messaging.Factory;
+import com.android.messaging.datamodel.DataModel;
+import com.android.messaging.util.BugleGservicesKeys;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Runs actions inside the process on live Action objects instead of parcelling them into intents
+ * for {@link ActionServiceImpl}. Only actions that allow it ({@link Action#runsInProcess}) are
+ * run this way: nothing but a wake lock keeps the process alive while they are outstanding, so
+ * they are lost if it is killed. Everything else still goes through the job queues, whose work
+ * is redelivered. Background work of any action goes through {@link BackgroundWorkerService}.
+ *
+ * Like the service it replaces, it has one thread for executeAction and the processing of
+ * background responses, so actions see the same ordering either way. A partial wake lock is
+ * held while any work is outstanding.
+ * Actions that arrive from outside the process (alarms and pending intents) still come through
+ * ActionServiceImpl, which hands them over here so that they are serialised with everything
+ * else.
+ */
+class InProcessActionExecutor {
+    private static InProcessActionExecutor sInstance;
+
+    private final Executor mActionExecutor = Executors.newSingleThreadExecutor(
+            runnable -> new Thread(runnable, "ActionService"));
+    private final BackgroundWorker mBackgroundWorker;
+    private final PowerManager.WakeLock mWakeLock;
+
+    // Number of tasks queued on the executor; the wake lock is held while this is not zero
+    private int mOutstandingTasks;
+
+    static boolean isEnabled() {
+        return BugleGservicesKeys.ACTION_SERVICE_IN_PROCESS_DEFAULT;
+    }
+
+    /**
+     * @return whether the action is run by this executor rather than the job queues
+     */
+    static boolean runsInProcess(final Action action) {
+        return isEnabled() && action.runsInProcess();
+    }
+
+    static synchronized InProcessActionExecutor get() {
+        if (sInstance == null) {
+            sInstance = new InProcessActionExecutor();
+        }
+        return sInstance;
+    }
+
+    private InProcessActionExecutor() {
+        final Context context = Factory.get().getApplicationContext();
+        final PowerManager powerManager =
+                (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        mWakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK,
+                "bugle:InProcessActionExecutor");
+        mWakeLock.setReferenceCounted(false);
+        mBackgroundWorker = DataModel.get().getBackgroundWorkerForActionService();
+    }
+
+    /**
+     * Queue an action for execution on the action thread
+     */
+    void startAction(final Action action) {
+        action.markStart();
+        submitAction(() -> {
+            ActionServiceImpl.executeAction(action);
+            action.sendBackgroundActions(mBackgroundWorker);
+        });
+    }
+
+    /**
+     * Run work delivered to ActionServiceImpl on the action thread and wait for it, so that the
+     * service's job stays active until the work is done. Failures are rethrown on the caller.
+     */
+    void runOnActionThreadAndWait(final Runnable work) {
+        final FutureTask<Void> task = new FutureTask<>(work, null);
+        submitAction(task);
+        try {
+            task.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    private void submitAction(final Runnable work) {
+        submit(mActionExecutor, work);
+    }
+
+    /**
+     * Queue work on an executor. Unexpected exceptions are left uncaught so that, as with the
+     * services, they crash the process rather than leaving actions silently unfinished.
+     */
+    private void submit(final Executor executor, final Runnable work) {
+        onTaskQueued();
+        executor.execute(() -> {
+            try {
+                work.run();
+            } finally {
+                onTaskDone();
+            }
+        });
+    }
+
+    private synchronized void onTaskQueued() {
+        if (mOutstandingTasks++ == 0) {
+            mWakeLock.acquire();
+        }
+    }
+
+    private synchronized void onTaskDone() {
+        if (--mOutstandingTasks == 0) {
+            mWakeLock.release();
+        }
+    }
+}
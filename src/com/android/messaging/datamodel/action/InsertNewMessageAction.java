@@ -189,7 +189,7 @@ public class InsertNewMessageAction extends Action implements Parcelable {
             BugleDatabaseOperations.updateDraftMessageData(db, conversationId,
                     messageToSend, BugleDatabaseOperations.UPDATE_MODE_CLEAR_DRAFT);
         }
-        MessagingContentProvider.notifyConversationListChanged();
+        MessagingContentProvider.notifyConversationMetadataChanged(conversationId);
         ProcessPendingMessagesAction.scheduleProcessPendingMessagesAction(false, this);
 
         return message;
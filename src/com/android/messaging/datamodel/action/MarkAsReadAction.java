@@ -53,6 +53,13 @@ public class MarkAsReadAction extends Action implements Parcelable {
         actionParameters.putString(KEY_CONVERSATION_ID, conversationId);
     }
 
+    @Override
+    protected String getCoalescingKey() {
+        // Everything unread when this runs gets marked, so one pending request is enough
+        return MarkAsReadAction.class.getSimpleName() + ":"
+                + actionParameters.getString(KEY_CONVERSATION_ID);
+    }
+
     @Override
     protected Object executeAction() {
         final String conversationId = actionParameters.getString(KEY_CONVERSATION_ID);
@@ -64,6 +64,13 @@ public class MarkAsSeenAction extends Action implements Parcelable {
         actionParameters.putString(KEY_CONVERSATION_ID, conversationId);
     }
 
+    @Override
+    protected String getCoalescingKey() {
+        // Everything unseen when this runs gets marked, so one pending request is enough
+        return MarkAsSeenAction.class.getSimpleName() + ":"
+                + actionParameters.getString(KEY_CONVERSATION_ID);
+    }
+
     @Override
     protected Object executeAction() {
         final String conversationId =
@@ -53,6 +53,7 @@ import com.google.common.io.Files;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.List;
 
 /**
@@ -248,9 +249,11 @@ public class ProcessDownloadedMmsAction extends Action {
             if (resultCode == Activity.RESULT_OK) {
                 final Uri contentUri = actionParameters.getParcelable(KEY_CONTENT_URI, Uri.class);
                 final File downloadedFile = MmsFileProvider.getFile(contentUri);
-                byte[] downloadedData = null;
+                // Map the pdu rather than reading it onto the heap; the parser slices part data
+                // straight out of the mapping and the persister streams it to the provider.
+                ByteBuffer downloadedData = null;
                 try {
-                    downloadedData = Files.toByteArray(downloadedFile);
+                    downloadedData = Files.map(downloadedFile);
                 } catch (final FileNotFoundException e) {
                     LogUtil.e(TAG, "ProcessDownloadedMmsAction: MMS download file not found: "
                             + downloadedFile.getAbsolutePath());
@@ -259,7 +262,7 @@ public class ProcessDownloadedMmsAction extends Action {
                             + downloadedFile.getAbsolutePath(), e);
                 }
 
-                // Can delete the temp file now
+                // Can delete the temp file now, the mapping stays valid until it is collected
                 if (downloadedFile.exists()) {
                     downloadedFile.delete();
                     if (LogUtil.isLoggable(TAG, LogUtil.DEBUG)) {
@@ -522,8 +525,18 @@ public class ProcessDownloadedMmsAction extends Action {
                 } else if (status == MmsUtils.MMS_REQUEST_NO_RETRY) {
                     bugleStatus = MessageData.BUGLE_STATUS_INCOMING_EXPIRED_OR_NOT_AVAILABLE;
                 }
+                long nextRetryTimestamp = 0;
+                if (bugleStatus == statusIfFailed) {
+                    // Back off this message before it is downloaded again
+                    final MessageData current =
+                            BugleDatabaseOperations.readMessageData(db, messageId);
+                    if (current != null) {
+                        nextRetryTimestamp = current.getNextRetryTimestampAfterFailure(
+                                System.currentTimeMillis());
+                    }
+                }
                 DownloadMmsAction.updateMessageStatus(mmsNotificationUri, messageId,
-                        notificationConversationId, bugleStatus, rawStatus);
+                        notificationConversationId, bugleStatus, rawStatus, nextRetryTimestamp);
 
                 // Log MMS download failed
                 final int resultCode = actionParameters.getInt(KEY_RESULT_CODE);
@@ -42,11 +42,18 @@ import com.android.messaging.util.ConnectivityUtil.ConnectivityListener;
 import com.android.messaging.util.LogUtil;
 import com.android.messaging.util.PhoneUtils;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
 /**
  * Action used to lookup any messages in the pending send/download state and either fail them or
- * retry their action based on subscriptions. This action only initiates one retry at a time for
- * both sending/downloading. Further retries should be triggered by successful sending/downloading
- * of a message, network status change or exponential backoff timer.
+ * retry their action based on subscriptions. SMS sends, MMS sends and MMS downloads each have
+ * their own limit of messages in process per subscription, and a conversation only has one
+ * message sending at a time so that its messages go out in order. Further retries should be
+ * triggered by completed sending/downloading of a message, network status change or exponential
+ * backoff timer. Each message awaiting a retry has its own backoff, so a failing message does not
+ * hold back the other messages of its subscription.
  */
 public class ProcessPendingMessagesAction extends Action implements Parcelable {
     private static final String TAG = LogUtil.BUGLE_DATAMODEL_TAG;
@@ -85,11 +92,11 @@ public class ProcessPendingMessagesAction extends Action implements Parcelable {
             // Clear retry attempt count as something just succeeded
             setRetry(0, subId);
 
-            // Lookup and queue next message for each sending/downloading for immediate processing
-            // by background worker. If there are no pending messages, this will do nothing and
-            // return true.
+            // Lookup and queue next messages for each sending/downloading for immediate
+            // processing by background worker. If there are no pending messages, this will do
+            // nothing and return true.
             final ProcessPendingMessagesAction action = new ProcessPendingMessagesAction();
-            if (action.queueActions(processingAction)) {
+            if (action.queueActions(processingAction, true /* includeRetries */)) {
                 if (LogUtil.isLoggable(TAG, LogUtil.VERBOSE)) {
                     if (processingAction.hasBackgroundActions()) {
                         LogUtil.v(TAG, "ProcessPendingMessagesAction: Action queued");
@@ -97,14 +104,31 @@ public class ProcessPendingMessagesAction extends Action implements Parcelable {
                         LogUtil.v(TAG, "ProcessPendingMessagesAction: No actions to queue");
                     }
                 }
-                // Have queued next action if needed, nothing more to do
+                // Have queued next action if needed, only wait for the messages backing off
+                registerForRetry(subId, false /* retryDue */);
                 return;
             }
             // In case of error queuing schedule a retry
             scheduleAlarm = true;
             LogUtil.w(TAG, "ProcessPendingMessagesAction: Action failed to queue; retrying");
+        } else if (isDefaultSmsApp) {
+            // The failure of a message does not hold back the ones not tried yet
+            final ProcessPendingMessagesAction action = new ProcessPendingMessagesAction();
+            action.queueActions(processingAction, false /* includeRetries */);
         }
-        if (getHavePendingMessages(subId) || scheduleAlarm) {
+        registerForRetry(subId, scheduleAlarm || getHavePendingMessages(subId));
+    }
+
+    /**
+     * Register to process the pending messages of a subscription when the next message backing
+     * off is due or when connectivity returns
+     *
+     * @param retryDue whether some messages that are due could not be queued, so they should be
+     *     retried with the exponential backoff of the subscription
+     */
+    private static void registerForRetry(final int subId, final boolean retryDue) {
+        final long nextRetryTimestamp = getNextRetryTimestamp(subId);
+        if (retryDue || nextRetryTimestamp != Long.MAX_VALUE) {
             // Still have a pending message that needs to be queued for processing
             final ConnectivityListener listener = serviceState -> {
                 if (serviceState == ServiceState.STATE_IN_SERVICE) {
@@ -122,9 +146,12 @@ public class ProcessPendingMessagesAction extends Action implements Parcelable {
                     action.start();
                 }
             };
-            // Read and increment attempt number from shared prefs
-            final int retryAttempt = getNextRetry(subId);
-            register(listener, retryAttempt, subId);
+            long delayMs = Math.max(nextRetryTimestamp - System.currentTimeMillis(), 0);
+            if (retryDue) {
+                // Read and increment attempt number from shared prefs
+                delayMs = Math.min(delayMs, getBackoffDelay(getNextRetry(subId)));
+            }
+            register(listener, delayMs, subId);
         } else {
             // No more pending messages (presumably the message that failed has expired) or it
             // may be possible that a send and a download are already in process.
@@ -136,10 +163,8 @@ public class ProcessPendingMessagesAction extends Action implements Parcelable {
         }
     }
 
-    private static void register(final ConnectivityListener listener, final int retryAttempt,
+    private static void register(final ConnectivityListener listener, final long delayMs,
             int subId) {
-        int retryNumber = retryAttempt;
-
         // Register to be notified about connectivity changes
         ConnectivityUtil connectivityUtil = DataModelImpl.getConnectivityUtil(subId);
         if (connectivityUtil != null) {
@@ -148,6 +173,15 @@ public class ProcessPendingMessagesAction extends Action implements Parcelable {
 
         final ProcessPendingMessagesAction action = new ProcessPendingMessagesAction();
         action.actionParameters.putInt(KEY_SUB_ID, subId);
+
+        LogUtil.i(TAG, "ProcessPendingMessagesAction: Registering for retry in " + delayMs
+                + " ms for subId " + subId);
+
+        action.schedule(PENDING_INTENT_BASE_REQUEST_CODE + subId, delayMs);
+    }
+
+    private static long getBackoffDelay(final int retryAttempt) {
+        int retryNumber = retryAttempt;
         final long initialBackoffMs = BugleGservicesKeys.INITIAL_MESSAGE_RESEND_DELAY_MS_DEFAULT;
         final long maxDelayMs = BugleGservicesKeys.MAX_MESSAGE_RESEND_DELAY_MS_DEFAULT;
         long delayMs;
@@ -158,11 +192,7 @@ public class ProcessPendingMessagesAction extends Action implements Parcelable {
             nextDelayMs = delayMs * 2;
         }
         while (retryNumber > 0 && nextDelayMs < maxDelayMs);
-
-        LogUtil.i(TAG, "ProcessPendingMessagesAction: Registering for retry #" + retryAttempt
-                + " in " + delayMs + " ms for subId " + subId);
-
-        action.schedule(PENDING_INTENT_BASE_REQUEST_CODE + subId, delayMs);
+        return delayMs;
     }
 
     private static void unregister(final int subId) {
@@ -197,6 +227,14 @@ public class ProcessPendingMessagesAction extends Action implements Parcelable {
     private ProcessPendingMessagesAction() {
     }
 
+    @Override
+    protected String getCoalescingKey() {
+        // Queues from the pending messages in the database when it runs, so one pending request
+        // per subscription is enough
+        return ProcessPendingMessagesAction.class.getSimpleName() + ":"
+                + actionParameters.getInt(KEY_SUB_ID, ParticipantData.DEFAULT_SELF_SUB_ID);
+    }
+
     /**
      * Read from the DB and determine if there are any messages we should process
      *
@@ -213,12 +251,10 @@ public class ProcessPendingMessagesAction extends Action implements Parcelable {
             return false;
         }
 
-        final String toSendMessageId = findNextMessageToSend(db, now, selfId);
-        if (toSendMessageId != null) {
+        if (!findNextMessagesToSend(db, now, selfId, true /* includeRetries */).isEmpty()) {
             return true;
         } else {
-            final String toDownloadMessageId = findNextMessageToDownload(db, now, selfId);
-            if (toDownloadMessageId != null) {
+            if (!findNextMessagesToDownload(db, now, selfId).isEmpty()) {
                 return true;
             }
         }
@@ -227,12 +263,49 @@ public class ProcessPendingMessagesAction extends Action implements Parcelable {
         return false;
     }
 
+    /**
+     * Read from the DB when the next message backing off is due
+     *
+     * @param subId the subId
+     * @return the earliest next retry time of the messages awaiting a retry that are not due yet,
+     *     or Long.MAX_VALUE if there are none
+     */
+    private static long getNextRetryTimestamp(final int subId) {
+        final DatabaseWrapper db = DataModel.get().getDatabase();
+        final String selfId = ParticipantData.getParticipantId(db, subId);
+        if (selfId == null) {
+            return Long.MAX_VALUE;
+        }
+        try (Cursor cursor = db.query(DatabaseHelper.MESSAGES_TABLE,
+                new String[] {
+                    "MIN(" + DatabaseHelper.MessageColumns.NEXT_RETRY_TIMESTAMP + ")"
+                },
+                DatabaseHelper.MessageColumns.STATUS + " IN (?, ?, ?) AND "
+                + DatabaseHelper.MessageColumns.SELF_PARTICIPANT_ID + " =? AND "
+                + DatabaseHelper.MessageColumns.NEXT_RETRY_TIMESTAMP + " >? ",
+                new String[] {
+                    Integer.toString(MessageData.BUGLE_STATUS_OUTGOING_AWAITING_RETRY),
+                    Integer.toString(MessageData.BUGLE_STATUS_INCOMING_RETRYING_AUTO_DOWNLOAD),
+                    Integer.toString(MessageData.BUGLE_STATUS_INCOMING_RETRYING_MANUAL_DOWNLOAD),
+                    selfId,
+                    Long.toString(System.currentTimeMillis())
+                },
+                null, null, null)) {
+            if (cursor.moveToFirst() && !cursor.isNull(0)) {
+                return cursor.getLong(0);
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
     /**
      * Queue any pending actions
      *
+     * @param includeRetries whether to queue messages awaiting a retry and downloads, or only
+     *     messages that were not tried yet
      * @return true if action queued (or no actions to queue) else false
      */
-    private boolean queueActions(final Action processingAction) {
+    private boolean queueActions(final Action processingAction, final boolean includeRetries) {
         final DatabaseWrapper db = DataModel.get().getDatabase();
         final long now = System.currentTimeMillis();
         boolean succeeded = true;
@@ -248,12 +321,15 @@ public class ProcessPendingMessagesAction extends Action implements Parcelable {
             return false;
         }
 
-        // Will queue no more than one message to send plus one message to download
-        // This keeps outgoing messages "in order" but allow downloads to happen even if sending
-        // gets blocked until messages time out. Manual resend bumps messages to head of queue.
-        final String toSendMessageId = findNextMessageToSend(db, now, selfId);
-        final String toDownloadMessageId = findNextMessageToDownload(db, now, selfId);
-        if (toSendMessageId != null) {
+        // Queues the oldest message of each conversation with no message sending, up to the limit
+        // of each lane. This keeps outgoing messages of a conversation "in order" but allows
+        // other conversations and downloads to proceed even if one gets blocked until its
+        // messages time out. Manual resend bumps messages to head of queue.
+        final List<String> toSendMessageIds =
+                findNextMessagesToSend(db, now, selfId, includeRetries);
+        final List<String> toDownloadMessageIds = includeRetries
+                ? findNextMessagesToDownload(db, now, selfId) : new ArrayList<>();
+        for (final String toSendMessageId : toSendMessageIds) {
             LogUtil.i(TAG, "ProcessPendingMessagesAction: Queueing message " + toSendMessageId
                     + " for sending");
             // This could queue nothing
@@ -263,7 +339,7 @@ public class ProcessPendingMessagesAction extends Action implements Parcelable {
                 succeeded = false;
             }
         }
-        if (toDownloadMessageId != null) {
+        for (final String toDownloadMessageId : toDownloadMessageIds) {
             LogUtil.i(TAG, "ProcessPendingMessagesAction: Queueing message " + toDownloadMessageId
                     + " for download");
             // This could queue nothing
@@ -274,7 +350,7 @@ public class ProcessPendingMessagesAction extends Action implements Parcelable {
                 succeeded = false;
             }
         }
-        if (toSendMessageId == null && toDownloadMessageId == null) {
+        if (toSendMessageIds.isEmpty() && toDownloadMessageIds.isEmpty()) {
             LogUtil.i(TAG, "ProcessPendingMessagesAction: No messages to send or download");
         }
         return succeeded;
@@ -287,10 +363,13 @@ public class ProcessPendingMessagesAction extends Action implements Parcelable {
         unregister(subId);
 
         if (PhoneUtils.getDefault().isDefaultSmsApp()) {
-            if (!queueActions(this)) {
+            if (!queueActions(this, true /* includeRetries */)) {
                 LogUtil.v(TAG, "ProcessPendingMessagesAction: rescheduling");
                 // TODO: Need to clear retry count here?
                 scheduleProcessPendingMessagesAction(true /* failed */, this);
+            } else {
+                // Wait for the messages that are still backing off
+                registerForRetry(subId, false /* retryDue */);
             }
         } else {
             if (LogUtil.isLoggable(TAG, LogUtil.VERBOSE)) {
@@ -302,24 +381,48 @@ public class ProcessPendingMessagesAction extends Action implements Parcelable {
         return null;
     }
 
-    private static String findNextMessageToSend(final DatabaseWrapper db, final long now,
-            final String selfId) {
-        String toSendMessageId = null;
+    /**
+     * Find the messages to send next, marking failed the ones that can no longer be sent
+     *
+     * @param includeRetries whether messages awaiting a retry can be sent, or only messages that
+     *     were not tried yet. Messages awaiting a retry are only sent once their backoff is over.
+     * @return the ids of the oldest pending message of each conversation that has no message
+     *     sending, oldest first, up to the free room of the SMS and MMS lanes
+     */
+    private static List<String> findNextMessagesToSend(final DatabaseWrapper db, final long now,
+            final String selfId, final boolean includeRetries) {
+        final ArrayList<String> toSendMessageIds = new ArrayList<>();
+        // Conversations that already have a message sending, or queued for sending here
+        final HashSet<String> busyConversationIds = new HashSet<>();
         Cursor cursor = null;
-        int sendingCnt;
+        int smsSendingCnt = 0;
+        int mmsSendingCnt = 0;
         int pendingCnt;
         int failedCnt = 0;
         db.beginTransaction();
         try {
-            // First check to see if we have any messages already sending
-            sendingCnt = (int) db.queryNumEntries(DatabaseHelper.MESSAGES_TABLE,
+            // First check which messages are already sending
+            cursor = db.query(DatabaseHelper.MESSAGES_TABLE,
+                    new String[] {
+                        DatabaseHelper.MessageColumns.CONVERSATION_ID,
+                        DatabaseHelper.MessageColumns.PROTOCOL
+                    },
                     DatabaseHelper.MessageColumns.STATUS + " IN (?, ?) AND "
                     + DatabaseHelper.MessageColumns.SELF_PARTICIPANT_ID + " =? ",
                     new String[] {
                         Integer.toString(MessageData.BUGLE_STATUS_OUTGOING_SENDING),
                         Integer.toString(MessageData.BUGLE_STATUS_OUTGOING_RESENDING),
-                        selfId}
-                    );
+                        selfId},
+                    null, null, null);
+            while (cursor.moveToNext()) {
+                busyConversationIds.add(cursor.getString(0));
+                if (cursor.getInt(1) == MessageData.PROTOCOL_SMS) {
+                    smsSendingCnt++;
+                } else {
+                    mmsSendingCnt++;
+                }
+            }
+            cursor.close();
 
             // Look for messages we could send
             cursor = db.query(DatabaseHelper.MESSAGES_TABLE,
@@ -347,6 +450,10 @@ public class ProcessPendingMessagesAction extends Action implements Parcelable {
             if (messageSelf == null || !messageSelf.isActiveSubscription()) {
                 isActiveSubscription = false;
             }
+            int smsRoom = BugleGservicesKeys.PENDING_SMS_SENDS_PER_SUBSCRIPTION_DEFAULT
+                    - smsSendingCnt;
+            int mmsRoom = BugleGservicesKeys.PENDING_MMS_SENDS_PER_SUBSCRIPTION_DEFAULT
+                    - mmsSendingCnt;
             while (cursor.moveToNext()) {
                 final MessageData message = new MessageData();
                 message.bind(cursor);
@@ -359,13 +466,25 @@ public class ProcessPendingMessagesAction extends Action implements Parcelable {
                     // Mark message as failed
                     BugleDatabaseOperations.updateMessageRow(db, message.getMessageId(), values);
                     MessagingContentProvider.notifyMessagesChanged(message.getConversationId());
-                } else {
-                    // If no messages currently sending
-                    if (sendingCnt == 0) {
-                        // Send this message
-                        toSendMessageId = message.getMessageId();
+                    continue;
+                }
+                // Only the oldest message of a conversation can be sent, and only if no other
+                // message of the conversation is sending
+                if (!busyConversationIds.add(message.getConversationId())) {
+                    continue;
+                }
+                if (message.getStatus() == MessageData.BUGLE_STATUS_OUTGOING_AWAITING_RETRY
+                        && (!includeRetries || message.getNextRetryTimestamp() > now)) {
+                    continue;
+                }
+                if (message.getIsSms() ? smsRoom > 0 : mmsRoom > 0) {
+                    // Send this message
+                    toSendMessageIds.add(message.getMessageId());
+                    if (message.getIsSms()) {
+                        smsRoom--;
+                    } else {
+                        mmsRoom--;
                     }
-                    break;
                 }
             }
             db.setTransactionSuccessful();
@@ -378,20 +497,28 @@ public class ProcessPendingMessagesAction extends Action implements Parcelable {
 
         if (LogUtil.isLoggable(TAG, LogUtil.DEBUG)) {
             LogUtil.d(TAG, "ProcessPendingMessagesAction: "
-                    + sendingCnt + " messages already sending, "
+                    + smsSendingCnt + " SMS and " + mmsSendingCnt
+                    + " MMS messages already sending, "
                     + pendingCnt + " messages to send, "
+                    + toSendMessageIds.size() + " to send now, "
                     + failedCnt + " failed messages");
         }
 
-        return toSendMessageId;
+        return toSendMessageIds;
     }
 
-    private static String findNextMessageToDownload(final DatabaseWrapper db, final long now,
-            final String selfId) {
-        String toDownloadMessageId = null;
+    /**
+     * Find the messages to download next, leaving out the messages still backing off
+     *
+     * @return the ids of the oldest messages to download, up to the free room of the download
+     *     lane
+     */
+    private static List<String> findNextMessagesToDownload(final DatabaseWrapper db,
+            final long now, final String selfId) {
+        final ArrayList<String> toDownloadMessageIds = new ArrayList<>();
         Cursor cursor = null;
         int downloadingCnt;
-        int pendingCnt;
+        int pendingCnt = 0;
         db.beginTransaction();
         try {
             // First check if we have any messages already downloading
@@ -404,31 +531,36 @@ public class ProcessPendingMessagesAction extends Action implements Parcelable {
                         selfId
                     });
 
-            // TODO: This query is not actually needed if downloadingCnt == 0.
-            cursor = db.query(DatabaseHelper.MESSAGES_TABLE,
-                    MessageData.getProjection(),
-                    DatabaseHelper.MessageColumns.STATUS + " IN (?, ?) AND "
-                    + DatabaseHelper.MessageColumns.SELF_PARTICIPANT_ID + " =? ",
-                    new String[]{
-                        Integer.toString(MessageData.BUGLE_STATUS_INCOMING_RETRYING_AUTO_DOWNLOAD),
-                        Integer.toString(
-                                MessageData.BUGLE_STATUS_INCOMING_RETRYING_MANUAL_DOWNLOAD),
-                        selfId
-                    },
-                    null,
-                    null,
-                    DatabaseHelper.MessageColumns.RECEIVED_TIMESTAMP + " ASC");
-
-            pendingCnt = cursor.getCount();
-
-            // If no messages are currently downloading and there is a download pending,
-            // queue the download of the oldest pending message.
-            if (downloadingCnt == 0 && cursor.moveToNext()) {
-                // Always start the next pending message. We will check if a download has
-                // expired in DownloadMmsAction and mark message failed there.
-                final MessageData message = new MessageData();
-                message.bind(cursor);
-                toDownloadMessageId = message.getMessageId();
+            final int room = BugleGservicesKeys.PENDING_MMS_DOWNLOADS_PER_SUBSCRIPTION_DEFAULT
+                    - downloadingCnt;
+            if (room > 0) {
+                cursor = db.query(DatabaseHelper.MESSAGES_TABLE,
+                        MessageData.getProjection(),
+                        DatabaseHelper.MessageColumns.STATUS + " IN (?, ?) AND "
+                        + DatabaseHelper.MessageColumns.SELF_PARTICIPANT_ID + " =? AND "
+                        + DatabaseHelper.MessageColumns.NEXT_RETRY_TIMESTAMP + " <=? ",
+                        new String[]{
+                            Integer.toString(
+                                    MessageData.BUGLE_STATUS_INCOMING_RETRYING_AUTO_DOWNLOAD),
+                            Integer.toString(
+                                    MessageData.BUGLE_STATUS_INCOMING_RETRYING_MANUAL_DOWNLOAD),
+                            selfId,
+                            Long.toString(now)
+                        },
+                        null,
+                        null,
+                        DatabaseHelper.MessageColumns.RECEIVED_TIMESTAMP + " ASC");
+
+                pendingCnt = cursor.getCount();
+
+                // Queue the downloads of the oldest pending messages that fit in the lane.
+                // We will check if a download has expired in DownloadMmsAction and mark message
+                // failed there.
+                while (toDownloadMessageIds.size() < room && cursor.moveToNext()) {
+                    final MessageData message = new MessageData();
+                    message.bind(cursor);
+                    toDownloadMessageIds.add(message.getMessageId());
+                }
             }
             db.setTransactionSuccessful();
         } finally {
@@ -444,7 +576,7 @@ public class ProcessPendingMessagesAction extends Action implements Parcelable {
                     + pendingCnt + " messages to download");
         }
 
-        return toDownloadMessageId;
+        return toDownloadMessageIds;
     }
 
     private ProcessPendingMessagesAction(final Parcel in) {
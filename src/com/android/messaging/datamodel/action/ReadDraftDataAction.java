@@ -80,6 +80,12 @@ public class ReadDraftDataAction extends Action implements Parcelable {
         }
     }
 
+    @Override
+    protected boolean runsInProcess() {
+        // Only reads, for a UI that is gone along with the process anyway
+        return true;
+    }
+
     @Override
     protected Object executeAction() {
         final DatabaseWrapper db = DataModel.get().getDatabase();
@@ -86,10 +86,11 @@ public class RedownloadMmsAction extends Action implements Parcelable {
         if (message != null && message.canRedownloadMessage()) {
             final long timestamp = System.currentTimeMillis();
 
-            final ContentValues values = new ContentValues(2);
+            final ContentValues values = new ContentValues(3);
             values.put(DatabaseHelper.MessageColumns.STATUS,
                     MessageData.BUGLE_STATUS_INCOMING_RETRYING_MANUAL_DOWNLOAD);
             values.put(DatabaseHelper.MessageColumns.RETRY_START_TIMESTAMP, timestamp);
+            values.put(DatabaseHelper.MessageColumns.NEXT_RETRY_TIMESTAMP, 0);
 
             // Row must exist as was just loaded above (on ActionService thread)
             BugleDatabaseOperations.updateMessageRow(db, message.getMessageId(), values);
@@ -84,6 +84,7 @@ public class ResendMessageAction extends Action implements Parcelable {
             final ContentValues values = new ContentValues();
             values.put(MessageColumns.STATUS, MessageData.BUGLE_STATUS_OUTGOING_YET_TO_SEND);
             values.put(MessageColumns.RETRY_START_TIMESTAMP, timestamp);
+            values.put(MessageColumns.NEXT_RETRY_TIMESTAMP, 0);
 
             // Row must exist as was just loaded above (on ActionService thread)
             BugleDatabaseOperations.updateMessageRow(db, message.getMessageId(), values);
@@ -213,9 +213,17 @@ public class SendMessageAction extends Action implements Parcelable {
             final String messageText = message.getMessageText();
             final String smsServiceCenter = actionParameters.getString(KEY_SMS_SERVICE_CENTER);
             final boolean deliveryReportRequired = MmsUtils.isDeliveryReportRequired(subId);
-
-            status = MmsUtils.sendSmsMessage(recipient, messageText, messageUri, subId,
-                    smsServiceCenter, deliveryReportRequired);
+            final Uri smsMessageUri = messageUri;
+
+            // Async send, the background thread is not held until the sent status comes back
+            MmsUtils.sendSmsMessage(recipient, messageText, smsMessageUri, messageId, subId,
+                    smsServiceCenter, deliveryReportRequired,
+                    smsStatus -> ProcessSentMessageAction.processMessageSentFastFailed(
+                            messageId, smsMessageUri, null /* updatedMessageUri */, subId,
+                            true /* isSms */, smsStatus,
+                            MessageData.RAW_TELEPHONY_STATUS_UNDEFINED,
+                            MessageData.UNKNOWN_RESULT_CODE));
+            return null;
         } else {
             final Context context = Factory.get().getApplicationContext();
             final ArrayList<String> recipients =
@@ -93,9 +93,15 @@ class SyncMessageBatch {
             for (final LocalDatabaseMessage message : mMessagesToDelete) {
                 mConversationsToUpdate.add(message.getConversationId());
             }
-            // Batch delete local messages
-            batchDelete(db, DatabaseHelper.MESSAGES_TABLE, MessageColumns._ID,
-                    messageListToIds(mMessagesToDelete));
+            // Batch delete local messages, and the images cached for their parts
+            final String[] idsToDelete = messageListToIds(mMessagesToDelete);
+            for (int start = 0; start < idsToDelete.length; start += MmsUtils.MAX_IDS_PER_QUERY) {
+                final int end = Math.min(start + MmsUtils.MAX_IDS_PER_QUERY, idsToDelete.length);
+                BugleDatabaseOperations.removeCachedPartImages(db,
+                        MessageColumns._ID + " IN " + MmsUtils.getSqlInOperand(end - start),
+                        Arrays.copyOfRange(idsToDelete, start, end));
+            }
+            batchDelete(db, DatabaseHelper.MESSAGES_TABLE, MessageColumns._ID, idsToDelete);
 
             for (final LocalDatabaseMessage message : mMessagesToDelete) {
                 if (LogUtil.isLoggable(TAG, LogUtil.VERBOSE)) {
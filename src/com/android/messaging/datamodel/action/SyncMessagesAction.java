@@ -53,6 +53,11 @@ import com.android.messaging.util.OsUtil;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Action used to sync messages from smsmms db to local database
@@ -71,6 +76,17 @@ public class SyncMessagesAction extends Action implements Parcelable {
     private static final String BUNDLE_KEY_MMS_MESSAGES = "mms_to_add";
     private static final String BUNDLE_KEY_MESSAGES_TO_DELETE = "messages_to_delete";
 
+    // Pool used to query the telephony provider for the MMS parts and senders of a batch in
+    // parallel, one window of messages per task. The results are merged before the batch is
+    // handed to processBackgroundResponse, which remains the only writer of the local database.
+    private static final ExecutorService SYNC_WORKER_EXECUTOR = Executors.newFixedThreadPool(
+            BugleGservicesKeys.SMS_SYNC_WORKER_THREADS_DEFAULT,
+            runnable -> {
+                final Thread workerThread = new Thread(runnable, "SyncMessagesWorker");
+                workerThread.setPriority(Thread.MIN_PRIORITY);
+                return workerThread;
+            });
+
     /**
      * Start a full sync (backed off a few seconds to avoid pulling sending/receiving messages).
      */
@@ -82,8 +98,11 @@ public class SyncMessagesAction extends Action implements Parcelable {
         // TODO: Could base this off most recent message in db but now should be okay...
         final long startTimestamp = now - smsSyncBackoffTimeMillis;
 
+        // A full sync loads the recipients of all the threads again
+        DataModel.get().getSyncManager().getThreadInfoCache().invalidateRecipients();
+
         final SyncMessagesAction action = new SyncMessagesAction(-1L, startTimestamp,
-                0, startTimestamp);
+                getInitialBatchSize(), startTimestamp);
         action.start();
     }
 
@@ -121,10 +140,17 @@ public class SyncMessagesAction extends Action implements Parcelable {
                     BuglePrefsKeys.LAST_SYNC_TIME_DEFAULT);
 
         final SyncMessagesAction action = new SyncMessagesAction(syncLowerBoundTimeMillis,
-                startTimestamp, 0, startTimestamp);
+                startTimestamp, getInitialBatchSize(), startTimestamp);
         action.start();
     }
 
+    /**
+     * Size of the first batch of a sync, based on the per-message costs learned by earlier syncs
+     */
+    private static int getInitialBatchSize() {
+        return DataModel.get().getSyncManager().getBatchSizeController().getInitialBatchSize();
+    }
+
     private SyncMessagesAction(final long lowerBound, final long upperBound,
             final int maxMessagesToUpdate, final long startTimestamp) {
         actionParameters.putLong(KEY_LOWER_BOUND, lowerBound);
@@ -212,9 +238,11 @@ public class SyncMessagesAction extends Action implements Parcelable {
         // Clear last change time so that we can work out if this batch is dirty when it completes
         final SyncManager syncManager = DataModel.get().getSyncManager();
 
-        // Clear the singleton cache that maps threads to recipients and to conversations.
+        // Clear the singleton cache that maps threads to conversations. The recipients of the
+        // threads it already knows are kept across batches and syncs.
         final SyncManager.ThreadInfoCache cache = syncManager.getThreadInfoCache();
         cache.clear();
+        cache.warmUp();
 
         // Sms messages to store
         final ArrayList<SmsMessage> smsToAdd = new ArrayList<>();
@@ -303,6 +331,9 @@ public class SyncMessagesAction extends Action implements Parcelable {
                         + remoteTotal + ")");
             }
 
+            // Resolve the recipients of the threads of this batch that the cache does not know
+            // with a few bulk queries, instead of one thread at a time
+            cache.prefetchThreadRecipients(getThreadIds(smsToAdd, mmsToAdd));
             // Batch loading the parts of the MMS messages in this batch
             loadMmsParts(mmsToAdd);
             // Lookup senders for incoming mms messages
@@ -432,8 +463,9 @@ public class SyncMessagesAction extends Action implements Parcelable {
 
                     // Include final millisecond of last sync in next sync
                     final long newUpperBoundTimeMillis = lastTimestampMillis + 1;
-                    final int newMaxMessagesToUpdate = nextBatchSize(messagesUpdated,
-                            txnTimeMillis);
+                    final int newMaxMessagesToUpdate = syncManager.getBatchSizeController()
+                            .onBatchApplied(smsToAdd.size(), mmsToAdd.size(),
+                                    messagesToDelete.size(), txnTimeMillis);
 
                     final SyncMessagesAction nextBatch =
                             new SyncMessagesAction(lowerBoundTimeMillis, newUpperBoundTimeMillis,
@@ -462,8 +494,8 @@ public class SyncMessagesAction extends Action implements Parcelable {
                                 + "scheduling an incremental sync now.");
 
                         // Just add a new batch for recent messages
-                        final SyncMessagesAction nextBatch =
-                                new SyncMessagesAction(startTimestamp, now, 0, startTimestamp);
+                        final SyncMessagesAction nextBatch = new SyncMessagesAction(
+                                startTimestamp, now, getInitialBatchSize(), startTimestamp);
                         syncManager.startSyncBatch(now);
                         requestBackgroundWork(nextBatch);
                         // After partial sync verify sync state
@@ -472,8 +504,8 @@ public class SyncMessagesAction extends Action implements Parcelable {
                         LogUtil.w(TAG, "SyncMessagesAction: Changed messages before sync batch; "
                                 + "scheduling a full sync now.");
 
-                        final SyncMessagesAction nextBatch =
-                                new SyncMessagesAction(-1L, startTimestamp, 0, startTimestamp);
+                        final SyncMessagesAction nextBatch = new SyncMessagesAction(
+                                -1L, startTimestamp, getInitialBatchSize(), startTimestamp);
 
                         syncManager.startSyncBatch(startTimestamp);
                         requestBackgroundWork(nextBatch);
@@ -493,80 +525,115 @@ public class SyncMessagesAction extends Action implements Parcelable {
     }
 
     /**
-     * Decide the next batch size based on the stats we collected with past batch
-     * @param messagesUpdated number of messages updated in this batch
-     * @param txnTimeMillis time the transaction took in ms
-     * @return Target number of messages to sync for next batch
+     * @return the distinct thread ids of the messages of the batch
      */
-    private static int nextBatchSize(final int messagesUpdated, final long txnTimeMillis) {
-        final long smsSyncSubsequentBatchTimeLimitMillis =
-                BugleGservicesKeys.SMS_SYNC_BATCH_TIME_LIMIT_MILLIS_DEFAULT;
-
-        if (txnTimeMillis <= 0) {
-            return 0;
+    private static long[] getThreadIds(final List<SmsMessage> smses,
+            final LongSparseArray<MmsMessage> mmses) {
+        final LongSparseArray<Boolean> threadIds = new LongSparseArray<>();
+        for (int i = 0; i < smses.size(); i++) {
+            threadIds.put(smses.get(i).mThreadId, Boolean.TRUE);
+        }
+        for (int i = 0; i < mmses.size(); i++) {
+            threadIds.put(mmses.valueAt(i).mThreadId, Boolean.TRUE);
+        }
+        final long[] ids = new long[threadIds.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = threadIds.keyAt(i);
         }
-        // Number of messages we can sync within the batch time limit using
-        // the average sync time calculated based on the stats we collected
-        // in previous batch
-        return (int) ((double) (messagesUpdated) / (double) txnTimeMillis
-                        * smsSyncSubsequentBatchTimeLimitMillis);
+        return ids;
     }
 
     /**
-     * Batch loading MMS parts for the messages in current batch
+     * Batch loading MMS parts for the messages in current batch. Each window of
+     * {@link MmsUtils#MAX_IDS_PER_QUERY} messages is queried on the sync worker pool.
      */
-    private void loadMmsParts(final LongSparseArray<MmsMessage> mmses) {
-        final Context context = Factory.get().getApplicationContext();
+    private void loadMmsParts(final LongSparseArray<MmsMessage> mmses) throws Exception {
         final int totalIds = mmses.size();
+        final ArrayList<Callable<Void>> tasks = new ArrayList<>();
         for (int start = 0; start < totalIds; start += MmsUtils.MAX_IDS_PER_QUERY) {
             final int end = Math.min(start + MmsUtils.MAX_IDS_PER_QUERY, totalIds); //excluding
-            final int count = end - start;
-            final String batchSelection = String.format(
-                    Locale.US,
-                    "%s != '%s' AND %s IN %s",
-                    Mms.Part.CONTENT_TYPE,
-                    ContentType.APP_SMIL,
-                    Mms.Part.MSG_ID,
-                    MmsUtils.getSqlInOperand(count));
-            final String[] batchSelectionArgs = new String[count];
-            for (int i = 0; i < count; i++) {
-                batchSelectionArgs[i] = Long.toString(mmses.valueAt(start + i).getId());
-            }
-            final Cursor cursor = SqliteWrapper.query(
-                    context,
-                    context.getContentResolver(),
-                    MmsUtils.MMS_PART_CONTENT_URI,
-                    DatabaseMessages.MmsPart.PROJECTION,
-                    batchSelection,
-                    batchSelectionArgs,
-                    null/*sortOrder*/);
-            if (cursor != null) {
-                try {
-                    while (cursor.moveToNext()) {
-                        // Delay loading the media content for parsing for efficiency
-                        // TODO: load the media and fill in the dimensions when
-                        // we actually display it
-                        final DatabaseMessages.MmsPart part =
-                                DatabaseMessages.MmsPart.get(cursor, false/*loadMedia*/);
-                        final DatabaseMessages.MmsMessage mms = mmses.get(part.mMessageId);
-                        if (mms != null) {
-                            mms.addPart(part);
-                        }
+            final int windowStart = start;
+            tasks.add(() -> {
+                loadMmsParts(mmses, windowStart, end);
+                return null;
+            });
+        }
+        runOnSyncWorkers(tasks);
+    }
+
+    /**
+     * Load the MMS parts for the messages at [start, end) of the batch. Every part is added to a
+     * message inside the window, so windows can be loaded concurrently.
+     */
+    private static void loadMmsParts(final LongSparseArray<MmsMessage> mmses, final int start,
+            final int end) {
+        final Context context = Factory.get().getApplicationContext();
+        final int count = end - start;
+        final String batchSelection = String.format(
+                Locale.US,
+                "%s != '%s' AND %s IN %s",
+                Mms.Part.CONTENT_TYPE,
+                ContentType.APP_SMIL,
+                Mms.Part.MSG_ID,
+                MmsUtils.getSqlInOperand(count));
+        final String[] batchSelectionArgs = new String[count];
+        for (int i = 0; i < count; i++) {
+            batchSelectionArgs[i] = Long.toString(mmses.valueAt(start + i).getId());
+        }
+        final Cursor cursor = SqliteWrapper.query(
+                context,
+                context.getContentResolver(),
+                MmsUtils.MMS_PART_CONTENT_URI,
+                DatabaseMessages.MmsPart.PROJECTION,
+                batchSelection,
+                batchSelectionArgs,
+                null/*sortOrder*/);
+        if (cursor != null) {
+            try {
+                while (cursor.moveToNext()) {
+                    // Delay loading the media content for parsing for efficiency
+                    // TODO: load the media and fill in the dimensions when
+                    // we actually display it
+                    final DatabaseMessages.MmsPart part =
+                            DatabaseMessages.MmsPart.get(cursor, false/*loadMedia*/);
+                    final DatabaseMessages.MmsMessage mms = mmses.get(part.mMessageId);
+                    if (mms != null) {
+                        mms.addPart(part);
                     }
-                } finally {
-                    cursor.close();
                 }
+            } finally {
+                cursor.close();
             }
         }
     }
 
     /**
-     * Batch loading MMS sender for the messages in current batch
+     * Batch loading MMS sender for the messages in current batch. The recipients of the threads
+     * are already in the cache, so only the senders of group messages need a query, which are
+     * made on the sync worker pool for each window of {@link MmsUtils#MAX_IDS_PER_QUERY}
+     * messages.
      */
     private void setMmsSenders(final LongSparseArray<MmsMessage> mmses,
-            final ThreadInfoCache cache) {
-        // Store all the MMS messages
-        for (int i = 0; i < mmses.size(); i++) {
+            final ThreadInfoCache cache) throws Exception {
+        final int totalIds = mmses.size();
+        final ArrayList<Callable<Void>> tasks = new ArrayList<>();
+        for (int start = 0; start < totalIds; start += MmsUtils.MAX_IDS_PER_QUERY) {
+            final int end = Math.min(start + MmsUtils.MAX_IDS_PER_QUERY, totalIds); //excluding
+            final int windowStart = start;
+            tasks.add(() -> {
+                setMmsSenders(mmses, windowStart, end, cache);
+                return null;
+            });
+        }
+        runOnSyncWorkers(tasks);
+    }
+
+    /**
+     * Set the senders of the MMS messages at [start, end) of the batch
+     */
+    private void setMmsSenders(final LongSparseArray<MmsMessage> mmses, final int start,
+            final int end, final ThreadInfoCache cache) {
+        for (int i = start; i < end; i++) {
             final MmsMessage mms = mmses.valueAt(i);
 
             final boolean isOutgoing = mms.mType != Mms.MESSAGE_BOX_INBOX;
@@ -584,6 +651,29 @@ public class SyncMessagesAction extends Action implements Parcelable {
         }
     }
 
+    /**
+     * Run the tasks on the sync worker pool and wait for all of them, rethrowing the first
+     * failure. A single task is run inline.
+     */
+    private static void runOnSyncWorkers(final List<Callable<Void>> tasks) throws Exception {
+        if (tasks.size() == 1) {
+            tasks.get(0).call();
+            return;
+        }
+        final List<Future<Void>> results = SYNC_WORKER_EXECUTOR.invokeAll(tasks);
+        for (final Future<Void> result : results) {
+            try {
+                result.get();
+            } catch (final ExecutionException e) {
+                final Throwable cause = e.getCause();
+                if (cause instanceof Exception) {
+                    throw (Exception) cause;
+                }
+                throw e;
+            }
+        }
+    }
+
     /**
      * Find out the sender of an MMS message
      */
@@ -28,17 +28,46 @@ import com.android.messaging.datamodel.BugleNotifications;
  * made since the notification was first posted).
  */
 public class UpdateMessageNotificationAction extends Action {
+    private static final String KEY_SILENT = "silent";
+    private static final String KEY_CONVERSATION_ID = "conversation_id";
 
     public static void updateMessageNotification() {
-        new UpdateMessageNotificationAction().start();
+        updateMessageNotification(true /* silent */, null /* conversationId */);
+    }
+
+    /**
+     * Update the message notification
+     *
+     * @param conversationId conversation where a new message was received, if any
+     */
+    public static void updateMessageNotification(final boolean silent,
+            final String conversationId) {
+        final UpdateMessageNotificationAction action = new UpdateMessageNotificationAction();
+        action.actionParameters.putBoolean(KEY_SILENT, silent);
+        action.actionParameters.putString(KEY_CONVERSATION_ID, conversationId);
+        action.start();
     }
 
     private UpdateMessageNotificationAction() {
     }
 
+    @Override
+    protected String getCoalescingKey() {
+        // Notifications are rebuilt from the database, so one pending update covers any number
+        // with the same parameters
+        final String key = UpdateMessageNotificationAction.class.getSimpleName();
+        final String conversationId = actionParameters.getString(KEY_CONVERSATION_ID);
+        if (actionParameters.getBoolean(KEY_SILENT, true) && conversationId == null) {
+            return key;
+        }
+        return key + ":" + actionParameters.getBoolean(KEY_SILENT, true) + ":" + conversationId;
+    }
+
     @Override
     protected Object executeAction() {
-        BugleNotifications.update(true /* silent */, BugleNotifications.UPDATE_MESSAGES);
+        BugleNotifications.update(actionParameters.getBoolean(KEY_SILENT, true),
+                actionParameters.getString(KEY_CONVERSATION_ID),
+                BugleNotifications.UPDATE_MESSAGES);
         return null;
     }
 
@@ -57,6 +57,12 @@ public class UpdateMessagePartSizeAction extends Action implements Parcelable {
         actionParameters.putInt(KEY_HEIGHT, height);
     }
 
+    @Override
+    protected boolean runsInProcess() {
+        // The size is measured again the next time the part is loaded
+        return true;
+    }
+
     @Override
     protected Object executeAction() {
         final String partId = actionParameters.getString(KEY_PART_ID);
@@ -78,7 +78,6 @@ public class WriteDraftMessageAction extends Action implements Parcelable {
         // Drafts are only kept in the local DB...
         final String messageId = BugleDatabaseOperations.updateDraftMessageData(
                 db, conversationId, message, BugleDatabaseOperations.UPDATE_MODE_ADD_DRAFT);
-        MessagingContentProvider.notifyConversationListChanged();
         MessagingContentProvider.notifyConversationMetadataChanged(conversationId);
         return messageId;
     }
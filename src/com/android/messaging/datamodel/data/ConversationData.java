@@ -63,6 +63,9 @@ public class ConversationData extends BindableData {
     private static final String BINDING_ID = "bindingId";
     private static final long LAST_MESSAGE_TIMESTAMP_NaN = -1;
     private static final int MESSAGE_COUNT_NaN = -1;
+    private static final long WINDOW_START_NaN = -1;
+    // Number of messages loaded when the conversation is opened and on each loadOlderMessages
+    private static final int MESSAGES_PAGE_SIZE = 200;
 
     public interface ConversationDataListener {
         void onConversationMessagesCursorUpdated(ConversationData data, Cursor cursor,
@@ -217,12 +220,16 @@ public class ConversationData extends BindableData {
             final String bindingId = args.getString(BINDING_ID);
             // Check if data still bound to the requesting ui element
             if (isBound(bindingId)) {
-                final Uri uri =
-                        MessagingContentProvider.buildConversationMessagesUri(mConversationId);
+                // Start with the newest page of messages; older ones are loaded on demand
+                final Uri uri = MessagingContentProvider.buildConversationMessagesUri(
+                        mConversationId, WINDOW_START_NaN, MESSAGES_PAGE_SIZE);
                 loader = new BoundCursorLoader(bindingId, mContext, uri,
                         ConversationMessageData.getProjection(), null, null, null);
                 mLastMessageTimestamp = LAST_MESSAGE_TIMESTAMP_NaN;
                 mMessageCount = MESSAGE_COUNT_NaN;
+                mWindowStart = WINDOW_START_NaN;
+                mOlderMessageCount = 0;
+                mLoadingOlderMessages = false;
             } else {
                 LogUtil.w(TAG, "Creating messages loader after unbinding mConversationId = " +
                         mConversationId);
@@ -266,9 +273,21 @@ public class ConversationData extends BindableData {
                     } else {
                         mLastMessageTimestamp = LAST_MESSAGE_TIMESTAMP_NaN;
                     }
+
+                    // Pin the start of the window for the reloads caused by later changes, so
+                    // that new messages do not push older ones out of it and the pages loaded
+                    // so far stay loaded. Loading an older page keeps the last message and
+                    // grows the count, so it is handled like a sync by the UI.
+                    final Bundle extras = rawData.getExtras();
+                    mOlderMessageCount = (int) extras.getLong(
+                            MessagingContentProvider.EXTRA_OLDER_MESSAGE_COUNT);
+                    mWindowStart = mOlderMessageCount > 0 ? getFirstMessageTimestamp(data) : 0;
+                    loader.setUri(MessagingContentProvider.buildConversationMessagesUri(
+                            mConversationId, mWindowStart, 0 /* pageSize */));
                 } else {
                     mMessageCount = MESSAGE_COUNT_NaN;
                 }
+                mLoadingOlderMessages = false;
 
                 mListeners.onConversationMessagesCursorUpdated(ConversationData.this, data,
                         newMessage, isSync);
@@ -294,6 +313,16 @@ public class ConversationData extends BindableData {
             }
         }
 
+        private long getFirstMessageTimestamp(final Cursor cursor) {
+            if (cursor.moveToFirst()) {
+                final ConversationMessageData messageData = new ConversationMessageData();
+                messageData.bind(cursor);
+                cursor.moveToPosition(-1);
+                return messageData.getReceivedTimeStamp();
+            }
+            return 0;
+        }
+
         private ConversationMessageData getLastMessage(final Cursor cursor) {
             if (cursor != null && cursor.getCount() > 0) {
                 final int position = cursor.getPosition();
@@ -430,6 +459,10 @@ public class ConversationData extends BindableData {
     private long mLastMessageTimestamp = LAST_MESSAGE_TIMESTAMP_NaN;
     private int mMessageCount = MESSAGE_COUNT_NaN;
     private String mLastMessageId;
+    // Received timestamp of the oldest message loaded, or 0 when all messages are loaded
+    private long mWindowStart = WINDOW_START_NaN;
+    private int mOlderMessageCount;
+    private boolean mLoadingOlderMessages;
 
     public ConversationData(final Context context, final ConversationDataListener listener,
             final String conversationId) {
@@ -514,6 +547,35 @@ public class ConversationData extends BindableData {
                 mSelfParticipantLoaderCallbacks);
     }
 
+    /**
+     * @return the number of messages of the conversation older than the ones loaded
+     */
+    public int getOlderMessageCount() {
+        return mOlderMessageCount;
+    }
+
+    /**
+     * Extend the loaded messages by at least a page of older messages. The messages cursor is
+     * updated once they are loaded. Does nothing if an extension is already loading.
+     *
+     * @param minCount the number of older messages needed, or 0 for a single page
+     */
+    @RunsOnMainThread
+    public void loadOlderMessages(final int minCount) {
+        Assert.isMainThread();
+        if (mOlderMessageCount <= 0 || mLoadingOlderMessages || mLoaderManager == null) {
+            return;
+        }
+        final Loader<Cursor> loader = mLoaderManager.getLoader(CONVERSATION_MESSAGES_LOADER);
+        if (loader == null) {
+            return;
+        }
+        mLoadingOlderMessages = true;
+        ((BoundCursorLoader) loader).setUri(MessagingContentProvider.buildConversationMessagesUri(
+                mConversationId, mWindowStart, Math.max(minCount, MESSAGES_PAGE_SIZE)));
+        loader.forceLoad();
+    }
+
     @Override
     protected void unregisterListeners() {
         mListeners.clear();
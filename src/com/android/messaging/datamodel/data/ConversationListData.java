@@ -27,6 +27,7 @@ import androidx.loader.content.Loader;
 
 import com.android.messaging.datamodel.BoundCursorLoader;
 import com.android.messaging.datamodel.BugleNotifications;
+import com.android.messaging.datamodel.ConversationListLoader;
 import com.android.messaging.datamodel.DataModel;
 import com.android.messaging.datamodel.DatabaseHelper.ParticipantColumns;
 import com.android.messaging.datamodel.MessagingContentProvider;
@@ -98,11 +99,9 @@ public class ConversationListData extends BindableData
                             ParticipantColumns.BLOCKED + "=1", null, null);
                     break;
                 case CONVERSATION_LIST_LOADER:
-                    loader = new BoundCursorLoader(bindingId, mContext,
-                            MessagingContentProvider.CONVERSATIONS_URI,
+                    loader = new ConversationListLoader(bindingId, mContext,
                             ConversationListItemData.PROJECTION,
                             mArchivedMode ? WHERE_ARCHIVED : WHERE_NOT_ARCHIVED,
-                            null,       // selection args
                             SORT_ORDER);
                     break;
                 default:
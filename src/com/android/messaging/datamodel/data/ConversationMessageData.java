@@ -30,6 +30,7 @@ import com.android.messaging.datamodel.DatabaseHelper;
 import com.android.messaging.datamodel.DatabaseHelper.MessageColumns;
 import com.android.messaging.datamodel.DatabaseHelper.PartColumns;
 import com.android.messaging.datamodel.DatabaseHelper.ParticipantColumns;
+import com.android.messaging.sms.MmsUtils;
 import com.android.messaging.util.Assert;
 import com.android.messaging.util.BugleGservicesKeys;
 import com.android.messaging.util.Dates;
@@ -90,15 +91,20 @@ public class ConversationMessageData {
         mParticipantId = cursor.getString(INDEX_PARTICIPANT_ID);
         mPartsCount = cursor.getInt(INDEX_PARTS_COUNT);
 
-        mParts = makeParts(
-                cursor.getString(INDEX_PARTS_IDS),
-                cursor.getString(INDEX_PARTS_CONTENT_TYPES),
-                cursor.getString(INDEX_PARTS_CONTENT_URIS),
-                cursor.getString(INDEX_PARTS_WIDTHS),
-                cursor.getString(INDEX_PARTS_HEIGHTS),
-                cursor.getString(INDEX_PARTS_TEXTS),
-                mPartsCount,
-                mMessageId);
+        final ConversationMessagesCursor partsCursor = ConversationMessagesCursor.find(cursor);
+        if (partsCursor != null) {
+            mParts = partsCursor.makeParts(mMessageId);
+        } else {
+            mParts = makeParts(
+                    cursor.getString(INDEX_PARTS_IDS),
+                    cursor.getString(INDEX_PARTS_CONTENT_TYPES),
+                    cursor.getString(INDEX_PARTS_CONTENT_URIS),
+                    cursor.getString(INDEX_PARTS_WIDTHS),
+                    cursor.getString(INDEX_PARTS_HEIGHTS),
+                    cursor.getString(INDEX_PARTS_TEXTS),
+                    mPartsCount,
+                    mMessageId);
+        }
 
         mSentTimestamp = cursor.getLong(INDEX_SENT_TIMESTAMP);
         mReceivedTimestamp = cursor.getLong(INDEX_RECEIVED_TIMESTAMP);
@@ -367,6 +373,32 @@ public class ConversationMessageData {
      * @return the text that is a concatenation of all text parts
      */
     public String getText() {
+        return getText(mParts);
+    }
+
+    /**
+     * @return the id of the message the cursor is at
+     */
+    public static String getMessageId(final Cursor cursor) {
+        return cursor.getString(INDEX_MESSAGE_ID);
+    }
+
+    /**
+     * Get the text of the message the cursor is at without binding the whole message, which is
+     * only possible when its parts are carried by a {@link ConversationMessagesCursor}
+     *
+     * @return the text {@link #getText} returns once the message is bound, or null if it cannot
+     * be read without binding
+     */
+    public static String peekText(final Cursor cursor) {
+        final ConversationMessagesCursor partsCursor = ConversationMessagesCursor.find(cursor);
+        if (partsCursor == null) {
+            return null;
+        }
+        return getText(partsCursor.makeParts(cursor.getString(INDEX_MESSAGE_ID)));
+    }
+
+    private static String getText(final List<MessagePartData> parts) {
         // This is optimized for single text part case, which is the majority
 
         // For single text part, we just return the part without creating the StringBuilder
@@ -375,7 +407,7 @@ public class ConversationMessageData {
         // For multiple text parts, we need the StringBuilder and the separator for concatenation
         StringBuilder sb = null;
         String separator = null;
-        for (final MessagePartData part : mParts) {
+        for (final MessagePartData part : parts) {
             if (part.isText()) {
                 if (!foundText) {
                     // First text part
@@ -611,14 +643,33 @@ public class ConversationMessageData {
 
     // Data definitions
 
+    /**
+     * The conversation messages queries leave the part columns empty; their cursors must be
+     * wrapped by {@link ConversationMessagesCursor#wrap} to carry the parts.
+     */
     public static String getConversationMessagesQuerySql() {
-        return CONVERSATION_MESSAGES_QUERY_SQL
+        return CONVERSATION_MESSAGES_WITHOUT_PARTS_QUERY_SQL
                 + " AND "
                 // Inject the conversation id
                 + DatabaseHelper.MESSAGES_TABLE + "." + MessageColumns.CONVERSATION_ID + "=?)"
                 + CONVERSATION_MESSAGES_QUERY_SQL_GROUP_BY;
     }
 
+    /**
+     * Like {@link #getConversationMessagesQuerySql} but only for the messages received at or
+     * after a timestamp, which is bound after the conversation id
+     */
+    public static String getConversationMessagesWindowQuerySql() {
+        return CONVERSATION_MESSAGES_WITHOUT_PARTS_QUERY_SQL
+                + " AND "
+                // Inject the conversation id
+                + DatabaseHelper.MESSAGES_TABLE + "." + MessageColumns.CONVERSATION_ID + "=?"
+                + " AND "
+                // Inject the start of the window
+                + DatabaseHelper.MESSAGES_TABLE + "." + MessageColumns.RECEIVED_TIMESTAMP + ">=?)"
+                + CONVERSATION_MESSAGES_QUERY_SQL_GROUP_BY;
+    }
+
     static String getConversationMessageIdsQuerySql() {
         return CONVERSATION_MESSAGES_IDS_QUERY_SQL
                 + " AND "
@@ -628,6 +679,14 @@ public class ConversationMessageData {
     }
 
     public static String getNotificationQuerySql() {
+        return getNotificationQuerySql(0);
+    }
+
+    /**
+     * @param conversationCount number of conversation ids bound as arguments that the query is
+     *     restricted to, or 0 for all conversations
+     */
+    public static String getNotificationQuerySql(final int conversationCount) {
         return CONVERSATION_MESSAGES_QUERY_SQL
                 + " AND "
                 + "(" + DatabaseHelper.MessageColumns.STATUS + " in ("
@@ -635,6 +694,9 @@ public class ConversationMessageData {
                 + MessageData.BUGLE_STATUS_INCOMING_YET_TO_MANUAL_DOWNLOAD + ")"
                 + " AND "
                 + DatabaseHelper.MessageColumns.SEEN + " = 0)"
+                + (conversationCount > 0 ? " AND " + DatabaseHelper.MESSAGES_TABLE + "."
+                        + MessageColumns.CONVERSATION_ID + " IN "
+                        + MmsUtils.getSqlInOperand(conversationCount) : "")
                 + ")"
                 + NOTIFICATION_QUERY_SQL_GROUP_BY;
     }
@@ -700,9 +762,10 @@ public class ConversationMessageData {
             + DatabaseHelper.MESSAGES_TABLE + '.' + MessageColumns.CONVERSATION_ID
             + " as " + ConversationMessageViewColumns.CONVERSATION_ID + ", "
             + DatabaseHelper.MESSAGES_TABLE + '.' + MessageColumns.SENDER_PARTICIPANT_ID
-            + " as " + ConversationMessageViewColumns.PARTICIPANT_ID + ", "
+            + " as " + ConversationMessageViewColumns.PARTICIPANT_ID + ", ";
 
-            + makeCaseWhenString(PartColumns._ID, false,
+    private static final String CONVERSATION_MESSAGES_QUERY_PARTS_PROJECTION_SQL =
+            makeCaseWhenString(PartColumns._ID, false,
                     ConversationMessageViewColumns.PARTS_IDS) + ", "
             + makeCaseWhenString(PartColumns.CONTENT_TYPE, true,
                     ConversationMessageViewColumns.PARTS_CONTENT_TYPES) + ", "
@@ -713,9 +776,19 @@ public class ConversationMessageData {
             + makeCaseWhenString(PartColumns.HEIGHT, false,
                     ConversationMessageViewColumns.PARTS_HEIGHTS) + ", "
             + makeCaseWhenString(PartColumns.TEXT, true,
-                    ConversationMessageViewColumns.PARTS_TEXTS) + ", "
-
-            + CONVERSATION_MESSAGE_VIEW_PARTS_COUNT
+                    ConversationMessageViewColumns.PARTS_TEXTS) + ", ";
+
+    // Placeholders for the part columns when the parts are queried separately
+    private static final String CONVERSATION_MESSAGES_QUERY_NO_PARTS_PROJECTION_SQL =
+            "NULL as " + ConversationMessageViewColumns.PARTS_IDS + ", "
+            + "NULL as " + ConversationMessageViewColumns.PARTS_CONTENT_TYPES + ", "
+            + "NULL as " + ConversationMessageViewColumns.PARTS_CONTENT_URIS + ", "
+            + "NULL as " + ConversationMessageViewColumns.PARTS_WIDTHS + ", "
+            + "NULL as " + ConversationMessageViewColumns.PARTS_HEIGHTS + ", "
+            + "NULL as " + ConversationMessageViewColumns.PARTS_TEXTS + ", ";
+
+    private static final String CONVERSATION_MESSAGES_QUERY_MESSAGE_PROJECTION_SQL =
+            CONVERSATION_MESSAGE_VIEW_PARTS_COUNT
             + " as " + ConversationMessageViewColumns.PARTS_COUNT + ", "
 
             + DatabaseHelper.MESSAGES_TABLE + '.' + MessageColumns.SENT_TIMESTAMP
@@ -776,6 +849,14 @@ public class ConversationMessageData {
     // of the messages table. See b/17160946 for more details.
     private static final String CONVERSATION_MESSAGES_QUERY_SQL = "SELECT "
             + CONVERSATION_MESSAGES_QUERY_PROJECTION_SQL
+            + CONVERSATION_MESSAGES_QUERY_PARTS_PROJECTION_SQL
+            + CONVERSATION_MESSAGES_QUERY_MESSAGE_PROJECTION_SQL
+            + CONVERSATION_MESSAGES_QUERY_FROM_WHERE_SQL;
+
+    private static final String CONVERSATION_MESSAGES_WITHOUT_PARTS_QUERY_SQL = "SELECT "
+            + CONVERSATION_MESSAGES_QUERY_PROJECTION_SQL
+            + CONVERSATION_MESSAGES_QUERY_NO_PARTS_PROJECTION_SQL
+            + CONVERSATION_MESSAGES_QUERY_MESSAGE_PROJECTION_SQL
             + CONVERSATION_MESSAGES_QUERY_FROM_WHERE_SQL;
 
     private static final String CONVERSATION_MESSAGE_IDS_PROJECTION_SQL =
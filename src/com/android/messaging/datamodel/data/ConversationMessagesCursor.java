@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2024 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.messaging.datamodel.data;
+
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.net.Uri;
+import android.support.v7.mms.pdu.ContentType;
+import android.text.TextUtils;
+
+import com.android.messaging.datamodel.DatabaseHelper;
+import com.android.messaging.datamodel.DatabaseHelper.MessageColumns;
+import com.android.messaging.datamodel.DatabaseHelper.PartColumns;
+import com.android.messaging.datamodel.DatabaseWrapper;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * A conversation messages cursor that carries the parts of its messages, loaded by a separate
+ * query on the parts table into a table keyed by message id. Binding a message from it looks
+ * its parts up instead of parsing the group-concatenated part columns, which the query of this
+ * cursor leaves empty.
+ */
+public class ConversationMessagesCursor extends CursorWrapper {
+    private static final class Part {
+        final String mPartId;
+        final String mContentType;
+        final Uri mContentUri;
+        final int mWidth;
+        final int mHeight;
+        final String mText;
+
+        Part(final String partId, final String contentType, final Uri contentUri,
+                final int width, final int height, final String text) {
+            mPartId = partId;
+            mContentType = contentType;
+            mContentUri = contentUri;
+            mWidth = width;
+            mHeight = height;
+            mText = text;
+        }
+    }
+
+    private static final String[] PARTS_PROJECTION = {
+        PartColumns.MESSAGE_ID,
+        PartColumns._ID,
+        PartColumns.CONTENT_TYPE,
+        PartColumns.CONTENT_URI,
+        PartColumns.WIDTH,
+        PartColumns.HEIGHT,
+        PartColumns.TEXT,
+    };
+
+    private static final int INDEX_MESSAGE_ID = 0;
+    private static final int INDEX_ID = 1;
+    private static final int INDEX_CONTENT_TYPE = 2;
+    private static final int INDEX_CONTENT_URI = 3;
+    private static final int INDEX_WIDTH = 4;
+    private static final int INDEX_HEIGHT = 5;
+    private static final int INDEX_TEXT = 6;
+
+    // Parts of the messages of a conversation (other than its draft), looked up through the
+    // parts message id index. The conversation id is bound first, then optionally the start of
+    // the window of messages.
+    private static final String PARTS_QUERY_SQL = "SELECT "
+            + TextUtils.join(", ", PARTS_PROJECTION)
+            + " FROM " + DatabaseHelper.PARTS_TABLE
+            + " WHERE " + PartColumns.MESSAGE_ID + " IN (SELECT " + MessageColumns._ID
+            + " FROM " + DatabaseHelper.MESSAGES_TABLE
+            + " WHERE " + MessageColumns.CONVERSATION_ID + "=?"
+            + " AND " + MessageColumns.STATUS + "<>" + MessageData.BUGLE_STATUS_OUTGOING_DRAFT;
+    private static final String PARTS_QUERY_SQL_WINDOW =
+            " AND " + MessageColumns.RECEIVED_TIMESTAMP + ">=?";
+    private static final String PARTS_QUERY_SQL_ORDER_BY =
+            ") ORDER BY " + PartColumns._ID;
+
+    private final HashMap<String, ArrayList<Part>> mPartsByMessageId;
+
+    private ConversationMessagesCursor(final Cursor messagesCursor,
+            final HashMap<String, ArrayList<Part>> partsByMessageId) {
+        super(messagesCursor);
+        mPartsByMessageId = partsByMessageId;
+    }
+
+    /**
+     * Load the parts of the messages of a conversation and attach them to the cursor of those
+     * messages
+     *
+     * @param queryArgs the conversation id, optionally followed by the received timestamp the
+     * messages start at, as bound to the messages query
+     */
+    public static Cursor wrap(final DatabaseWrapper db, final Cursor messagesCursor,
+            final String[] queryArgs) {
+        final String sql = PARTS_QUERY_SQL
+                + (queryArgs.length > 1 ? PARTS_QUERY_SQL_WINDOW : "")
+                + PARTS_QUERY_SQL_ORDER_BY;
+        final HashMap<String, ArrayList<Part>> partsByMessageId =
+                new HashMap<>(messagesCursor.getCount() * 2);
+        try (final Cursor cursor = db.rawQuery(sql, queryArgs)) {
+            while (cursor.moveToNext()) {
+                final String messageId = cursor.getString(INDEX_MESSAGE_ID);
+                ArrayList<Part> parts = partsByMessageId.get(messageId);
+                if (parts == null) {
+                    parts = new ArrayList<>(1);
+                    partsByMessageId.put(messageId, parts);
+                }
+                final String contentType = cursor.getString(INDEX_CONTENT_TYPE);
+                final String contentUri = cursor.getString(INDEX_CONTENT_URI);
+                parts.add(new Part(cursor.getString(INDEX_ID), contentType,
+                        ContentType.isTextType(contentType) || contentUri == null
+                                ? null : Uri.parse(contentUri),
+                        cursor.getInt(INDEX_WIDTH), cursor.getInt(INDEX_HEIGHT),
+                        cursor.getString(INDEX_TEXT)));
+            }
+        }
+        return new ConversationMessagesCursor(messagesCursor, partsByMessageId);
+    }
+
+    /**
+     * @return the cursor carrying the parts of the messages of the given cursor, looking
+     * through any wrapper around it, or null if the parts are in the cursor's columns
+     */
+    static ConversationMessagesCursor find(Cursor cursor) {
+        while (cursor instanceof CursorWrapper) {
+            if (cursor instanceof ConversationMessagesCursor) {
+                return (ConversationMessagesCursor) cursor;
+            }
+            cursor = ((CursorWrapper) cursor).getWrappedCursor();
+        }
+        return null;
+    }
+
+    /**
+     * @return new part data for the parts of the message, in the order they were added
+     */
+    List<MessagePartData> makeParts(final String messageId) {
+        final List<MessagePartData> partDatas = new LinkedList<>();
+        final ArrayList<Part> parts = mPartsByMessageId.get(messageId);
+        if (parts == null) {
+            return partDatas;
+        }
+        for (int i = 0; i < parts.size(); i++) {
+            final Part part = parts.get(i);
+            final MessagePartData partData;
+            if (ContentType.isTextType(part.mContentType)) {
+                partData = MessagePartData.createTextMessagePart(part.mText);
+            } else {
+                partData = MessagePartData.createMediaMessagePart(part.mContentType,
+                        part.mContentUri, part.mWidth, part.mHeight);
+            }
+            partData.updatePartId(part.mPartId);
+            partData.updateMessageId(messageId);
+            partDatas.add(partData);
+        }
+        return partDatas;
+    }
+}
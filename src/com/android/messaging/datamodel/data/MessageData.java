@@ -61,6 +61,7 @@ public class MessageData implements Parcelable {
         MessageColumns.MMS_EXPIRY,
         MessageColumns.RAW_TELEPHONY_STATUS,
         MessageColumns.RETRY_START_TIMESTAMP,
+        MessageColumns.NEXT_RETRY_TIMESTAMP,
     };
 
     private static final int INDEX_ID = 0;
@@ -82,13 +83,14 @@ public class MessageData implements Parcelable {
     private static final int INDEX_MMS_EXPIRY = 16;
     private static final int INDEX_RAW_TELEPHONY_STATUS = 17;
     private static final int INDEX_RETRY_START_TIMESTAMP = 18;
+    private static final int INDEX_NEXT_RETRY_TIMESTAMP = 19;
 
     // SQL statement to insert a "complete" message row (columns based on the projection above).
     private static final String INSERT_MESSAGE_SQL =
             "INSERT INTO " + DatabaseHelper.MESSAGES_TABLE + " ( "
                     + TextUtils.join(", ", Arrays.copyOfRange(sProjection, 1,
-                            INDEX_RETRY_START_TIMESTAMP + 1))
-                    + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+                            INDEX_NEXT_RETRY_TIMESTAMP + 1))
+                    + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
 
     private String mMessageId;
     private String mConversationId;
@@ -110,6 +112,7 @@ public class MessageData implements Parcelable {
     private int mStatus;
     private final ArrayList<MessagePartData> mParts;
     private long mRetryStartTimestamp;
+    private long mNextRetryTimestamp;
 
     // PROTOCOL Values
     public static final int PROTOCOL_UNKNOWN = -1;              // Unknown type
@@ -401,6 +404,7 @@ public class MessageData implements Parcelable {
         mMmsTransactionId = cursor.getString(INDEX_MMS_TRANSACTION_ID);
         mMmsContentLocation = cursor.getString(INDEX_MMS_CONTENT_LOCATION);
         mRetryStartTimestamp = cursor.getLong(INDEX_RETRY_START_TIMESTAMP);
+        mNextRetryTimestamp = cursor.getLong(INDEX_NEXT_RETRY_TIMESTAMP);
     }
 
     /**
@@ -436,6 +440,7 @@ public class MessageData implements Parcelable {
         values.put(MessageColumns.MMS_CONTENT_LOCATION, mMmsContentLocation);
         values.put(MessageColumns.RAW_TELEPHONY_STATUS, mRawStatus);
         values.put(MessageColumns.RETRY_START_TIMESTAMP, mRetryStartTimestamp);
+        values.put(MessageColumns.NEXT_RETRY_TIMESTAMP, mNextRetryTimestamp);
     }
 
     /**
@@ -472,6 +477,7 @@ public class MessageData implements Parcelable {
         }
         insert.bindLong(INDEX_RAW_TELEPHONY_STATUS, mRawStatus);
         insert.bindLong(INDEX_RETRY_START_TIMESTAMP, mRetryStartTimestamp);
+        insert.bindLong(INDEX_NEXT_RETRY_TIMESTAMP, mNextRetryTimestamp);
         return insert;
     }
 
@@ -573,6 +579,18 @@ public class MessageData implements Parcelable {
         return age < maxAgeToRedownload;
     }
 
+    /**
+     * Get when to retry the message next after an attempt failed. Each retry waits as long as
+     * the message has already been retrying, so the delays double, within the initial and max
+     * resend delays.
+     */
+    public final long getNextRetryTimestampAfterFailure(final long now) {
+        final long delayMs = Math.min(Math.max(now - mRetryStartTimestamp,
+                BugleGservicesKeys.INITIAL_MESSAGE_RESEND_DELAY_MS_DEFAULT),
+                BugleGservicesKeys.MAX_MESSAGE_RESEND_DELAY_MS_DEFAULT);
+        return now + delayMs;
+    }
+
     static boolean getShowDownloadMessage(final int status) {
         if (OsUtil.isSecondaryUser()) {
             // Secondary users can't download mms's. Mms's are downloaded by bugle running as the
@@ -659,6 +677,10 @@ public class MessageData implements Parcelable {
         return mRetryStartTimestamp;
     }
 
+    public long getNextRetryTimestamp() {
+        return mNextRetryTimestamp;
+    }
+
     public final String getMessageText() {
         final String separator = System.getProperty("line.separator");
         final StringBuilder text = new StringBuilder();
@@ -785,6 +807,7 @@ public class MessageData implements Parcelable {
     public final void markMessageNotSent(final long timestamp) {
         mSentTimestamp = timestamp;
         mStatus = BUGLE_STATUS_OUTGOING_AWAITING_RETRY;
+        mNextRetryTimestamp = getNextRetryTimestampAfterFailure(timestamp);
     }
 
     public final void updateSizesForImageParts() {
@@ -832,6 +855,7 @@ public class MessageData implements Parcelable {
         mMmsContentLocation = in.readString();
         mRawStatus = in.readInt();
         mRetryStartTimestamp = in.readLong();
+        mNextRetryTimestamp = in.readLong();
 
         // Read parts
         mParts = new ArrayList<>();
@@ -869,6 +893,7 @@ public class MessageData implements Parcelable {
         dest.writeString(mMmsContentLocation);
         dest.writeInt(mRawStatus);
         dest.writeLong(mRetryStartTimestamp);
+        dest.writeLong(mNextRetryTimestamp);
 
         // Write parts
         dest.writeInt(mParts.size());
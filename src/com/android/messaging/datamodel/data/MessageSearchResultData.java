@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2024 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.messaging.datamodel.data;
+
+import android.database.Cursor;
+import android.provider.BaseColumns;
+import android.text.TextUtils;
+
+import com.android.messaging.datamodel.DatabaseHelper;
+import com.android.messaging.datamodel.DatabaseHelper.ConversationColumns;
+import com.android.messaging.datamodel.DatabaseHelper.MessageColumns;
+import com.android.messaging.datamodel.DatabaseHelper.PartColumns;
+
+/**
+ * A message matching a full-text search, as returned by the message search uri of
+ * {@link com.android.messaging.datamodel.MessagingContentProvider}. Each result is a text part
+ * of a message, with a snippet of its text around the matches.
+ */
+public class MessageSearchResultData {
+    // Delimiters of the matched terms in snippets. Control characters, so that they cannot be
+    // confused with the message text.
+    public static final String SNIPPET_MATCH_START = "\u0002";
+    public static final String SNIPPET_MATCH_END = "\u0003";
+    private static final String SNIPPET_ELLIPSIS = "\u2026";
+    // Approximate number of tokens in a snippet
+    private static final int SNIPPET_TOKENS = 12;
+
+    private String mMessageId;
+    private String mPartId;
+    private String mConversationId;
+    private String mConversationName;
+    private long mReceivedTimestamp;
+    private String mSnippet;
+    private int mMatchCount;
+
+    public MessageSearchResultData() {
+    }
+
+    public void bind(final Cursor cursor) {
+        mMessageId = cursor.getString(INDEX_MESSAGE_ID);
+        mPartId = cursor.getString(INDEX_PART_ID);
+        mConversationId = cursor.getString(INDEX_CONVERSATION_ID);
+        mConversationName = cursor.getString(INDEX_CONVERSATION_NAME);
+        mReceivedTimestamp = cursor.getLong(INDEX_RECEIVED_TIMESTAMP);
+        mSnippet = cursor.getString(INDEX_SNIPPET);
+        mMatchCount = cursor.getInt(INDEX_MATCH_COUNT);
+    }
+
+    public String getMessageId() {
+        return mMessageId;
+    }
+
+    public String getPartId() {
+        return mPartId;
+    }
+
+    public String getConversationId() {
+        return mConversationId;
+    }
+
+    public String getConversationName() {
+        return mConversationName;
+    }
+
+    public long getReceivedTimestamp() {
+        return mReceivedTimestamp;
+    }
+
+    /**
+     * @return the text around the matches, with each matched term between
+     * {@link #SNIPPET_MATCH_START} and {@link #SNIPPET_MATCH_END}
+     */
+    public String getSnippet() {
+        return mSnippet;
+    }
+
+    public int getMatchCount() {
+        return mMatchCount;
+    }
+
+    /**
+     * Turn what the user typed into a full-text query that matches the messages containing all
+     * its words, the last one as a prefix so that results show up while typing. Every word is
+     * quoted so that the user cannot write query syntax by accident.
+     *
+     * @return the query, or null if there is nothing to search for
+     */
+    public static String buildMatchQuery(final String userQuery) {
+        if (userQuery == null) {
+            return null;
+        }
+        final String[] words = userQuery.replace('"', ' ').trim().split("\\s+");
+        final StringBuilder query = new StringBuilder();
+        for (int i = 0; i < words.length; i++) {
+            if (TextUtils.isEmpty(words[i])) {
+                continue;
+            }
+            if (query.length() > 0) {
+                query.append(' ');
+            }
+            query.append('"').append(words[i]);
+            if (i == words.length - 1) {
+                query.append('*');
+            }
+            query.append('"');
+        }
+        return query.length() > 0 ? query.toString() : null;
+    }
+
+    /**
+     * @return the search query, which binds the full-text query, then the number of results
+     * and the number of results to skip
+     */
+    public static String getSearchQuerySql() {
+        return SEARCH_QUERY_SQL;
+    }
+
+    public static String[] getProjection() {
+        return sProjection;
+    }
+
+    public interface MessageSearchResultColumns extends BaseColumns {
+        String _ID = MessageColumns._ID;
+        String PART_ID = "part_id";
+        String CONVERSATION_ID = MessageColumns.CONVERSATION_ID;
+        String CONVERSATION_NAME = "conversation_name";
+        String RECEIVED_TIMESTAMP = MessageColumns.RECEIVED_TIMESTAMP;
+        String SNIPPET = "snippet";
+        String MATCH_COUNT = "match_count";
+    }
+
+    private static final String[] sProjection = {
+        MessageSearchResultColumns._ID,
+        MessageSearchResultColumns.PART_ID,
+        MessageSearchResultColumns.CONVERSATION_ID,
+        MessageSearchResultColumns.CONVERSATION_NAME,
+        MessageSearchResultColumns.RECEIVED_TIMESTAMP,
+        MessageSearchResultColumns.SNIPPET,
+        MessageSearchResultColumns.MATCH_COUNT,
+    };
+
+    private static final int INDEX_MESSAGE_ID = 0;
+    private static final int INDEX_PART_ID = 1;
+    private static final int INDEX_CONVERSATION_ID = 2;
+    private static final int INDEX_CONVERSATION_NAME = 3;
+    private static final int INDEX_RECEIVED_TIMESTAMP = 4;
+    private static final int INDEX_SNIPPET = 5;
+    private static final int INDEX_MATCH_COUNT = 6;
+
+    // offsets() returns four integers for each matched term, separated by spaces, so the number
+    // of matches can be counted from its length without a custom ranking function
+    private static final String MATCH_COUNT_SQL =
+            "((length(offsets(" + DatabaseHelper.PARTS_FTS_TABLE + ")) - length(replace(offsets("
+            + DatabaseHelper.PARTS_FTS_TABLE + "), ' ', '')) + 1) / 4)";
+
+    // Results are ranked by the number of matched terms, then by recency. Drafts are excluded.
+    private static final String SEARCH_QUERY_SQL = "SELECT "
+            + DatabaseHelper.MESSAGES_TABLE + '.' + MessageColumns._ID
+            + " as " + MessageSearchResultColumns._ID + ", "
+            + DatabaseHelper.PARTS_TABLE + '.' + PartColumns._ID
+            + " as " + MessageSearchResultColumns.PART_ID + ", "
+            + DatabaseHelper.MESSAGES_TABLE + '.' + MessageColumns.CONVERSATION_ID
+            + " as " + MessageSearchResultColumns.CONVERSATION_ID + ", "
+            + DatabaseHelper.CONVERSATIONS_TABLE + '.' + ConversationColumns.NAME
+            + " as " + MessageSearchResultColumns.CONVERSATION_NAME + ", "
+            + DatabaseHelper.MESSAGES_TABLE + '.' + MessageColumns.RECEIVED_TIMESTAMP
+            + " as " + MessageSearchResultColumns.RECEIVED_TIMESTAMP + ", "
+            + "snippet(" + DatabaseHelper.PARTS_FTS_TABLE + ", '" + SNIPPET_MATCH_START + "', '"
+            + SNIPPET_MATCH_END + "', '" + SNIPPET_ELLIPSIS + "', -1, " + SNIPPET_TOKENS + ")"
+            + " as " + MessageSearchResultColumns.SNIPPET + ", "
+            + MATCH_COUNT_SQL + " as " + MessageSearchResultColumns.MATCH_COUNT
+            + " FROM " + DatabaseHelper.PARTS_FTS_TABLE
+            + " JOIN " + DatabaseHelper.PARTS_TABLE + " ON ("
+            + DatabaseHelper.PARTS_TABLE + '.' + PartColumns._ID + "="
+            + DatabaseHelper.PARTS_FTS_TABLE + ".docid)"
+            + " JOIN " + DatabaseHelper.MESSAGES_TABLE + " ON ("
+            + DatabaseHelper.MESSAGES_TABLE + '.' + MessageColumns._ID + "="
+            + DatabaseHelper.PARTS_TABLE + '.' + PartColumns.MESSAGE_ID + ")"
+            + " JOIN " + DatabaseHelper.CONVERSATIONS_TABLE + " ON ("
+            + DatabaseHelper.CONVERSATIONS_TABLE + '.' + ConversationColumns._ID + "="
+            + DatabaseHelper.MESSAGES_TABLE + '.' + MessageColumns.CONVERSATION_ID + ")"
+            + " WHERE " + DatabaseHelper.PARTS_FTS_TABLE + " MATCH ?"
+            + " AND " + DatabaseHelper.MESSAGES_TABLE + '.' + MessageColumns.STATUS
+            + "<>" + MessageData.BUGLE_STATUS_OUTGOING_DRAFT
+            + " ORDER BY " + MessageSearchResultColumns.MATCH_COUNT + " DESC, "
+            + DatabaseHelper.MESSAGES_TABLE + '.' + MessageColumns.RECEIVED_TIMESTAMP + " DESC"
+            + " LIMIT ? OFFSET ?";
+}
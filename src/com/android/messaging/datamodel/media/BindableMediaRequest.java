@@ -28,6 +28,8 @@ public abstract class BindableMediaRequest<T extends RefCountedMediaResource>
         extends BindableOnceData
         implements MediaRequest<T>, MediaResourceLoadListener<T> {
     private MediaResourceLoadListener<T> mListener;
+    // The queued task that will load this request, until it starts
+    private volatile Runnable mPendingLoadingTask;
 
     public BindableMediaRequest(final MediaResourceLoadListener<T> listener) {
         mListener = listener;
@@ -56,8 +58,25 @@ public abstract class BindableMediaRequest<T extends RefCountedMediaResource>
         }
     }
 
+    void setPendingLoadingTask(final Runnable task) {
+        mPendingLoadingTask = task;
+    }
+
+    Runnable getPendingLoadingTask() {
+        return mPendingLoadingTask;
+    }
+
+    /**
+     * Also drops the loading task if it hasn't started, so that it doesn't hold up the requests
+     * of the views that are still bound.
+     */
     @Override
     protected void unregisterListeners() {
         mListener = null;
+        final Runnable task = mPendingLoadingTask;
+        if (task != null) {
+            mPendingLoadingTask = null;
+            MediaResourceManager.cancelMediaLoadingTask(task);
+        }
     }
 }
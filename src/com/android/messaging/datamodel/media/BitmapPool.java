@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2024 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.messaging.datamodel.media;
+
+import android.graphics.Bitmap;
+import android.util.SparseArray;
+
+import com.android.messaging.datamodel.MemoryCacheManager;
+import com.android.messaging.datamodel.MemoryCacheManager.MemoryCache;
+
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+
+/**
+ * Process-wide pool of mutable bitmaps that are no longer part of any image resource, such as
+ * the bitmaps of images evicted from a {@link PoolableImageCache}. It has its own byte budget,
+ * independent of the image caches' sizes, and drops the oldest bitmaps beyond it.
+ *
+ * Bitmaps are grouped by size class (allocation size rounded up to a power of two) and any
+ * bitmap with a large enough allocation can be handed out and reconfigured to the requested
+ * dimensions, so images of slightly different sizes can share bitmaps.
+ *
+ * It also keeps the reuse statistics of all the {@link PoolableImageCache} bitmap pools.
+ */
+public class BitmapPool implements MemoryCache {
+    private static final int MAX_POOL_SIZE_BYTES = 1024 * 1024 * 4;   // 4MB
+    private static final int BYTES_PER_PIXEL = 4;   // ARGB_8888
+
+    private static BitmapPool sInstance;
+
+    // Size class to the pooled bitmaps of that class
+    private final SparseArray<ArrayDeque<Bitmap>> mBitmapsBySizeClass = new SparseArray<>();
+    // All pooled bitmaps, oldest first
+    private final ArrayDeque<Bitmap> mBitmaps = new ArrayDeque<>();
+    private long mSizeBytes;
+
+    private long mFreeBitmapHitCount;
+    private long mCachedBitmapHitCount;
+    private long mMissCount;
+    private long mEvictionCount;
+
+    public static synchronized BitmapPool get() {
+        if (sInstance == null) {
+            sInstance = new BitmapPool();
+            MemoryCacheManager.get().registerMemoryCache(sInstance);
+        }
+        return sInstance;
+    }
+
+    private BitmapPool() {
+    }
+
+    /**
+     * @return the size class that bitmaps of the given allocation size are pooled under
+     */
+    static int getSizeClass(final int byteCount) {
+        return byteCount <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(byteCount - 1);
+    }
+
+    /**
+     * @return the allocation size an ARGB_8888 bitmap of the given dimensions needs
+     */
+    static int getByteCount(final int width, final int height) {
+        return width * height * BYTES_PER_PIXEL;
+    }
+
+    /**
+     * Takes a bitmap that can hold an image of the given dimensions out of the pool. Only the
+     * size class of the request and the one above are searched, so a bitmap is never more than
+     * about four times as big as needed.
+     * @return a bitmap reconfigured to the given dimensions, or null if none fits
+     */
+    synchronized Bitmap acquire(final int width, final int height) {
+        final int byteCount = getByteCount(width, height);
+        final int sizeClass = getSizeClass(byteCount);
+        for (int i = sizeClass; i <= sizeClass + 1; i++) {
+            final ArrayDeque<Bitmap> bitmaps = mBitmapsBySizeClass.get(i);
+            if (bitmaps == null) {
+                continue;
+            }
+            for (final Bitmap bitmap : bitmaps) {
+                if (bitmap.getAllocationByteCount() >= byteCount) {
+                    bitmaps.remove(bitmap);
+                    mBitmaps.remove(bitmap);
+                    mSizeBytes -= bitmap.getAllocationByteCount();
+                    bitmap.reconfigure(width, height, Bitmap.Config.ARGB_8888);
+                    mFreeBitmapHitCount++;
+                    return bitmap;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Hands a bitmap over to the pool. The caller must not use it afterwards.
+     */
+    synchronized void release(final Bitmap bitmap) {
+        if (bitmap.isRecycled()) {
+            return;
+        }
+        final int byteCount = bitmap.getAllocationByteCount();
+        if (!bitmap.isMutable() || byteCount > MAX_POOL_SIZE_BYTES) {
+            bitmap.recycle();
+            return;
+        }
+        final int sizeClass = getSizeClass(byteCount);
+        ArrayDeque<Bitmap> bitmaps = mBitmapsBySizeClass.get(sizeClass);
+        if (bitmaps == null) {
+            bitmaps = new ArrayDeque<>();
+            mBitmapsBySizeClass.put(sizeClass, bitmaps);
+        }
+        bitmaps.addLast(bitmap);
+        mBitmaps.addLast(bitmap);
+        mSizeBytes += byteCount;
+
+        while (mSizeBytes > MAX_POOL_SIZE_BYTES) {
+            final Bitmap eldest = mBitmaps.removeFirst();
+            mBitmapsBySizeClass.get(getSizeClass(eldest.getAllocationByteCount())).remove(eldest);
+            mSizeBytes -= eldest.getAllocationByteCount();
+            eldest.recycle();
+            mEvictionCount++;
+        }
+    }
+
+    /**
+     * Records that a bitmap was taken from an image still in a cache
+     */
+    synchronized void onCachedBitmapReused() {
+        mCachedBitmapHitCount++;
+    }
+
+    /**
+     * Records that no bitmap could be reused and a new one is needed
+     */
+    synchronized void onReuseMissed() {
+        mMissCount++;
+    }
+
+    @Override
+    public synchronized void reclaim() {
+        for (final Bitmap bitmap : mBitmaps) {
+            bitmap.recycle();
+        }
+        mBitmaps.clear();
+        mBitmapsBySizeClass.clear();
+        mSizeBytes = 0;
+    }
+
+    /**
+     * Print the pool's size and reuse statistics
+     */
+    public synchronized void dump(final PrintWriter writer) {
+        writer.println("Bitmap pool:");
+        writer.println("  pooled: " + mBitmaps.size() + " bitmaps, " + (mSizeBytes / 1024)
+                + " of " + (MAX_POOL_SIZE_BYTES / 1024) + " KB");
+        writer.println("  hits: " + mFreeBitmapHitCount + " pooled, " + mCachedBitmapHitCount
+                + " from caches; misses: " + mMissCount + "; evictions: " + mEvictionCount);
+    }
+}
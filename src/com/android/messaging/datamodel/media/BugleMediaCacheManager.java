@@ -15,8 +15,15 @@
  */
 package com.android.messaging.datamodel.media;
 
+import android.text.format.DateUtils;
+
+import com.android.messaging.Factory;
+import com.android.messaging.sms.MmsUtils;
 import com.android.messaging.util.Assert;
 
+import java.io.File;
+import java.util.Collection;
+
 /**
  * An implementation of {@link MediaCacheManager} that creates caches specific to Bugle's needs.
  *
@@ -29,18 +36,43 @@ public class BugleMediaCacheManager extends MediaCacheManager {
     public static final int AVATAR_IMAGE_CACHE = 2;
     public static final int VCARD_CACHE = 3;
 
-    // VCard cache size - we compute the size by count, not by bytes.
-    private static final int VCARD_CACHE_SIZE = 5;
+    // VCard cache size in kilobytes of the information kept for the contacts, so that a vCard
+    // with many contacts takes the room of several small ones
+    private static final int VCARD_CACHE_SIZE = 256;
     private static final int SHARED_IMAGE_CACHE_SIZE = 1024 * 10;   // 10MB
 
+    // Disk caches below the image caches, in bytes
+    private static final long IMAGE_DISK_CACHE_SIZE = 1024 * 1024 * 20;   // 20MB
+    private static final long AVATAR_DISK_CACHE_SIZE = 1024 * 1024 * 5;   // 5MB
+    // The photo uris of participants carry the ids of the photo, so a replaced contact photo
+    // gets a new avatar uri. The max age only backs that up, for a photo replaced in place.
+    private static final long AVATAR_DISK_CACHE_MAX_AGE_MILLIS = DateUtils.DAY_IN_MILLIS;
+    // Only telephony MMS parts are kept on disk: their content never changes, unlike drafts and
+    // scratch space files, and they are all removed through the deletion of their message
+    private static final String IMAGE_DISK_CACHE_SOURCE_PREFIX =
+            MmsUtils.MMS_PART_CONTENT_URI + "/";
+    private static final String DISK_CACHE_DIR = "media_cache";
+
+    // The disk caches outlive the memory caches, which are recreated after being reclaimed.
+    // Guarded by this, which is also the lock of getOrCreateMediaCacheById().
+    private ImageDiskCache mImageDiskCache;
+    private ImageDiskCache mAvatarDiskCache;
+
     @Override
     protected MediaCache<?> createMediaCacheById(final int id) {
         switch (id) {
             case DEFAULT_IMAGE_CACHE:
-                return new PoolableImageCache(SHARED_IMAGE_CACHE_SIZE, id, "DefaultImageCache");
+                return new PoolableImageCache(SHARED_IMAGE_CACHE_SIZE, id, "DefaultImageCache",
+                        getImageDiskCache());
 
             case AVATAR_IMAGE_CACHE:
-                return new PoolableImageCache(id, "AvatarImageCache");
+                if (mAvatarDiskCache == null) {
+                    mAvatarDiskCache = new ImageDiskCache(getDiskCacheDir("avatars"),
+                            AVATAR_DISK_CACHE_SIZE, AVATAR_DISK_CACHE_MAX_AGE_MILLIS,
+                            null /* sourcePrefix */);
+                }
+                return new PoolableImageCache(DEFAULT_MEDIA_RESOURCE_CACHE_SIZE_IN_KILOBYTES, id,
+                        "AvatarImageCache", mAvatarDiskCache);
 
             case VCARD_CACHE:
                 return new MediaCache<VCardResource>(VCARD_CACHE_SIZE, id, "VCardCache");
@@ -51,4 +83,24 @@ public class BugleMediaCacheManager extends MediaCacheManager {
         }
         return null;
     }
+
+    @Override
+    public void removeSourcesFromDiskCaches(final Collection<String> sources) {
+        // The files may be left by a previous process, so the cache is needed even if no image
+        // was loaded yet
+        getImageDiskCache().removeSources(sources);
+    }
+
+    private synchronized ImageDiskCache getImageDiskCache() {
+        if (mImageDiskCache == null) {
+            mImageDiskCache = new ImageDiskCache(getDiskCacheDir("images"),
+                    IMAGE_DISK_CACHE_SIZE, 0 /* maxAgeMillis */, IMAGE_DISK_CACHE_SOURCE_PREFIX);
+        }
+        return mImageDiskCache;
+    }
+
+    private static File getDiskCacheDir(final String name) {
+        return new File(new File(Factory.get().getApplicationContext().getCacheDir(),
+                DISK_CACHE_DIR), name);
+    }
 }
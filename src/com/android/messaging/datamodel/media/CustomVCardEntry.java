@@ -39,7 +39,11 @@ public class CustomVCardEntry extends VCardEntry {
     @Override
     public void addProperty(VCardProperty property) {
         super.addProperty(property);
-        mAllProperties.put(property.getName(), property);
+        // Binary properties such as photos are already kept by VCardEntry, don't hold their
+        // bytes twice
+        if (property.getByteValue() == null) {
+            mAllProperties.put(property.getName(), property);
+        }
     }
 
     public VCardProperty getProperty(String name) {
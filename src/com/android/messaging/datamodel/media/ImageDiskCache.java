@@ -0,0 +1,303 @@
+/*
+ * Copyright (C) 2024 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.messaging.datamodel.media;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import com.android.messaging.util.Assert.DoesNotRunOnMainThread;
+import com.android.messaging.util.LogUtil;
+import com.google.common.hash.Hashing;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A size-bounded LRU cache of compressed images in a directory, used as the second level below
+ * a {@link PoolableImageCache} so that thumbnails and avatars survive process death.
+ *
+ * Each file holds one image resource as it was loaded for a request: the compressed bytes of an
+ * {@link EncodedImageResource}, or a {@link DecodedImageResource}'s bitmap (already scaled and
+ * cropped for the request) compressed by this class. Files are named after hashes of the source
+ * uri and of the request key, so that all the images of a source can be removed when it is
+ * deleted, and store the key itself to rule out collisions. Recency is kept in the files'
+ * modification time, so the eviction order carries over to the next process.
+ *
+ * Entries are not checked against their source when they are loaded, so a cache for sources
+ * whose content can change under the same uri needs a maximum age.
+ */
+public class ImageDiskCache {
+    private static final String TAG = LogUtil.BUGLE_IMAGE_TAG;
+
+    private static final int MAGIC = 0x42494d47;
+    private static final int VERSION = 2;
+    private static final int JPEG_QUALITY = 90;
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final char SOURCE_SEPARATOR = '_';
+    // Images too big for this many of them to fit are not stored
+    private static final int MIN_ENTRIES = 8;
+
+    private final File mDirectory;
+    private final long mMaxSizeBytes;
+    private final long mMaxAgeMillis;
+    private final String mSourcePrefix;
+
+    // File name to file length, in access order. Loaded from the directory on first use.
+    private LinkedHashMap<String, Long> mIndex;
+    private long mSizeBytes;
+
+    /**
+     * @param directory directory holding the cache files, created if needed
+     * @param maxSizeBytes total size of the files above which least recently used ones are
+     * deleted
+     * @param maxAgeMillis age after which an entry is no longer used, or 0 to keep entries for
+     * as long as they fit. Needed for images whose source can change under the same key.
+     * @param sourcePrefix prefix of the source uris whose images are stored, or null for any
+     */
+    public ImageDiskCache(final File directory, final long maxSizeBytes,
+            final long maxAgeMillis, final String sourcePrefix) {
+        mDirectory = directory;
+        mMaxSizeBytes = maxSizeBytes;
+        mMaxAgeMillis = maxAgeMillis;
+        mSourcePrefix = sourcePrefix;
+    }
+
+    /**
+     * @return whether images of the source uri are kept in this cache
+     */
+    public boolean isSourceCached(final String source) {
+        return source != null && (mSourcePrefix == null || source.startsWith(mSourcePrefix));
+    }
+
+    /**
+     * Loads the image stored for the key.
+     * @param source uri of the source of the image
+     * @return a new resource without any ref, or null on a miss
+     */
+    @DoesNotRunOnMainThread
+    public ImageResource load(final String key, final String source) {
+        if (!isSourceCached(source)) {
+            return null;
+        }
+        final String fileName = getFileName(key, source);
+        synchronized (this) {
+            if (!ensureIndexLoaded() || mIndex.get(fileName) == null) {
+                return null;
+            }
+        }
+        final File file = new File(mDirectory, fileName);
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || !key.equals(in.readUTF())) {
+                remove(fileName);
+                return null;
+            }
+            final long createdMillis = in.readLong();
+            if (mMaxAgeMillis > 0 && System.currentTimeMillis() - createdMillis > mMaxAgeMillis) {
+                remove(fileName);
+                return null;
+            }
+            final int orientation = in.readInt();
+            final boolean encoded = in.readBoolean();
+            final byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+
+            file.setLastModified(System.currentTimeMillis());
+            if (encoded) {
+                return new EncodedImageResource(key, bytes, orientation);
+            }
+            final Bitmap bitmap = BitmapFactory.decodeByteArray(bytes, 0, bytes.length);
+            if (bitmap == null) {
+                remove(fileName);
+                return null;
+            }
+            return new DecodedImageResource(key, bitmap, orientation);
+        } catch (final IOException e) {
+            LogUtil.w(TAG, "ImageDiskCache: failed to read " + fileName, e);
+            remove(fileName);
+            return null;
+        }
+    }
+
+    /**
+     * Stores an image for the key, replacing any previous one. The caller must hold a ref on the
+     * resource for the duration of the call.
+     * @param source uri of the source of the image
+     */
+    @DoesNotRunOnMainThread
+    public void store(final String key, final String source, final ImageResource resource) {
+        if (!isSourceCached(source)) {
+            return;
+        }
+        final byte[] bytes;
+        final boolean encoded = resource.isEncoded();
+        if (encoded) {
+            bytes = resource.getBytes();
+        } else {
+            final Bitmap bitmap = resource.getBitmap();
+            // Full-size images are not worth the space, only scaled ones are kept
+            if (bitmap == null || bitmap.isRecycled()
+                    || bitmap.getByteCount() > mMaxSizeBytes / MIN_ENTRIES) {
+                return;
+            }
+            // Avatars are cropped to a circle, which needs a format that keeps transparency
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            bitmap.compress(bitmap.hasAlpha() ? Bitmap.CompressFormat.PNG
+                    : Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out);
+            bytes = out.toByteArray();
+        }
+        if (bytes == null || bytes.length == 0 || bytes.length > mMaxSizeBytes / MIN_ENTRIES) {
+            return;
+        }
+
+        final String fileName = getFileName(key, source);
+        synchronized (this) {
+            if (!ensureIndexLoaded()) {
+                return;
+            }
+        }
+        final File tempFile = new File(mDirectory, fileName + TEMP_SUFFIX);
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(key);
+            out.writeLong(System.currentTimeMillis());
+            out.writeInt(resource.getOrientation());
+            out.writeBoolean(encoded);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        } catch (final IOException e) {
+            LogUtil.w(TAG, "ImageDiskCache: failed to write " + fileName, e);
+            tempFile.delete();
+            return;
+        }
+
+        synchronized (this) {
+            final File file = new File(mDirectory, fileName);
+            if (!tempFile.renameTo(file)) {
+                tempFile.delete();
+                return;
+            }
+            final Long previousLength = mIndex.put(fileName, file.length());
+            mSizeBytes += file.length() - (previousLength != null ? previousLength : 0);
+            trimToSize();
+        }
+    }
+
+    /**
+     * Removes all the images of the sources, which are being deleted
+     */
+    @DoesNotRunOnMainThread
+    public synchronized void removeSources(final Collection<String> sources) {
+        final HashSet<String> sourceHashes = new HashSet<>();
+        for (final String source : sources) {
+            if (isSourceCached(source)) {
+                sourceHashes.add(hash(source));
+            }
+        }
+        if (sourceHashes.isEmpty() || !ensureIndexLoaded()) {
+            return;
+        }
+        final Iterator<Map.Entry<String, Long>> it = mIndex.entrySet().iterator();
+        while (it.hasNext()) {
+            final Map.Entry<String, Long> entry = it.next();
+            final String fileName = entry.getKey();
+            if (sourceHashes.contains(
+                    fileName.substring(0, fileName.indexOf(SOURCE_SEPARATOR)))) {
+                new File(mDirectory, fileName).delete();
+                mSizeBytes -= entry.getValue();
+                it.remove();
+            }
+        }
+    }
+
+    private synchronized void remove(final String fileName) {
+        if (mIndex == null) {
+            return;
+        }
+        final Long length = mIndex.remove(fileName);
+        if (length != null) {
+            mSizeBytes -= length;
+            new File(mDirectory, fileName).delete();
+        }
+    }
+
+    private void trimToSize() {
+        final Iterator<Map.Entry<String, Long>> it = mIndex.entrySet().iterator();
+        while (mSizeBytes > mMaxSizeBytes && it.hasNext()) {
+            final Map.Entry<String, Long> eldest = it.next();
+            new File(mDirectory, eldest.getKey()).delete();
+            mSizeBytes -= eldest.getValue();
+            it.remove();
+        }
+    }
+
+    /**
+     * Builds the index from the files on disk, least recently used first
+     * @return false if the directory is not usable
+     */
+    private boolean ensureIndexLoaded() {
+        if (mIndex != null) {
+            return true;
+        }
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            LogUtil.w(TAG, "ImageDiskCache: cannot create " + mDirectory);
+            return false;
+        }
+        final File[] files = mDirectory.listFiles();
+        mIndex = new LinkedHashMap<>(16, 0.75f, true);
+        mSizeBytes = 0;
+        if (files != null) {
+            Arrays.sort(files, (lhs, rhs) -> Long.compare(lhs.lastModified(), rhs.lastModified()));
+            for (final File file : files) {
+                if (file.getName().endsWith(TEMP_SUFFIX)
+                        || file.getName().indexOf(SOURCE_SEPARATOR) < 0) {
+                    // Left over from a write interrupted by process death, or from a version
+                    // that did not name files by source
+                    file.delete();
+                    continue;
+                }
+                mIndex.put(file.getName(), file.length());
+                mSizeBytes += file.length();
+            }
+        }
+        trimToSize();
+        return true;
+    }
+
+    private static String getFileName(final String key, final String source) {
+        return hash(source) + SOURCE_SEPARATOR + hash(key);
+    }
+
+    private static String hash(final String value) {
+        return Hashing.sha256().hashString(value, StandardCharsets.UTF_8).toString();
+    }
+}
@@ -15,38 +15,86 @@
  */
 package com.android.messaging.datamodel.media;
 
-import android.util.LruCache;
-
 import com.android.messaging.util.LogUtil;
 
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
- * A modified LruCache that is able to hold RefCountedMediaResource instances. It releases
+ * An LRU cache that is able to hold RefCountedMediaResource instances. It releases
  * ref on the entries as they are evicted from the cache, and it uses the media resource
  * size in kilobytes, instead of the entry count, as the size of the cache.
  *
+ * The entries are spread over a number of independently locked segments so that the media
+ * loading threads don't all contend on one lock. The size limit applies to the cache as a whole,
+ * and eviction picks the least recently used entry among the segments' eldest entries, so
+ * eviction order is the same as a single LRU list would give. Like {@link android.util.LruCache},
+ * {@link #entryRemoved} is called without any lock held.
+ *
  * This class is used by the MediaResourceManager class to maintain a number of caches for
  * holding different types of {@link RefCountedMediaResource}
  */
-public class MediaCache<T extends RefCountedMediaResource> extends LruCache<String, T> {
+public class MediaCache<T extends RefCountedMediaResource> {
     private static final String TAG = LogUtil.BUGLE_IMAGE_TAG;
 
     // Default memory cache size in kilobytes
     protected static final int DEFAULT_MEDIA_RESOURCE_CACHE_SIZE_IN_KILOBYTES = 1024 * 5;  // 5MB
 
+    // Number of segments, must be a power of two
+    private static final int SEGMENT_COUNT = 8;
+
+    private static class Entry<T> {
+        final T mValue;
+        final int mSize;
+        // Value of mClock when the entry was last used
+        long mLastAccess;
+
+        Entry(final T value, final int size, final long lastAccess) {
+            mValue = value;
+            mSize = size;
+            mLastAccess = lastAccess;
+        }
+    }
+
+    private static class Segment<T> {
+        // In access order, so the eldest entry is the least recently used one of the segment
+        final LinkedHashMap<String, Entry<T>> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+        int mHitCount;
+        int mMissCount;
+    }
+
     // Unique identifier for the cache.
     private final int mId;
     // Descriptive name given to the cache for debugging purposes.
     private final String mName;
+    private final int mMaxSize;
+    private final Segment<T>[] mSegments;
+    // Total size of the entries in all segments
+    private final AtomicInteger mSize = new AtomicInteger();
+    // Ticks on every access, to order entries of different segments by recency
+    private final AtomicLong mClock = new AtomicLong();
 
     // Convenience constructor that uses the default cache size.
     public MediaCache(final int id, final String name) {
         this(DEFAULT_MEDIA_RESOURCE_CACHE_SIZE_IN_KILOBYTES, id, name);
     }
 
+    @SuppressWarnings("unchecked")
     public MediaCache(final int maxSize, final int id, final String name) {
-        super(maxSize);
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        mMaxSize = maxSize;
         mId = id;
         mName = name;
+        mSegments = new Segment[SEGMENT_COUNT];
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            mSegments[i] = new Segment<>();
+        }
     }
 
     public void destroy() {
@@ -62,40 +110,166 @@ public class MediaCache<T extends RefCountedMediaResource> extends LruCache<Stri
     }
 
     /**
-     * Gets a media resource from this cache. Must use this method to get resource instead of get()
-     * to ensure addRef() on the resource.
+     * Gets a media resource from this cache, with a ref added for the caller.
      */
-    public synchronized T fetchResourceFromCache(final String key) {
-        final T ret = get(key);
-        if (ret != null) {
-            if (LogUtil.isLoggable(TAG, LogUtil.VERBOSE)) {
-                LogUtil.v(TAG, "cache hit in mediaCache @ " + getName() +
-                        ", total cache hit = " + hitCount() +
-                        ", total cache miss = " + missCount());
+    public T fetchResourceFromCache(final String key) {
+        final Segment<T> segment = segmentFor(key);
+        T ret = null;
+        synchronized (segment) {
+            final Entry<T> entry = segment.mEntries.get(key);
+            if (entry != null) {
+                entry.mLastAccess = mClock.incrementAndGet();
+                ret = entry.mValue;
+                // Add the ref before leaving the segment so that the entry can't be evicted and
+                // released in between
+                ret.addRef();
+                segment.mHitCount++;
+            } else {
+                segment.mMissCount++;
             }
-            ret.addRef();
-        } else if (LogUtil.isLoggable(TAG, LogUtil.VERBOSE)) {
-            LogUtil.v(TAG, "cache miss in mediaCache @ " + getName() +
-                    ", total cache hit = " + hitCount() +
+        }
+        if (LogUtil.isLoggable(TAG, LogUtil.VERBOSE)) {
+            LogUtil.v(TAG, "cache " + (ret != null ? "hit" : "miss") + " in mediaCache @ " +
+                    getName() + ", total cache hit = " + hitCount() +
                     ", total cache miss = " + missCount());
         }
         return ret;
     }
 
     /**
-     * Add a media resource to this cache. Must use this method to add resource instead of put()
-     * to ensure addRef() on the resource.
+     * Add a media resource to this cache. The cache adds its own ref on the resource.
+     * @return the resource previously cached under the key, or null
      */
-    public synchronized T addResourceToCache(final String key, final T mediaResource) {
+    public T addResourceToCache(final String key, final T mediaResource) {
         mediaResource.addRef();
-        return put(key, mediaResource);
+        final Segment<T> segment = segmentFor(key);
+        final Entry<T> entry = new Entry<>(mediaResource, safeSizeOf(key, mediaResource),
+                mClock.incrementAndGet());
+        final Entry<T> previous;
+        synchronized (segment) {
+            previous = segment.mEntries.put(key, entry);
+        }
+        mSize.addAndGet(entry.mSize - (previous != null ? previous.mSize : 0));
+        if (previous != null) {
+            entryRemoved(false, key, previous.mValue, mediaResource);
+        }
+        trimToSize(mMaxSize);
+        return previous != null ? previous.mValue : null;
+    }
+
+    /**
+     * Removes the entry for the key only if it currently holds the given resource.
+     * @return true if the entry was removed
+     */
+    protected boolean remove(final String key, final T mediaResource) {
+        final Segment<T> segment = segmentFor(key);
+        final Entry<T> entry;
+        synchronized (segment) {
+            entry = segment.mEntries.get(key);
+            if (entry == null || entry.mValue != mediaResource) {
+                return false;
+            }
+            segment.mEntries.remove(key);
+        }
+        mSize.addAndGet(-entry.mSize);
+        entryRemoved(false, key, entry.mValue, null);
+        return true;
+    }
+
+    /**
+     * Removes all entries from the cache
+     */
+    public void evictAll() {
+        for (final Segment<T> segment : mSegments) {
+            final ArrayList<Map.Entry<String, Entry<T>>> removed;
+            synchronized (segment) {
+                removed = new ArrayList<>(segment.mEntries.entrySet());
+                segment.mEntries.clear();
+            }
+            for (final Map.Entry<String, Entry<T>> entry : removed) {
+                mSize.addAndGet(-entry.getValue().mSize);
+                entryRemoved(true, entry.getKey(), entry.getValue().mValue, null);
+            }
+        }
+    }
+
+    /**
+     * Evicts least recently used entries until the total size is at most maxSize
+     */
+    private void trimToSize(final int maxSize) {
+        while (mSize.get() > maxSize) {
+            // Find the segment whose eldest entry was used least recently
+            Segment<T> victimSegment = null;
+            long victimAccess = Long.MAX_VALUE;
+            for (final Segment<T> segment : mSegments) {
+                synchronized (segment) {
+                    final Iterator<Entry<T>> it = segment.mEntries.values().iterator();
+                    if (it.hasNext()) {
+                        final long lastAccess = it.next().mLastAccess;
+                        if (lastAccess < victimAccess) {
+                            victimAccess = lastAccess;
+                            victimSegment = segment;
+                        }
+                    }
+                }
+            }
+            if (victimSegment == null) {
+                break;
+            }
+
+            final Map.Entry<String, Entry<T>> victim;
+            synchronized (victimSegment) {
+                final Iterator<Map.Entry<String, Entry<T>>> it =
+                        victimSegment.mEntries.entrySet().iterator();
+                if (!it.hasNext()) {
+                    // Emptied by another thread meanwhile, look again
+                    continue;
+                }
+                victim = it.next();
+                it.remove();
+            }
+            mSize.addAndGet(-victim.getValue().mSize);
+            entryRemoved(true, victim.getKey(), victim.getValue().mValue, null);
+        }
+    }
+
+    private Segment<T> segmentFor(final String key) {
+        final int hash = key.hashCode();
+        return mSegments[(hash ^ (hash >>> 16)) & (SEGMENT_COUNT - 1)];
+    }
+
+    private int safeSizeOf(final String key, final T value) {
+        final int size = sizeOf(key, value);
+        if (size < 0) {
+            throw new IllegalStateException("Negative size: " + key + "=" + value);
+        }
+        return size;
+    }
+
+    public int hitCount() {
+        int count = 0;
+        for (final Segment<T> segment : mSegments) {
+            synchronized (segment) {
+                count += segment.mHitCount;
+            }
+        }
+        return count;
+    }
+
+    public int missCount() {
+        int count = 0;
+        for (final Segment<T> segment : mSegments) {
+            synchronized (segment) {
+                count += segment.mMissCount;
+            }
+        }
+        return count;
     }
 
     /**
      * Notify the removed entry that is no longer being cached
      */
-    @Override
-    protected synchronized void entryRemoved(final boolean evicted, final String key,
+    protected void entryRemoved(final boolean evicted, final String key,
             final T oldValue, final T newValue) {
         oldValue.release();
     }
@@ -104,10 +278,9 @@ public class MediaCache<T extends RefCountedMediaResource> extends LruCache<Stri
      * Measure item size in kilobytes rather than units which is more practical
      * for a media resource cache
      */
-    @Override
     protected int sizeOf(final String key, final T value) {
         final int mediaSizeInKilobytes = value.getMediaSize() / 1024;
         // Never zero-count any resource, count as at least 1KB.
         return mediaSizeInKilobytes == 0 ? 1 : mediaSizeInKilobytes;
     }
-}
\ No newline at end of file
+}
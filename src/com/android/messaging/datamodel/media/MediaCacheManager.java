@@ -23,6 +23,8 @@ import com.android.messaging.datamodel.MemoryCacheManager;
 import com.android.messaging.datamodel.MemoryCacheManager.MemoryCache;
 import com.android.messaging.datamodel.media.PoolableImageCache.ReusableImageResourcePool;
 
+import java.util.Collection;
+
 /**
  * Manages a set of media caches by id.
  */
@@ -66,5 +68,12 @@ public abstract class MediaCacheManager implements MemoryCache {
         return null;
     }
 
+    /**
+     * Removes the images of the given source uris from the caches on disk, if any. Called when
+     * the sources are deleted, so that nothing derived from them is left behind.
+     */
+    public void removeSourcesFromDiskCaches(final Collection<String> sources) {
+    }
+
     protected abstract MediaCache<?> createMediaCacheById(final int id);
 }
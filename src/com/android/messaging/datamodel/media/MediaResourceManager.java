@@ -16,6 +16,7 @@
  */
 package com.android.messaging.datamodel.media;
 
+import android.net.Uri;
 import android.os.Handler;
 import android.os.Looper;
 
@@ -26,13 +27,18 @@ import com.android.messaging.util.LogUtil;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * <p>Loads and maintains a set of in-memory LRU caches for different types of media resources.
- * Right now we don't utilize any disk cache as all media urls are expected to be resolved to
- * local content.<p/>
+ * Image caches may have an {@link ImageDiskCache} below them holding the scaled images, so that
+ * they don't have to be decoded from the full-size originals again after process death.<p/>
  *
  * <p>The MediaResourceManager takes media loading requests through one of two ways:</p>
  *
@@ -95,9 +101,21 @@ public class MediaResourceManager {
         void onMediaResourceLoadError(MediaRequest<T> request, Exception exception);
     }
 
+    /** Priority of requests for media on screen */
+    public static final int PRIORITY_VISIBLE = 0;
+    /** Priority of requests for media likely to come on screen soon */
+    public static final int PRIORITY_PREFETCH = 1;
+    /** Priority of requests nobody is waiting for */
+    public static final int PRIORITY_BACKGROUND = 2;
+
+    private static final int MEDIA_LOADING_THREAD_COUNT = 10;
+
     // We use a fixed thread pool for handling media loading tasks. Using a cached thread pool
     // allows for unlimited thread creation which can lead to OOMs so we limit the threads here.
-    private static final Executor MEDIA_LOADING_EXECUTOR = Executors.newFixedThreadPool(10);
+    // Queued tasks are ordered by MediaLoadingTask, so they can't be submit()ted.
+    private static final ThreadPoolExecutor MEDIA_LOADING_EXECUTOR = new ThreadPoolExecutor(
+            MEDIA_LOADING_THREAD_COUNT, MEDIA_LOADING_THREAD_COUNT, 0L, TimeUnit.MILLISECONDS,
+            new PriorityBlockingQueue<>());
 
     // A dedicated single thread executor for performing background task after loading the resource
     // on the media loading executor. This includes work such as encoding loaded media to be cached.
@@ -110,19 +128,60 @@ public class MediaResourceManager {
                 return encodingThread;
             });
 
+    // Loads currently in progress, keyed by cache id and request key
+    private final ConcurrentHashMap<String, InFlightLoad<?>> mInFlightLoads =
+            new ConcurrentHashMap<>();
+
     /**
      * Requests a media resource asynchronously. Upon completion of the media loading task,
      * the listener will be notified of success/failure iff it's still bound. A refcount on the
      * resource is held and guaranteed for the caller for the duration of the
      * {@link MediaResourceLoadListener#onMediaResourceLoaded(
      * MediaRequest, RefCountedMediaResource, boolean)} callback.
+     * Bindable requests are loaded with {@link #PRIORITY_VISIBLE}, others with
+     * {@link #PRIORITY_BACKGROUND}.
      * @param mediaRequest the media request. May be either an
      * {@link AsyncMediaRequestWrapper} for listening for event callbacks, or a regular media
      * request for fire-and-forget type of behavior.
      */
     public <T extends RefCountedMediaResource> void requestMediaResourceAsync(
             final MediaRequest<T> mediaRequest) {
-        scheduleAsyncMediaRequest(mediaRequest, MEDIA_LOADING_EXECUTOR);
+        requestMediaResourceAsync(mediaRequest,
+                mediaRequest instanceof BindableMediaRequest<?> ?
+                        PRIORITY_VISIBLE : PRIORITY_BACKGROUND);
+    }
+
+    /**
+     * Requests a media resource asynchronously, like
+     * {@link #requestMediaResourceAsync(MediaRequest)}, with the given priority. Requests of
+     * higher priority are started first, and among requests of the same priority the most
+     * recent one is started first, as it is the most likely to still be wanted. A bindable
+     * request that is unbound before it starts is dropped from the queue.
+     * @param priority one of {@link #PRIORITY_VISIBLE}, {@link #PRIORITY_PREFETCH} or
+     * {@link #PRIORITY_BACKGROUND}
+     */
+    public <T extends RefCountedMediaResource> void requestMediaResourceAsync(
+            final MediaRequest<T> mediaRequest, final int priority) {
+        scheduleAsyncMediaRequest(mediaRequest, MEDIA_LOADING_EXECUTOR, priority);
+    }
+
+    /**
+     * Moves a bindable request that is still queued up to {@link #PRIORITY_VISIBLE}, e.g. when
+     * the view it was prefetched for comes on screen.
+     */
+    public <T extends RefCountedMediaResource> void prioritizeMediaRequest(
+            final BindableMediaRequest<T> mediaRequest) {
+        final Runnable task = mediaRequest.getPendingLoadingTask();
+        if (task != null && MEDIA_LOADING_EXECUTOR.remove(task)) {
+            scheduleAsyncMediaRequest(mediaRequest, MEDIA_LOADING_EXECUTOR, PRIORITY_VISIBLE);
+        }
+    }
+
+    /**
+     * Removes a queued loading task that hasn't started yet
+     */
+    static void cancelMediaLoadingTask(final Runnable task) {
+        MEDIA_LOADING_EXECUTOR.remove(task);
     }
 
     /**
@@ -136,7 +195,7 @@ public class MediaResourceManager {
         // Block and load media.
         MediaLoadingResult<T> loadResult = null;
         try {
-            loadResult = processMediaRequestInternal(mediaRequest);
+            loadResult = processMediaRequestInternal(mediaRequest, null /* waiter */);
             // The loaded resource should have at least one refcount by now reserved for the caller.
             Assert.isTrue(loadResult.loadedResource.getRefCount() > 0);
             return loadResult.loadedResource;
@@ -152,9 +211,15 @@ public class MediaResourceManager {
         }
     }
 
+    /**
+     * Loads the media from the caches, or from the request on a miss.
+     * @param waiter if not null and the same media is already being loaded, the waiter is
+     * handed the outcome of that load when it finishes instead of blocking for it
+     * @return the result, or null if the waiter was registered with a load in progress
+     */
     @SuppressWarnings("unchecked")
     private <T extends RefCountedMediaResource> MediaLoadingResult<T> processMediaRequestInternal(
-            final MediaRequest<T> mediaRequest)
+            final MediaRequest<T> mediaRequest, final InFlightLoad.Waiter<T> waiter)
                     throws Exception {
         final List<MediaRequest<T>> chainedRequests = new ArrayList<>();
         T loadedResource;
@@ -162,7 +227,8 @@ public class MediaResourceManager {
         final T cachedResource = loadMediaFromCache(mediaRequest);
         if (cachedResource != null) {
             if (cachedResource.isEncoded()) {
-                // The resource is encoded, issue a decoding request.
+                // The resource is encoded, issue a decoding request. Its result is not stored
+                // on disk, where the encoded resource is already.
                 final MediaRequest<T> decodeRequest = (MediaRequest<T>) cachedResource
                         .getMediaDecodingRequest(mediaRequest);
                 Assert.notNull(decodeRequest);
@@ -174,7 +240,10 @@ public class MediaResourceManager {
             }
         } else {
             // Actually load the media after cache miss.
-            loadedResource = loadMediaFromRequest(mediaRequest, chainedRequests);
+            loadedResource = loadMediaOnce(mediaRequest, chainedRequests, waiter);
+            if (loadedResource == null) {
+                return null;
+            }
         }
         return new MediaLoadingResult<>(loadedResource, cachedResource != null /* fromCache */,
                 chainedRequests);
@@ -188,11 +257,130 @@ public class MediaResourceManager {
         }
         final MediaCache<T> mediaCache = mediaRequest.getMediaCache();
         if (mediaCache != null) {
-            return mediaCache.fetchResourceFromCache(mediaRequest.getKey());
+            final T cachedResource = mediaCache.fetchResourceFromCache(mediaRequest.getKey());
+            if (cachedResource != null) {
+                return cachedResource;
+            }
+            return loadMediaFromDiskCache(mediaRequest, mediaCache);
         }
         return null;
     }
 
+    /**
+     * Looks up the disk cache below the given memory cache, if any, and promotes a hit to the
+     * memory cache.
+     * @return the resource with a ref reserved for the caller, or null on a miss
+     */
+    @SuppressWarnings("unchecked")
+    private <T extends RefCountedMediaResource> T loadMediaFromDiskCache(
+            final MediaRequest<T> mediaRequest, final MediaCache<T> mediaCache) {
+        final ImageDiskCache diskCache = getDiskCache(mediaCache);
+        final String key = mediaRequest.getKey();
+        if (diskCache == null || key == null) {
+            return null;
+        }
+        final ImageResource resource = diskCache.load(key, getDiskCacheSource(mediaRequest));
+        if (resource == null) {
+            return null;
+        }
+        if (LogUtil.isLoggable(TAG, LogUtil.VERBOSE)) {
+            LogUtil.v(TAG, "disk cache hit for " + mediaCache.getName() + ". key=" +
+                    LogUtil.sanitizePII(key) /* key can contain phone# */);
+        }
+        resource.addRef();
+        mediaCache.addResourceToCache(key, (T) resource);
+        return (T) resource;
+    }
+
+    /**
+     * Asynchronously writes a freshly loaded resource to the disk cache below the given memory
+     * cache, if any. Resources decoded from a cached one are not written back.
+     */
+    private <T extends RefCountedMediaResource> void storeMediaInDiskCache(
+            final MediaRequest<T> mediaRequest, final T resource) {
+        if (mediaRequest.getRequestType() == MediaRequest.REQUEST_DECODE_MEDIA) {
+            return;
+        }
+        final ImageDiskCache diskCache = getDiskCache(mediaRequest.getMediaCache());
+        final String key = mediaRequest.getKey();
+        final String source = getDiskCacheSource(mediaRequest);
+        if (diskCache == null || key == null || !diskCache.isSourceCached(source)
+                || !(resource instanceof ImageResource)) {
+            return;
+        }
+        resource.addRef();
+        MEDIA_BACKGROUND_EXECUTOR.execute(() -> {
+            try {
+                diskCache.store(key, source, (ImageResource) resource);
+            } finally {
+                resource.release();
+            }
+        });
+    }
+
+    /**
+     * @return the uri of the source of the requested image, which the disk cache entries are
+     * grouped by, or null if it is not known
+     */
+    private static String getDiskCacheSource(final MediaRequest<?> mediaRequest) {
+        final MediaRequestDescriptor<?> descriptor = mediaRequest.getDescriptor();
+        if (descriptor instanceof UriImageRequestDescriptor) {
+            final Uri uri = ((UriImageRequestDescriptor) descriptor).uri;
+            return uri != null ? uri.toString() : null;
+        }
+        return null;
+    }
+
+    private static ImageDiskCache getDiskCache(final MediaCache<?> mediaCache) {
+        return mediaCache instanceof PoolableImageCache ?
+                ((PoolableImageCache) mediaCache).getDiskCache() : null;
+    }
+
+    /**
+     * Loads the media after a cache miss. If the same media is already being loaded for another
+     * request, shares its resource instead of loading it again: the waiter, if any, is handed
+     * the outcome of that load when it finishes, otherwise this blocks until then.
+     * @return the loaded resource, or null if the waiter was registered
+     */
+    @SuppressWarnings("unchecked")
+    private <T extends RefCountedMediaResource> T loadMediaOnce(
+            final MediaRequest<T> mediaRequest, final List<MediaRequest<T>> chainedRequests,
+            final InFlightLoad.Waiter<T> waiter) throws Exception {
+        final MediaCache<T> mediaCache = mediaRequest.getMediaCache();
+        if (mediaRequest.getRequestType() != MediaRequest.REQUEST_LOAD_MEDIA
+                || mediaCache == null) {
+            return loadMediaFromRequest(mediaRequest, chainedRequests);
+        }
+        final String loadKey = mediaCache.getId() + ":" + mediaRequest.getKey();
+        final InFlightLoad<T> load = new InFlightLoad<>();
+        final InFlightLoad<T> existingLoad =
+                (InFlightLoad<T>) mInFlightLoads.putIfAbsent(loadKey, load);
+        if (existingLoad != null) {
+            if (waiter != null && existingLoad.addWaiter(waiter)) {
+                return null;
+            }
+            final T sharedResource = existingLoad.join();
+            if (sharedResource != null) {
+                return sharedResource;
+            }
+            // The load finished before we could join it, or its resource can't be shared
+            return loadMediaFromRequest(mediaRequest, chainedRequests);
+        }
+
+        T resource = null;
+        Exception exception = null;
+        try {
+            resource = loadMediaFromRequest(mediaRequest, chainedRequests);
+            return resource;
+        } catch (final Exception e) {
+            exception = e;
+            throw e;
+        } finally {
+            mInFlightLoads.remove(loadKey, load);
+            load.complete(resource, exception);
+        }
+    }
+
     private <T extends RefCountedMediaResource> T loadMediaFromRequest(
             final MediaRequest<T> mediaRequest, final List<MediaRequest<T>> chainedRequests)
                     throws Exception {
@@ -210,6 +398,7 @@ public class MediaResourceManager {
         // Don't cache the media request if it is defined as non-cacheable.
         if (resource.isCacheable()) {
             addResourceToMemoryCache(mediaRequest, resource);
+            storeMediaInDiskCache(mediaRequest, resource);
         }
         return resource;
     }
@@ -219,9 +408,10 @@ public class MediaResourceManager {
      * @param mediaRequest the media request to be processed asynchronously. May be either an
      * {@link AsyncMediaRequestWrapper} for listening for event callbacks, or a regular media
      * request for fire-and-forget type of behavior.
+     * @param priority the priority of the request, used if the executor orders its tasks
      */
     private <T extends RefCountedMediaResource> void scheduleAsyncMediaRequest(
-            final MediaRequest<T> mediaRequest, final Executor executor) {
+            final MediaRequest<T> mediaRequest, final Executor executor, final int priority) {
         final BindableMediaRequest<T> bindableRequest =
                 (mediaRequest instanceof BindableMediaRequest<?>) ?
                         (BindableMediaRequest<T>) mediaRequest : null;
@@ -229,45 +419,85 @@ public class MediaResourceManager {
             return; // Request is obsolete
         }
 
-        Handler handler = new Handler(Looper.getMainLooper());
-        executor.execute(() -> {
-            Exception exception = null;
+        final MediaLoadingTask task = new MediaLoadingTask(priority,
+                () -> runAsyncMediaRequest(mediaRequest, bindableRequest, executor, priority));
+        if (bindableRequest != null) {
+            bindableRequest.setPendingLoadingTask(task);
+        }
+        executor.execute(task);
+    }
 
-            MediaLoadingResult<T> tmpResult = null;
-            // Double check the request is still valid by the time we start processing it
-            if (bindableRequest != null && bindableRequest.isBound()) {
-                try {
-                    tmpResult = processMediaRequestInternal(mediaRequest);
-                } catch (Exception e) {
-                    exception = e;
+    /**
+     * Processes an async media request on the executor's thread. If the same media is already
+     * being loaded, the request waits for that load without holding the thread.
+     */
+    private <T extends RefCountedMediaResource> void runAsyncMediaRequest(
+            final MediaRequest<T> mediaRequest, final BindableMediaRequest<T> bindableRequest,
+            final Executor executor, final int priority) {
+        if (bindableRequest != null) {
+            bindableRequest.setPendingLoadingTask(null);
+        }
+        Exception exception = null;
+        MediaLoadingResult<T> result = null;
+        // Double check the request is still valid by the time we start processing it.
+        // Requests that are not bindable, such as chained encoding requests, always are.
+        if (bindableRequest == null || bindableRequest.isBound()) {
+            try {
+                result = processMediaRequestInternal(mediaRequest, (resource, loadException) -> {
+                    if (resource != null || loadException != null) {
+                        postAsyncResult(mediaRequest, bindableRequest, resource != null ?
+                                new MediaLoadingResult<>(resource, false /* fromCache */,
+                                        new ArrayList<>()) : null, loadException);
+                    } else {
+                        // The resource can't be shared, load it again for this request
+                        executor.execute(new MediaLoadingTask(priority, () ->
+                                runAsyncMediaRequest(mediaRequest, bindableRequest, executor,
+                                        priority)));
+                    }
+                });
+                if (result == null) {
+                    // Waiting for the same media being loaded for another request
+                    return;
                 }
+            } catch (Exception e) {
+                exception = e;
             }
+        }
+        postAsyncResult(mediaRequest, bindableRequest, result, exception);
+    }
 
-            final Exception mException = exception;
-            final MediaLoadingResult<T> result = tmpResult;
-            handler.post(() -> {
-                if (result != null) {
-                    Assert.isNull(mException);
-                    Assert.isTrue(result.loadedResource.getRefCount() > 0);
-                    try {
+    /**
+     * Hands the outcome of an async media request to its listener on the main thread
+     */
+    private <T extends RefCountedMediaResource> void postAsyncResult(
+            final MediaRequest<T> mediaRequest, final BindableMediaRequest<T> bindableRequest,
+            final MediaLoadingResult<T> result, final Exception exception) {
+        new Handler(Looper.getMainLooper()).post(() -> {
+            if (result != null) {
+                Assert.isNull(exception);
+                Assert.isTrue(result.loadedResource.getRefCount() > 0);
+                try {
+                    if (bindableRequest != null) {
                         bindableRequest.onMediaResourceLoaded(
                                 bindableRequest, result.loadedResource, result.fromCache);
-                    } finally {
-                        result.loadedResource.release();
-                        result.scheduleChainedRequests();
-                    }
-                } else if (mException != null) {
-                    LogUtil.e(LogUtil.BUGLE_TAG, "Asynchronous media loading failed, key=" +
-                            mediaRequest.getKey(), mException);
-                    bindableRequest.onMediaResourceLoadError(bindableRequest, mException);
-                } else {
-                    Assert.isTrue(bindableRequest == null || !bindableRequest.isBound());
-                    if (LogUtil.isLoggable(TAG, LogUtil.VERBOSE)) {
-                        LogUtil.v(TAG, "media request not processed, no longer bound; key=" +
-                                LogUtil.sanitizePII(mediaRequest.getKey()) /* key with phone# */);
                     }
+                } finally {
+                    result.loadedResource.release();
+                    result.scheduleChainedRequests();
                 }
-            });
+            } else if (exception != null) {
+                LogUtil.e(LogUtil.BUGLE_TAG, "Asynchronous media loading failed, key=" +
+                        mediaRequest.getKey(), exception);
+                if (bindableRequest != null) {
+                    bindableRequest.onMediaResourceLoadError(bindableRequest, exception);
+                }
+            } else {
+                Assert.isTrue(bindableRequest == null || !bindableRequest.isBound());
+                if (LogUtil.isLoggable(TAG, LogUtil.VERBOSE)) {
+                    LogUtil.v(TAG, "media request not processed, no longer bound; key=" +
+                            LogUtil.sanitizePII(mediaRequest.getKey()) /* key with phone# */);
+                }
+            }
         });
     }
 
@@ -285,6 +515,124 @@ public class MediaResourceManager {
         }
     }
 
+    /**
+     * A queued media loading task. Tasks are ordered by priority, then newest first.
+     */
+    private static class MediaLoadingTask implements Runnable, Comparable<MediaLoadingTask> {
+        private static final AtomicLong sSequence = new AtomicLong();
+
+        private final int mPriority;
+        private final long mSequence;
+        private final Runnable mWork;
+
+        MediaLoadingTask(final int priority, final Runnable work) {
+            mPriority = priority;
+            mSequence = sSequence.incrementAndGet();
+            mWork = work;
+        }
+
+        @Override
+        public void run() {
+            mWork.run();
+        }
+
+        @Override
+        public int compareTo(final MediaLoadingTask other) {
+            if (mPriority != other.mPriority) {
+                return Integer.compare(mPriority, other.mPriority);
+            }
+            return Long.compare(other.mSequence, mSequence);
+        }
+    }
+
+    /**
+     * A media load that requests for the same media wait on rather than loading it again
+     */
+    private static class InFlightLoad<T extends RefCountedMediaResource> {
+        /**
+         * Receives the outcome of a load without blocking for it
+         */
+        interface Waiter<T extends RefCountedMediaResource> {
+            /**
+             * Called on the loading thread when the load finishes.
+             * @param resource the loaded resource with a ref reserved for the waiter, or null if
+             * the load failed or its resource is not shareable
+             * @param exception the failure of the load, if any
+             */
+            void onLoadFinished(T resource, Exception exception);
+        }
+
+        private int mWaiterCount;
+        private final ArrayList<Waiter<T>> mWaiters = new ArrayList<>();
+        private boolean mDone;
+        private T mResource;
+        private Exception mException;
+
+        /**
+         * Registers a waiter for the outcome of the load.
+         * @return false if the load already finished, in which case the waiter is not called
+         */
+        synchronized boolean addWaiter(final Waiter<T> waiter) {
+            if (mDone) {
+                return false;
+            }
+            mWaiters.add(waiter);
+            return true;
+        }
+
+        /**
+         * Waits for the load to finish.
+         * @return the loaded resource with a ref reserved for the caller, or null if the load
+         * finished before this call or its resource is not shareable
+         */
+        synchronized T join() throws Exception {
+            if (mDone) {
+                return null;
+            }
+            mWaiterCount++;
+            boolean interrupted = false;
+            while (!mDone) {
+                try {
+                    wait();
+                } catch (final InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (mException != null) {
+                throw mException;
+            }
+            return mResource;
+        }
+
+        /**
+         * Hands the outcome of the load to the waiters, adding a ref on the resource for each.
+         * Non-cacheable resources may not be shared, so waiters load their own.
+         */
+        void complete(final T resource, final Exception exception) {
+            final ArrayList<Waiter<T>> waiters;
+            final T sharedResource = resource != null && resource.isCacheable() ? resource : null;
+            synchronized (this) {
+                mDone = true;
+                mException = exception;
+                if (sharedResource != null) {
+                    mResource = sharedResource;
+                    for (int i = 0; i < mWaiterCount + mWaiters.size(); i++) {
+                        sharedResource.addRef();
+                    }
+                }
+                waiters = new ArrayList<>(mWaiters);
+                mWaiters.clear();
+                notifyAll();
+            }
+            for (final Waiter<T> waiter : waiters) {
+                waiter.onLoadFinished(sharedResource, exception);
+            }
+        }
+    }
+
     private class MediaLoadingResult<T extends RefCountedMediaResource> {
         public final T loadedResource;
         public final boolean fromCache;
@@ -302,7 +650,8 @@ public class MediaResourceManager {
          */
         public void scheduleChainedRequests() {
             for (final MediaRequest<T> mediaRequest : mChainedRequests) {
-                scheduleAsyncMediaRequest(mediaRequest, MEDIA_BACKGROUND_EXECUTOR);
+                scheduleAsyncMediaRequest(mediaRequest, MEDIA_BACKGROUND_EXECUTOR,
+                        PRIORITY_BACKGROUND);
             }
         }
     }
@@ -41,12 +41,30 @@ public class PoolableImageCache extends MediaCache<ImageResource> {
     /** Encapsulates bitmap pool representation of the image cache */
     private final ReusableImageResourcePool mReusablePoolAccessor = new ReusableImageResourcePool();
 
+    /** Optional second-level cache on disk */
+    private final ImageDiskCache mDiskCache;
+
+    private volatile boolean mDestroyed;
+
     public PoolableImageCache(final int id, final String name) {
         this(DEFAULT_MEDIA_RESOURCE_CACHE_SIZE_IN_KILOBYTES, id, name);
     }
 
     public PoolableImageCache(final int maxSize, final int id, final String name) {
+        this(maxSize, id, name, null);
+    }
+
+    public PoolableImageCache(final int maxSize, final int id, final String name,
+            final ImageDiskCache diskCache) {
         super(maxSize, id, name);
+        mDiskCache = diskCache;
+    }
+
+    /**
+     * Returns the disk cache below this cache, or null if images are only cached in memory.
+     */
+    public ImageDiskCache getDiskCache() {
+        return mDiskCache;
     }
 
     /**
@@ -64,6 +82,10 @@ public class PoolableImageCache extends MediaCache<ImageResource> {
         return options;
     }
 
+    /**
+     * Adds under the pool lock so that the pool never holds an image that is about to enter the
+     * cache but isn't in it yet. The pool lock is always taken before a segment lock.
+     */
     @Override
     public synchronized ImageResource addResourceToCache(final String key,
             final ImageResource imageResource) {
@@ -71,13 +93,40 @@ public class PoolableImageCache extends MediaCache<ImageResource> {
         return super.addResourceToCache(key, imageResource);
     }
 
+    /**
+     * Bitmaps of evicted images that nobody else uses go to the {@link BitmapPool} instead of
+     * being recycled.
+     */
     @Override
     protected synchronized void entryRemoved(final boolean evicted, final String key,
             final ImageResource oldValue, final ImageResource newValue) {
         mReusablePoolAccessor.onResourceLeaveCache(oldValue);
+        if (evicted && !mDestroyed && oldValue.supportsBitmapReuse()) {
+            Bitmap bitmap = null;
+            oldValue.acquireLock();
+            try {
+                final Bitmap currentBitmap = oldValue.getBitmap();
+                if (oldValue.getRefCount() == 1 && currentBitmap != null
+                        && currentBitmap.isMutable()) {
+                    bitmap = oldValue.reuseBitmap();
+                }
+            } finally {
+                oldValue.releaseLock();
+            }
+            if (bitmap != null) {
+                BitmapPool.get().release(bitmap);
+            }
+        }
         super.entryRemoved(evicted, key, oldValue, newValue);
     }
 
+    @Override
+    public void destroy() {
+        // The memory is being reclaimed, so don't keep the bitmaps around
+        mDestroyed = true;
+        super.destroy();
+    }
+
     /**
      * Returns a representation of the image cache as a reusable bitmap pool.
      */
@@ -91,8 +140,7 @@ public class PoolableImageCache extends MediaCache<ImageResource> {
      * reclaim bitmap resource as needed.
      */
     public class ReusableImageResourcePool {
-        private static final int MAX_SUPPORTED_IMAGE_DIMENSION = 0xFFFF;
-        private static final int INVALID_POOL_KEY = 0;
+        private static final int INVALID_POOL_KEY = -1;
 
         /**
          * Number of reuse failures to skip before reporting.
@@ -111,10 +159,10 @@ public class PoolableImageCache extends MediaCache<ImageResource> {
         private volatile int mSucceededBitmapReuseCount = 0;
 
         /**
-         * A sparse array from bitmap size to a list of image cache entries that match the
-         * given size. This map is used to quickly retrieve a usable bitmap to be reused by an
-         * incoming ImageRequest. We need to ensure that this sparse array always contains only
-         * elements currently in the image cache with no other consumer.
+         * A sparse array from bitmap size class (see {@link BitmapPool#getSizeClass}) to a list
+         * of image cache entries in that class. This map is used to quickly retrieve a usable
+         * bitmap to be reused by an incoming ImageRequest. We need to ensure that this sparse
+         * array always contains only elements currently in the image cache.
          */
         private final SparseArray<LinkedList<ImageResource>> mImageListSparseArray;
 
@@ -250,82 +298,99 @@ public class PoolableImageCache extends MediaCache<ImageResource> {
         }
 
         /**
-         * Try to get a reusable bitmap from the pool with the given width and height. As a
-         * result of this call, the caller will assume ownership of the returned bitmap.
+         * Try to get a reusable bitmap with the given width and height, first from the
+         * {@link BitmapPool} and then from the images in this cache. As a result of this call,
+         * the caller will assume ownership of the returned bitmap.
          */
         private Bitmap getReusableBitmapFromPool(final int width, final int height) {
+            Bitmap bitmap = BitmapPool.get().acquire(width, height);
+            if (bitmap == null) {
+                bitmap = getReusableBitmapFromCache(width, height);
+                if (bitmap != null) {
+                    bitmap.reconfigure(width, height, Bitmap.Config.ARGB_8888);
+                    BitmapPool.get().onCachedBitmapReused();
+                } else {
+                    BitmapPool.get().onReuseMissed();
+                }
+            }
+            return bitmap;
+        }
+
+        /**
+         * Try to take the bitmap of an image in this cache that only the cache uses and whose
+         * bitmap is big enough for the given width and height. Images of the requested size
+         * class and the one above are considered.
+         */
+        private Bitmap getReusableBitmapFromCache(final int width, final int height) {
+            final int byteCount = BitmapPool.getByteCount(width, height);
+            final int sizeClass = BitmapPool.getSizeClass(byteCount);
             synchronized (PoolableImageCache.this) {
-                final int poolKey = getPoolKey(width, height);
-                if (poolKey != INVALID_POOL_KEY) {
+                for (int poolKey = sizeClass; poolKey <= sizeClass + 1; poolKey++) {
                     final LinkedList<ImageResource> images = mImageListSparseArray.get(poolKey);
                     if (images != null && images.size() > 0) {
                         // Try to reuse the first available bitmap from the pool list. We start from
-                        // the least recently added cache entry of the given size.
+                        // the least recently added cache entry of the given size class.
                         ImageResource imageToUse = null;
                         for (int i = 0; i < images.size(); i++) {
                             final ImageResource image = images.get(i);
-                            if (image.getRefCount() == 1) {
-                                image.acquireLock();
-                                if (image.getRefCount() == 1) {
-                                    // The image is only used by the cache, so it's reusable.
-                                    imageToUse = images.remove(i);
-                                    break;
-                                } else {
-                                    // Logically, this shouldn't happen, because as soon as the
-                                    // cache is the only user of this resource, it will not be
-                                    // used by anyone else until the next cache access, but we
-                                    // currently hold on to the cache lock. But technically
-                                    // future changes may violate this assumption, so warn about
-                                    // this.
-                                    LogUtil.w(LogUtil.BUGLE_IMAGE_TAG, "Image refCount changed " +
-                                            "from 1 in getReusableBitmapFromPool()");
-                                    image.releaseLock();
-                                }
+                            if (image.getRefCount() == 1
+                                    && image.getMediaSize() >= byteCount) {
+                                // The image is only used by the cache, so it may be reusable.
+                                imageToUse = images.remove(i);
+                                break;
                             }
                         }
 
                         if (imageToUse == null) {
+                            continue;
+                        }
+
+                        // Only reuse the bitmap if the last time we use was greater than 5s.
+                        // This allows the cache a chance to reuse instead of always taking the
+                        // oldest.
+                        final long timeSinceLastRef = SystemClock.elapsedRealtime() -
+                                imageToUse.getLastRefAddTimestamp();
+                        if (timeSinceLastRef < MIN_TIME_IN_POOL) {
+                            if (LogUtil.isLoggable(LogUtil.BUGLE_IMAGE_TAG, LogUtil.VERBOSE)) {
+                                LogUtil.v(LogUtil.BUGLE_IMAGE_TAG, "Not reusing reusing " +
+                                        "first available bitmap from the pool because it " +
+                                        "has not been in the pool long enough. " +
+                                        "timeSinceLastRef=" + timeSinceLastRef);
+                            }
+                            // Put back the image and return no reuseable bitmap.
+                            images.addLast(imageToUse);
                             return null;
                         }
 
+                        // Add a temp ref on the image resource so it won't be GC'd after
+                        // being removed from the cache.
+                        imageToUse.addRef();
                         try {
-                            imageToUse.assertLockHeldByCurrentThread();
-
-                            // Only reuse the bitmap if the last time we use was greater than 5s.
-                            // This allows the cache a chance to reuse instead of always taking the
-                            // oldest.
-                            final long timeSinceLastRef = SystemClock.elapsedRealtime() -
-                                    imageToUse.getLastRefAddTimestamp();
-                            if (timeSinceLastRef < MIN_TIME_IN_POOL) {
-                                if (LogUtil.isLoggable(LogUtil.BUGLE_IMAGE_TAG, LogUtil.VERBOSE)) {
-                                    LogUtil.v(LogUtil.BUGLE_IMAGE_TAG, "Not reusing reusing " +
-                                            "first available bitmap from the pool because it " +
-                                            "has not been in the pool long enough. " +
-                                            "timeSinceLastRef=" + timeSinceLastRef);
-                                }
-                                // Put back the image and return no reuseable bitmap.
-                                images.addLast(imageToUse);
+                            // Remove the image resource from the image cache. Lookups don't take
+                            // the pool lock, so one may have taken a ref since the check above;
+                            // the image lock must not be held here as lookups take it while
+                            // holding a segment lock.
+                            if (!remove(imageToUse.getKey(), imageToUse)) {
+                                // It is being evicted by another thread
                                 return null;
                             }
 
-                            // Add a temp ref on the image resource so it won't be GC'd after
-                            // being removed from the cache.
-                            imageToUse.addRef();
-
-                            // Remove the image resource from the image cache.
-                            final ImageResource removed = remove(imageToUse.getKey());
-                            Assert.isTrue(removed == imageToUse);
-
-                            // Try to reuse the bitmap from the image resource. This will transfer
-                            // ownership of the bitmap object to the caller of this method.
-                            final Bitmap reusableBitmap = imageToUse.reuseBitmap();
-
-                            imageToUse.release();
-                            return reusableBitmap;
+                            imageToUse.acquireLock();
+                            try {
+                                if (imageToUse.getRefCount() != 1) {
+                                    // Someone got the image from the cache before it was
+                                    // removed, so leave the bitmap to them.
+                                    return null;
+                                }
+                                // Try to reuse the bitmap from the image resource. This will
+                                // transfer ownership of the bitmap object to the caller of this
+                                // method.
+                                return imageToUse.reuseBitmap();
+                            } finally {
+                                imageToUse.releaseLock();
+                            }
                         } finally {
-                            // We are either done with the reuse operation, or decided not to use
-                            // the image. Either way, release the lock.
-                            imageToUse.releaseLock();
+                            imageToUse.release();
                         }
                     }
                 }
@@ -374,17 +439,6 @@ public class PoolableImageCache extends MediaCache<ImageResource> {
             optionsTmp.inBitmap = getReusableBitmapFromPool(width, height);
         }
 
-        /**
-         * @return The pool key for the provided image dimensions or 0 if either width or height is
-         * greater than the max supported image dimension.
-         */
-        private int getPoolKey(final int width, final int height) {
-            if (width > MAX_SUPPORTED_IMAGE_DIMENSION || height > MAX_SUPPORTED_IMAGE_DIMENSION) {
-                return INVALID_POOL_KEY;
-            }
-            return (width << 16) | height;
-        }
-
         /**
          * @return the pool key for a given image resource.
          */
@@ -395,7 +449,7 @@ public class PoolableImageCache extends MediaCache<ImageResource> {
                     final int width = bitmap.getWidth();
                     final int height = bitmap.getHeight();
                     if (width > 0 && height > 0) {
-                        return getPoolKey(width, height);
+                        return BitmapPool.getSizeClass(bitmap.getAllocationByteCount());
                     }
                 }
             }
@@ -39,8 +39,11 @@ public class VCardResource extends RefCountedMediaResource {
 
     @Override
     public int getMediaSize() {
-        // Instead of track VCards by size in kilobytes, we track them by count.
-        return 0;
+        int size = 0;
+        for (final VCardResourceEntry vcard : mVCards) {
+            size += vcard.getEstimatedSize();
+        }
+        return size;
     }
 
     @Override
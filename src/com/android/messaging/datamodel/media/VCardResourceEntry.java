@@ -51,6 +51,10 @@ import java.util.concurrent.Executors;
 /**
  * Holds one entry item (i.e. a single contact) within a VCard resource. It is able to take
  * a VCardEntry and extract relevant information from it.
+ *
+ * Only the extracted information is kept, not the VCardEntry, which holds the raw properties
+ * and photo bytes of the contact. Those are released as soon as the entry is parsed, so a
+ * cached vCard with many contacts only costs the text shown for them.
  */
 public class VCardResourceEntry {
     public static final String PROPERTY_KIND = "KIND";
@@ -60,13 +64,37 @@ public class VCardResourceEntry {
     private final List<VCardResourceEntry.VCardResourceEntryDestinationItem> mContactInfo;
     private final Uri mAvatarUri;
     private final String mDisplayName;
-    private final CustomVCardEntry mVCard;
+    private final String mKind;
+    private final String mDisplayAddress;
+    private final String mNotes;
+
+    // Approximate memory taken by an item and its intent, besides its strings
+    private static final int ITEM_OVERHEAD_BYTES = 256;
 
     public VCardResourceEntry(final CustomVCardEntry vcard, final Uri avatarUri) {
         mContactInfo = getContactInfoFromVCardEntry(vcard);
         mDisplayName = getDisplayNameFromVCardEntry(vcard);
         mAvatarUri = avatarUri;
-        mVCard = vcard;
+        final VCardProperty kindProperty = vcard.getProperty(PROPERTY_KIND);
+        mKind = kindProperty == null ? null : kindProperty.getRawValue();
+        mDisplayAddress = getDisplayAddressFromVCardEntry(vcard);
+        mNotes = getNotesFromVCardEntry(vcard);
+    }
+
+    /**
+     * @return approximately how many bytes of memory the entry takes
+     */
+    int getEstimatedSize() {
+        int chars = length(mDisplayName) + length(mKind) + length(mDisplayAddress)
+                + length(mNotes);
+        for (final VCardResourceEntryDestinationItem item : mContactInfo) {
+            chars += length(item.mDisplayDestination) + length(item.mDestinationType);
+        }
+        return chars * 2 + (mContactInfo.size() + 1) * ITEM_OVERHEAD_BYTES;
+    }
+
+    private static int length(final String s) {
+        return s == null ? 0 : s.length();
     }
 
     void close() {
@@ -79,8 +107,7 @@ public class VCardResourceEntry {
     }
 
     public String getKind() {
-        VCardProperty kindProperty = mVCard.getProperty(PROPERTY_KIND);
-        return kindProperty == null ? null : kindProperty.getRawValue();
+        return mKind;
     }
 
     public Uri getAvatarUri() {
@@ -92,7 +119,15 @@ public class VCardResourceEntry {
     }
 
     public String getDisplayAddress() {
-        List<PostalData> postalList = mVCard.getPostalList();
+        return mDisplayAddress;
+    }
+
+    public String getNotes() {
+        return mNotes;
+    }
+
+    private static String getDisplayAddressFromVCardEntry(final VCardEntry vcard) {
+        List<PostalData> postalList = vcard.getPostalList();
         if (postalList == null || postalList.size() < 1) {
             return null;
         }
@@ -100,8 +135,8 @@ public class VCardResourceEntry {
         return formatAddress(postalList.get(0));
     }
 
-    public String getNotes() {
-        List<NoteData> notes = mVCard.getNotes();
+    private static String getNotesFromVCardEntry(final VCardEntry vcard) {
+        List<NoteData> notes = vcard.getNotes();
         if (notes == null || notes.size() == 0) {
             return null;
         }
@@ -70,9 +70,12 @@ import com.android.messaging.util.UriUtil;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.HashSet;
@@ -775,7 +778,6 @@ public class PduPersister {
         }
 
         String contentType = getPartContentType(part);
-        final byte[] data = part.getData();
 
         if (LOCAL_LOGV) {
             LogUtil.v(TAG, "PduPersister.persistPart part: " + uri + " contentType: " +
@@ -791,12 +793,13 @@ public class PduPersister {
 
             // On somes phones, a vcard comes in as text/plain instead of text/v-card.
             // Fix it if necessary.
-            if (ContentType.TEXT_PLAIN.equals(contentType) && data != null) {
+            if (ContentType.TEXT_PLAIN.equals(contentType) && part.getDataBuffer() != null) {
                 // There might be a more efficient way to just check the beginning of the string
                 // without encoding the whole thing, but we're concerned that with various
                 // characters sets, just comparing the byte data to BEGIN_VCARD would not be
                 // reliable.
-                final String encodedDataString = new EncodedStringValue(charset, data).getString();
+                final String encodedDataString =
+                        new EncodedStringValue(charset, part.getData()).getString();
                 if (encodedDataString != null && encodedDataString.startsWith(BEGIN_VCARD)) {
                     contentType = ContentType.TEXT_X_VCARD;
                     part.setContentType(contentType.getBytes());
@@ -863,7 +866,6 @@ public class PduPersister {
         String path = null;
 
         try {
-            final byte[] data = part.getData();
             final int charset = part.getCharset();
             if (ContentType.TEXT_PLAIN.equals(contentType)
                     || ContentType.APP_SMIL.equals(contentType)
@@ -871,6 +873,7 @@ public class PduPersister {
                 // Some phone could send MMS with a text part having empty data
                 // Let's just skip those parts.
                 // EncodedStringValue() throws NPE if data is empty
+                final byte[] data = part.getData();
                 if (data != null) {
                     final ContentValues cv = new ContentValues();
                     cv.put(Mms.Part.TEXT, new EncodedStringValue(charset, data).getString());
@@ -914,6 +917,9 @@ public class PduPersister {
                 if (os == null) {
                     throw new MmsException("Failed to create output stream on " + uri);
                 }
+                // Binary data is taken as a buffer so that parts parsed in place from a
+                // mapped pdu are streamed to the provider without an intermediate copy.
+                final ByteBuffer data = part.getDataBuffer();
                 if (data == null) {
                     dataUri = part.getDataUri();
                     if ((dataUri == null) || (dataUri.equals(uri))) {
@@ -952,14 +958,26 @@ public class PduPersister {
                     if (LOCAL_LOGV) {
                         LogUtil.v(TAG, "Saving data to: " + uri);
                     }
-                    if (!isDrm) {
-                        os.write(data);
+                    if (!isDrm && os instanceof FileOutputStream) {
+                        final FileChannel channel = ((FileOutputStream) os).getChannel();
+                        while (data.hasRemaining()) {
+                            channel.write(data);
+                        }
                     } else {
-                        final byte[] convertedData = drmConvertSession.convert(data, data.length);
-                        if (convertedData != null) {
-                            os.write(convertedData, 0, convertedData.length);
-                        } else {
-                            throw new MmsException("Error converting drm data.");
+                        final byte[] buffer = new byte[8192];
+                        while (data.hasRemaining()) {
+                            final int len = Math.min(buffer.length, data.remaining());
+                            data.get(buffer, 0, len);
+                            if (!isDrm) {
+                                os.write(buffer, 0, len);
+                            } else {
+                                final byte[] convertedData = drmConvertSession.convert(buffer, len);
+                                if (convertedData != null) {
+                                    os.write(convertedData, 0, convertedData.length);
+                                } else {
+                                    throw new MmsException("Error converting drm data.");
+                                }
+                            }
                         }
                     }
                 }
@@ -16,6 +16,7 @@
 
 package com.android.messaging.receiver;
 
+import android.app.Activity;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
@@ -26,6 +27,7 @@ import android.telephony.SmsMessage;
 import com.android.messaging.datamodel.action.ProcessDeliveryReportAction;
 import com.android.messaging.datamodel.action.ProcessDownloadedMmsAction;
 import com.android.messaging.datamodel.action.ProcessSentMessageAction;
+import com.android.messaging.datamodel.data.MessageData;
 import com.android.messaging.datamodel.data.ParticipantData;
 import com.android.messaging.sms.MmsUtils;
 import com.android.messaging.sms.SmsSender;
@@ -49,7 +51,9 @@ public class SendStatusReceiver extends BroadcastReceiver {
     // Defined by platform, but no constant provided. See docs for SmsManager.sendTextMessage.
     public static final String EXTRA_ERROR_CODE = "errorCode";
 
+    public static final String EXTRA_MESSAGE_ID = "messageId";
     public static final String EXTRA_PART_ID = "partId";
+    public static final String EXTRA_PART_COUNT = "partCount";
     public static final String EXTRA_SUB_ID = "subId";
 
     public static final int NO_ERROR_CODE = -1;
@@ -62,12 +66,16 @@ public class SendStatusReceiver extends BroadcastReceiver {
         final int resultCode = getResultCode();
         if (MESSAGE_SENT_ACTION.equals(action)) {
             final Uri requestId = intent.getData();
-            SmsSender.setResult(
+            final int partId = intent.getIntExtra(EXTRA_PART_ID, NO_PART_ID);
+            final int subId = intent.getIntExtra(EXTRA_SUB_ID, ParticipantData.DEFAULT_SELF_SUB_ID);
+            if (!SmsSender.setResult(
                     requestId,
                     resultCode,
                     intent.getIntExtra(EXTRA_ERROR_CODE, NO_ERROR_CODE),
-                    intent.getIntExtra(EXTRA_PART_ID, NO_PART_ID),
-                    intent.getIntExtra(EXTRA_SUB_ID, ParticipantData.DEFAULT_SELF_SUB_ID));
+                    partId,
+                    subId)) {
+                processUntrackedSentResult(intent, requestId, resultCode, partId, subId);
+            }
         } else if (MMS_SENT_ACTION.equals(action)) {
             final Uri messageUri = intent.getData();
             ProcessSentMessageAction.processMmsSent(resultCode, messageUri,
@@ -117,4 +125,26 @@ public class SendStatusReceiver extends BroadcastReceiver {
             ProcessDeliveryReportAction.deliveryReportReceived(smsMessageUri, status);
         }
     }
+
+    /**
+     * Resolve the status of a message whose send is no longer tracked by SmsSender, e.g.
+     * because the process died while waiting for its sent status. A failed part fails the
+     * message right away, otherwise the last part marks it sent.
+     */
+    private static void processUntrackedSentResult(final Intent intent, final Uri messageUri,
+            final int resultCode, final int partId, final int subId) {
+        final String messageId = intent.getStringExtra(EXTRA_MESSAGE_ID);
+        if (messageId == null || messageUri == null) {
+            return;
+        }
+        final int partCount = intent.getIntExtra(EXTRA_PART_COUNT, 1);
+        // Single part messages have part id 0, multipart ones count from 1
+        final boolean lastPart = partId == 0 || partId == partCount;
+        if (resultCode != Activity.RESULT_OK || lastPart) {
+            ProcessSentMessageAction.processMessageSentFastFailed(messageId, messageUri,
+                    null /* updatedMessageUri */, subId, true /* isSms */,
+                    MmsUtils.getSmsSendStatus(resultCode),
+                    MessageData.RAW_TELEPHONY_STATUS_UNDEFINED, MessageData.UNKNOWN_RESULT_CODE);
+        }
+    }
 }
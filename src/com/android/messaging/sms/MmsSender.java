@@ -48,6 +48,7 @@ import com.android.messaging.util.PhoneUtils;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  * Class that sends chat message via MMS.
@@ -263,20 +264,38 @@ public class MmsSender {
 
     public static RetrieveConf parseRetrieveConf(byte[] data, int subId) {
         if (data != null) {
-            final GenericPdu pdu = new PduParser(
-                    data, MmsConfig.get(subId).getSupportMmsContentDisposition()).parse();
-            if (pdu != null) {
-                if (pdu instanceof RetrieveConf) {
-                    return (RetrieveConf) pdu;
-                } else {
-                    LogUtil.e(TAG, "MmsSender: downloaded pdu not RetrieveConf: "
-                            + pdu.getClass().getName());
-                }
+            return parseRetrieveConf(new PduParser(
+                    data, MmsConfig.get(subId).getSupportMmsContentDisposition()));
+        }
+        LogUtil.e(TAG, "MmsSender: downloaded pdu is empty");
+        return null;
+    }
+
+    /**
+     * Parse a downloaded pdu in place. The parts of the returned RetrieveConf reference the
+     * buffer directly, so it must remain valid until they have been persisted.
+     */
+    public static RetrieveConf parseRetrieveConf(ByteBuffer data, int subId) {
+        if (data != null && data.hasRemaining()) {
+            return parseRetrieveConf(new PduParser(
+                    data, MmsConfig.get(subId).getSupportMmsContentDisposition()));
+        }
+        LogUtil.e(TAG, "MmsSender: downloaded pdu is empty");
+        return null;
+    }
+
+    private static RetrieveConf parseRetrieveConf(PduParser parser) {
+        final GenericPdu pdu = parser.parse();
+        if (pdu != null) {
+            if (pdu instanceof RetrieveConf) {
+                return (RetrieveConf) pdu;
             } else {
-                LogUtil.e(TAG, "MmsSender: downloaded pdu could not be parsed (invalid)");
+                LogUtil.e(TAG, "MmsSender: downloaded pdu not RetrieveConf: "
+                        + pdu.getClass().getName());
             }
+        } else {
+            LogUtil.e(TAG, "MmsSender: downloaded pdu could not be parsed (invalid)");
         }
-        LogUtil.e(TAG, "MmsSender: downloaded pdu is empty");
         return null;
     }
 
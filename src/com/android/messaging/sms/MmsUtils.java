@@ -50,6 +50,8 @@ import android.support.v7.mms.pdu.SendReq;
 import android.telephony.SmsMessage;
 import android.text.TextUtils;
 
+import androidx.collection.LongSparseArray;
+
 import com.android.messaging.Factory;
 import com.android.messaging.R;
 import com.android.messaging.datamodel.MediaScratchFileProvider;
@@ -756,6 +758,156 @@ public class MmsUtils {
     private static final Uri SINGLE_CANONICAL_ADDRESS_URI =
             Uri.parse("content://mms-sms/canonical-address");
 
+    private static final Uri ALL_CANONICAL_ADDRESSES_URI =
+            Uri.parse("content://mms-sms/canonical-addresses");
+
+    private static final String[] CANONICAL_ADDRESSES_PROJECTION = {
+        Telephony.CanonicalAddressesColumns._ID,
+        Telephony.CanonicalAddressesColumns.ADDRESS
+    };
+
+    /**
+     * Load the recipients of all the threads with one query of the threads and one of the
+     * canonical addresses, instead of one query per recipient.
+     *
+     * @return thread id to recipients. Threads that have no recipients, or recipients that could
+     * not be resolved, are left out.
+     */
+    public static LongSparseArray<List<String>> getAllThreadRecipients() {
+        final LongSparseArray<List<String>> threadRecipients = new LongSparseArray<>();
+        final LongSparseArray<String> addresses = new LongSparseArray<>();
+        if (!queryCanonicalAddresses(null, null, addresses)) {
+            return threadRecipients;
+        }
+        final LongSparseArray<String> recipientIds = new LongSparseArray<>();
+        queryRecipientIds(null, null, recipientIds);
+        resolveRecipients(recipientIds, addresses, threadRecipients);
+        return threadRecipients;
+    }
+
+    /**
+     * Load the recipients of the given threads with a query of the threads and one of their
+     * canonical addresses for each {@link #MAX_IDS_PER_QUERY} ids, instead of one query per
+     * thread and per recipient.
+     *
+     * @param threadIds the thread ids, of which only the first count are used
+     * @return thread id to recipients. Threads that have no recipients, or recipients that could
+     * not be resolved, are left out, to be looked up by {@link #getRecipientsByThread}.
+     */
+    public static LongSparseArray<List<String>> getRecipientsByThreads(final long[] threadIds,
+            final int count) {
+        final LongSparseArray<List<String>> threadRecipients = new LongSparseArray<>();
+        final LongSparseArray<String> recipientIds = new LongSparseArray<>();
+        for (int start = 0; start < count; start += MAX_IDS_PER_QUERY) {
+            final int windowCount = Math.min(MAX_IDS_PER_QUERY, count - start);
+            queryRecipientIds(Threads._ID + " IN " + getSqlInOperand(windowCount),
+                    getSqlInOperandArgs(threadIds, start, windowCount), recipientIds);
+        }
+
+        // The distinct canonical address ids of all the threads
+        final LongSparseArray<Boolean> addressIdSet = new LongSparseArray<>();
+        for (int i = 0; i < recipientIds.size(); i++) {
+            for (final String id : recipientIds.valueAt(i).split(" ")) {
+                try {
+                    addressIdSet.put(Long.parseLong(id), Boolean.TRUE);
+                } catch (final NumberFormatException ex) {
+                    // Skipped, the thread is left to getRecipientsByThread
+                }
+            }
+        }
+        final long[] addressIds = new long[addressIdSet.size()];
+        for (int i = 0; i < addressIds.length; i++) {
+            addressIds[i] = addressIdSet.keyAt(i);
+        }
+        final LongSparseArray<String> addresses = new LongSparseArray<>();
+        for (int start = 0; start < addressIds.length; start += MAX_IDS_PER_QUERY) {
+            final int windowCount = Math.min(MAX_IDS_PER_QUERY, addressIds.length - start);
+            if (!queryCanonicalAddresses(
+                    Telephony.CanonicalAddressesColumns._ID + " IN "
+                            + getSqlInOperand(windowCount),
+                    getSqlInOperandArgs(addressIds, start, windowCount), addresses)) {
+                return threadRecipients;
+            }
+        }
+
+        resolveRecipients(recipientIds, addresses, threadRecipients);
+        return threadRecipients;
+    }
+
+    /**
+     * Query the space separated canonical address ids of the threads matching the selection
+     */
+    private static void queryRecipientIds(final String selection, final String[] selectionArgs,
+            final LongSparseArray<String> recipientIds) {
+        final ContentResolver cr = Factory.get().getApplicationContext().getContentResolver();
+        try (final Cursor c = cr.query(ALL_THREADS_URI, RECIPIENTS_PROJECTION, selection,
+                selectionArgs, null)) {
+            if (c == null) {
+                return;
+            }
+            while (c.moveToNext()) {
+                final String spaceSepIds = c.getString(RECIPIENT_IDS);
+                if (!TextUtils.isEmpty(spaceSepIds)) {
+                    recipientIds.put(c.getLong(0), spaceSepIds);
+                }
+            }
+        } catch (final Exception e) {
+            LogUtil.e(TAG, "MmsUtils.queryRecipientIds: threads query failed", e);
+        }
+    }
+
+    /**
+     * Query the canonical addresses matching the selection
+     * @return false if the query failed
+     */
+    private static boolean queryCanonicalAddresses(final String selection,
+            final String[] selectionArgs, final LongSparseArray<String> addresses) {
+        final ContentResolver cr = Factory.get().getApplicationContext().getContentResolver();
+        try (final Cursor c = cr.query(ALL_CANONICAL_ADDRESSES_URI,
+                CANONICAL_ADDRESSES_PROJECTION, selection, selectionArgs, null)) {
+            if (c == null) {
+                return false;
+            }
+            while (c.moveToNext()) {
+                addresses.put(c.getLong(0), c.getString(1));
+            }
+            return true;
+        } catch (final Exception e) {
+            LogUtil.e(TAG, "MmsUtils.queryCanonicalAddresses: canonical addresses query failed",
+                    e);
+            return false;
+        }
+    }
+
+    /**
+     * Turn the canonical address ids of threads into their addresses. Threads with an address
+     * that is missing or empty are left out, to be looked up by {@link #getRecipientsByThread},
+     * which logs what is wrong.
+     */
+    private static void resolveRecipients(final LongSparseArray<String> recipientIds,
+            final LongSparseArray<String> addresses,
+            final LongSparseArray<List<String>> threadRecipients) {
+        for (int i = 0; i < recipientIds.size(); i++) {
+            final List<String> numbers = new ArrayList<>();
+            for (final String id : recipientIds.valueAt(i).split(" ")) {
+                String number = null;
+                try {
+                    number = addresses.get(Long.parseLong(id));
+                } catch (final NumberFormatException ex) {
+                    // Left out below
+                }
+                if (TextUtils.isEmpty(number)) {
+                    numbers.clear();
+                    break;
+                }
+                numbers.add(number);
+            }
+            if (!numbers.isEmpty()) {
+                threadRecipients.put(recipientIds.keyAt(i), numbers);
+            }
+        }
+    }
+
     private static List<String> getAddresses(final Context context, final String spaceSepIds) {
         final List<String> numbers = new ArrayList<>();
         final String[] ids = spaceSepIds.split(" ");
@@ -2186,21 +2338,56 @@ public class MmsUtils {
         return prefs.getBoolean(deliveryReportKey, defaultValue);
     }
 
-    public static int sendSmsMessage(final String recipient, final String messageText,
-            final Uri requestUri, final int subId,
-            final String smsServiceCenter, final boolean requireDeliveryReport) {
+    /**
+     * Callback of {@link #sendSmsMessage}
+     */
+    public interface SmsSendCallback {
+        /**
+         * Called on the main thread, or on the calling thread if sending failed right away
+         *
+         * @param status one of the MMS_REQUEST_* status codes
+         */
+        void onSmsSendComplete(int status);
+    }
+
+    /**
+     * Send a single SMS message without waiting for its sent status
+     */
+    public static void sendSmsMessage(final String recipient, final String messageText,
+            final Uri requestUri, final String messageId, final int subId,
+            final String smsServiceCenter, final boolean requireDeliveryReport,
+            final SmsSendCallback callback) {
         final Context context = Factory.get().getApplicationContext();
-        int status = MMS_REQUEST_MANUAL_RETRY;
         try {
             // Send a single message
-            final SendResult result = SmsSender.sendMessage(
+            SmsSender.sendMessage(
                     context,
                     subId,
                     recipient,
                     messageText,
                     smsServiceCenter,
                     requireDeliveryReport,
-                    requestUri);
+                    requestUri,
+                    messageId,
+                    result -> callback.onSmsSendComplete(getSmsSendStatus(result)));
+        } catch (final Exception e) {
+            LogUtil.e(TAG, "MmsUtils: failed to send SMS " + e, e);
+            callback.onSmsSendComplete(MMS_REQUEST_MANUAL_RETRY);
+        }
+    }
+
+    /**
+     * @return the MMS_REQUEST_* status code of a message part from its sent result code
+     */
+    public static int getSmsSendStatus(final int resultCode) {
+        final SendResult result = new SendResult(1, null /* callback */);
+        result.setPartResult(resultCode);
+        return getSmsSendStatus(result);
+    }
+
+    private static int getSmsSendStatus(final SendResult result) {
+        int status = MMS_REQUEST_MANUAL_RETRY;
+        synchronized (result) {
             if (!result.hasPending()) {
                 // not timed out, check failures
                 final int failureLevel = result.getHighestFailureLevel();
@@ -2220,8 +2407,6 @@ public class MmsUtils {
                 // Timed out
                 LogUtil.e(TAG, "MmsUtils: sending SMS timed out");
             }
-        } catch (final Exception e) {
-            LogUtil.e(TAG, "MmsUtils: failed to send SMS " + e, e);
         }
         return status;
     }
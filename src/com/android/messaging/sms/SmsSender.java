@@ -22,10 +22,11 @@ import android.app.PendingIntent;
 import android.content.Context;
 import android.content.Intent;
 import android.net.Uri;
-import android.os.SystemClock;
 import android.telephony.PhoneNumberUtils;
 import android.telephony.SmsManager;
 import android.text.TextUtils;
+import android.util.SparseArray;
+import android.util.SparseIntArray;
 
 import androidx.annotation.NonNull;
 
@@ -36,22 +37,30 @@ import com.android.messaging.util.Assert;
 import com.android.messaging.util.BugleGservicesKeys;
 import com.android.messaging.util.LogUtil;
 import com.android.messaging.util.PhoneUtils;
+import com.android.messaging.util.ThreadUtil;
 import com.android.messaging.util.UiUtils;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Random;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
 /**
  * Class that sends chat message via SMS.
  *
- * The interface emulates a blocking sending similar to making an HTTP request.
- * It calls the SmsManager to send a (potentially multipart) message and waits
- * on the sent status on each part. The waiting has a timeout so it won't wait
- * forever. Once the sent status of all parts received, the call returns.
+ * It calls the SmsManager to send a (potentially multipart) message and returns
+ * without waiting. The sent status of each part comes back through
+ * SendStatusReceiver, and once the status of all parts is received, or the
+ * timeout runs out, the callback of the message is called on the main thread.
  * A successful sending requires success status for all parts. Otherwise, we
  * pick the highest level of failure as the error for the whole message, which
  * is used to determine if we need to retry the sending.
+ *
+ * At most SMS_MAX_IN_FLIGHT_PER_SUBSCRIPTION_DEFAULT messages of a subscription
+ * are sent at once. Sending more queues the message, which is sent on a
+ * background thread when one of them completes.
  */
 public class SmsSender {
     private static final String TAG = LogUtil.BUGLE_TAG;
@@ -66,6 +75,24 @@ public class SmsSender {
 
     private static final Random RANDOM = new Random();
 
+    private static final Object sInFlightLock = new Object();
+    // Number of messages waiting for their sent status, per subscription
+    private static final SparseIntArray sInFlightCounts = new SparseIntArray();
+    // Sends waiting for one of those to complete, per subscription
+    private static final SparseArray<ArrayDeque<Runnable>> sQueuedSends = new SparseArray<>();
+    private static final Executor sQueuedSendExecutor = Executors.newSingleThreadExecutor();
+
+    /**
+     * Callback of a message send
+     */
+    public interface SendCallback {
+        /**
+         * Called on the main thread when the sent status of all parts of the message is
+         * received, or when sending timed out, in which case the result still has pending parts
+         */
+        void onSendComplete(SendResult result);
+    }
+
     /**
      * Class that holds the sent status for all parts of a multipart message sending
      */
@@ -82,10 +109,15 @@ public class SmsSender {
         // Tracking the highest level of failure among all parts
         private int mHighestFailureLevel;
 
-        public SendResult(final int numOfParts) {
+        private final SendCallback mCallback;
+        private Runnable mTimeoutRunnable;
+        private int mSubId;
+
+        public SendResult(final int numOfParts, final SendCallback callback) {
             Assert.isTrue(numOfParts > 0);
             mPendingParts = numOfParts;
             mHighestFailureLevel = FAILURE_LEVEL_NONE;
+            mCallback = callback;
         }
 
         // Update the sent status of one part
@@ -137,7 +169,13 @@ public class SmsSender {
         }
     }
 
-    public static void setResult(final Uri requestId, final int resultCode,
+    /**
+     * Record the sent status of a message part
+     *
+     * @return false if the message is not being sent by this process, for instance because
+     *     the process died since, or its send timed out
+     */
+    public static boolean setResult(final Uri requestId, final int resultCode,
             final int errorCode, final int partId, int subId) {
         if (resultCode != Activity.RESULT_OK) {
             LogUtil.e(TAG, "SmsSender: failure in sending message part. "
@@ -156,17 +194,20 @@ public class SmsSender {
         if (requestId != null) {
             final SendResult result = sPendingMessageMap.get(requestId);
             if (result != null) {
+                final boolean complete;
                 synchronized (result) {
                     result.setPartResult(resultCode);
-                    if (!result.hasPending()) {
-                        result.notifyAll();
-                    }
+                    complete = !result.hasPending();
                 }
-            } else {
-                LogUtil.e(TAG, "SmsSender: ignoring sent result. " + " requestId=" + requestId
-                        + " partId=" + partId + " resultCode=" + resultCode);
+                if (complete) {
+                    completeSend(requestId, result);
+                }
+                return true;
             }
+            LogUtil.w(TAG, "SmsSender: sent result of an untracked send. " + " requestId="
+                    + requestId + " partId=" + partId + " resultCode=" + resultCode);
         }
+        return false;
     }
 
     private static String getSendErrorToastMessage(final Context context, final int subId,
@@ -179,10 +220,54 @@ public class SmsSender {
         }
     }
 
-    // This should be called from a RequestWriter queue thread
-    public static SendResult sendMessage(final Context context, final int subId, String dest,
+    /**
+     * Finish the send of a message, once its parts are all sent or it timed out
+     */
+    private static void completeSend(final Uri requestId, final SendResult result) {
+        // The last part and the timeout can race, only the first one completes the send
+        if (!sPendingMessageMap.remove(requestId, result)) {
+            return;
+        }
+        releaseInFlight(result.mSubId);
+        ThreadUtil.getMainThreadHandler().removeCallbacks(result.mTimeoutRunnable);
+        if (LogUtil.isLoggable(TAG, LogUtil.VERBOSE)) {
+            LogUtil.v(TAG, "SmsSender: sending completed. requestId=" + requestId
+                    + " result=" + result);
+        }
+        ThreadUtil.getMainThreadHandler().post(() -> result.mCallback.onSendComplete(result));
+    }
+
+    /**
+     * Free the in flight slot of a completed send, and start the next queued send of the
+     * subscription, if any, in its place
+     */
+    private static void releaseInFlight(final int subId) {
+        final Runnable next;
+        synchronized (sInFlightLock) {
+            final ArrayDeque<Runnable> queue = sQueuedSends.get(subId);
+            next = queue != null ? queue.poll() : null;
+            if (next == null) {
+                sInFlightCounts.put(subId, sInFlightCounts.get(subId) - 1);
+            }
+        }
+        if (next != null) {
+            sQueuedSendExecutor.execute(next);
+        }
+    }
+
+    /**
+     * Send a message without waiting for its sent status, which is given to the callback.
+     * If too many messages of the subscription are already being sent, the message is queued
+     * and sent when one of them completes.
+     *
+     * @param messageId the local id of the message, given back by the sent status intents
+     * @throws Exception if the message could not be sent, in which case the callback is not
+     *     called. Queued messages failing to send are given to the callback instead.
+     */
+    public static void sendMessage(final Context context, final int subId, String dest,
             String message, final String serviceCenter, final boolean requireDeliveryReport,
-            final Uri messageUri) throws Exception {
+            final Uri messageUri, final String messageId, final SendCallback callback)
+                    throws Exception {
         if (LogUtil.isLoggable(TAG, LogUtil.VERBOSE)) {
             LogUtil.v(TAG, "SmsSender: sending message. " +
                     "dest=" + dest + " message=" + message +
@@ -217,42 +302,83 @@ public class SmsSender {
             throw new Exception("SmsSender: fails to divide message");
         }
         // Prepare the send result, which collects the send status for each part
-        final SendResult pendingResult = new SendResult(messages.size());
-        sPendingMessageMap.put(messageUri, pendingResult);
-        // Actually send the sms
-        sendInternal(
-                context, subId, dest, messages, serviceCenter, requireDeliveryReport, messageUri);
-        // Wait for pending intent to come back
-        synchronized (pendingResult) {
-            final long smsSendTimeoutInMillis =
-                    BugleGservicesKeys.SMS_SEND_TIMEOUT_IN_MILLIS_DEFAULT;
-            final long beginTime = SystemClock.elapsedRealtime();
-            long waitTime = smsSendTimeoutInMillis;
-            // We could possibly be woken up while still pending
-            // so make sure we wait the full timeout period unless
-            // we have the send results of all parts.
-            while (pendingResult.hasPending() && waitTime > 0) {
-                try {
-                    pendingResult.wait(waitTime);
-                } catch (final InterruptedException e) {
-                    LogUtil.e(TAG, "SmsSender: sending wait interrupted");
+        final SendResult pendingResult = new SendResult(messages.size(), callback);
+        pendingResult.mSubId = subId;
+        pendingResult.mTimeoutRunnable = () -> {
+            LogUtil.e(TAG, "SmsSender: sending timed out. requestId=" + messageUri);
+            completeSend(messageUri, pendingResult);
+        };
+        final String destination = dest;
+        synchronized (sInFlightLock) {
+            final int inFlightCount = sInFlightCounts.get(subId);
+            if (inFlightCount >= BugleGservicesKeys.SMS_MAX_IN_FLIGHT_PER_SUBSCRIPTION_DEFAULT) {
+                ArrayDeque<Runnable> queue = sQueuedSends.get(subId);
+                if (queue == null) {
+                    queue = new ArrayDeque<>();
+                    sQueuedSends.put(subId, queue);
                 }
-                waitTime = smsSendTimeoutInMillis - (SystemClock.elapsedRealtime() - beginTime);
+                queue.add(() -> {
+                    try {
+                        startSend(context, subId, destination, messages, serviceCenter,
+                                requireDeliveryReport, messageUri, messageId, pendingResult);
+                    } catch (final Exception e) {
+                        LogUtil.e(TAG, "SmsSender: failed to send queued message. requestId="
+                                + messageUri, e);
+                        synchronized (pendingResult) {
+                            while (pendingResult.hasPending()) {
+                                pendingResult.setPartResult(
+                                        SmsManager.RESULT_ERROR_GENERIC_FAILURE);
+                            }
+                        }
+                        ThreadUtil.getMainThreadHandler().post(
+                                () -> callback.onSendComplete(pendingResult));
+                    }
+                });
+                if (LogUtil.isLoggable(TAG, LogUtil.VERBOSE)) {
+                    LogUtil.v(TAG, "SmsSender: queued message. requestId=" + messageUri);
+                }
+                return;
             }
+            sInFlightCounts.put(subId, inFlightCount + 1);
         }
-        // Either we timed out or have all the results (success or failure)
-        sPendingMessageMap.remove(messageUri);
-        if (LogUtil.isLoggable(TAG, LogUtil.VERBOSE)) {
-            LogUtil.v(TAG, "SmsSender: sending completed. " +
-                    "dest=" + dest + " message=" + message + " result=" + pendingResult);
+        startSend(context, subId, dest, messages, serviceCenter, requireDeliveryReport,
+                messageUri, messageId, pendingResult);
+    }
+
+    /**
+     * Send a message holding an in flight slot of its subscription, which is released when
+     * the send completes or fails
+     */
+    private static void startSend(final Context context, final int subId, final String dest,
+            final ArrayList<String> messages, final String serviceCenter,
+            final boolean requireDeliveryReport, final Uri messageUri, final String messageId,
+            final SendResult pendingResult) throws Exception {
+        final SendResult previousResult = sPendingMessageMap.put(messageUri, pendingResult);
+        if (previousResult != null) {
+            // Resending a message whose previous send never completed, it no longer will
+            ThreadUtil.getMainThreadHandler().removeCallbacks(previousResult.mTimeoutRunnable);
+            releaseInFlight(previousResult.mSubId);
+        }
+        ThreadUtil.getMainThreadHandler().postDelayed(pendingResult.mTimeoutRunnable,
+                BugleGservicesKeys.SMS_SEND_TIMEOUT_IN_MILLIS_DEFAULT);
+        // Actually send the sms
+        try {
+            sendInternal(context, subId, dest, messages, serviceCenter, requireDeliveryReport,
+                    messageUri, messageId);
+        } catch (final Exception e) {
+            if (sPendingMessageMap.remove(messageUri, pendingResult)) {
+                ThreadUtil.getMainThreadHandler().removeCallbacks(pendingResult.mTimeoutRunnable);
+                releaseInFlight(subId);
+            }
+            throw e;
         }
-        return pendingResult;
     }
 
     // Actually sending the message using SmsManager
     private static void sendInternal(final Context context, final int subId, String dest,
             final ArrayList<String> messages, final String serviceCenter,
-            final boolean requireDeliveryReport, final Uri messageUri) throws Exception {
+            final boolean requireDeliveryReport, final Uri messageUri, final String messageId)
+                    throws Exception {
         Assert.notNull(context);
         final SmsManager smsManager = PhoneUtils.get(subId).getSmsManager();
         final int messageCount = messages.size();
@@ -268,7 +394,7 @@ public class SmsSender {
                         context,
                         partId,
                         getSendStatusIntent(context, SendStatusReceiver.MESSAGE_DELIVERED_ACTION,
-                                messageUri, partId, subId),
+                                messageUri, messageId, partId, messageCount, subId),
                         PendingIntent.FLAG_IMMUTABLE));
             } else {
                 deliveryIntents.add(null);
@@ -277,7 +403,7 @@ public class SmsSender {
                     context,
                     partId,
                     getSendStatusIntent(context, SendStatusReceiver.MESSAGE_SENT_ACTION,
-                            messageUri, partId, subId),
+                            messageUri, messageId, partId, messageCount, subId),
                     PendingIntent.FLAG_IMMUTABLE));
         }
         try {
@@ -300,10 +426,13 @@ public class SmsSender {
     }
 
     private static Intent getSendStatusIntent(final Context context, final String action,
-            final Uri requestUri, final int partId, final int subId) {
+            final Uri requestUri, final String messageId, final int partId, final int partCount,
+            final int subId) {
         // Encode requestId in intent data
         final Intent intent = new Intent(action, requestUri, context, SendStatusReceiver.class);
+        intent.putExtra(SendStatusReceiver.EXTRA_MESSAGE_ID, messageId);
         intent.putExtra(SendStatusReceiver.EXTRA_PART_ID, partId);
+        intent.putExtra(SendStatusReceiver.EXTRA_PART_COUNT, partCount);
         intent.putExtra(SendStatusReceiver.EXTRA_SUB_ID, subId);
         return intent;
     }
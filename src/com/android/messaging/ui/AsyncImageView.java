@@ -225,7 +225,11 @@ public class AsyncImageView extends ImageView implements MediaResourceLoadListen
     private void requestImage(final BindableMediaRequest<ImageResource> request) {
         mImageRequestBinding.bind(request);
         if (mDelayLoader == null || !mDelayLoader.isDelayLoadingImage()) {
-            MediaResourceManager.get().requestMediaResourceAsync(request);
+            // A view bound before it is attached, like a list row bound ahead of scrolling,
+            // is prefetched. Its request is moved up when it gets attached.
+            MediaResourceManager.get().requestMediaResourceAsync(request, isAttachedToWindow()
+                    ? MediaResourceManager.PRIORITY_VISIBLE
+                    : MediaResourceManager.PRIORITY_PREFETCH);
         } else {
             mDelayLoader.registerView(this);
         }
@@ -286,6 +290,9 @@ public class AsyncImageView extends ImageView implements MediaResourceLoadListen
         // reuse the views. In this case, we would like to rebind the original image request.
         if (!mImageRequestBinding.isBound() && mDetachedRequestDescriptor != null) {
             setImageResourceId(mDetachedRequestDescriptor);
+        } else if (mImageRequestBinding.isBound()) {
+            // The image may have been requested as a prefetch, it is wanted now
+            MediaResourceManager.get().prioritizeMediaRequest(mImageRequestBinding.getData());
         }
         mDetachedRequestDescriptor = null;
     }
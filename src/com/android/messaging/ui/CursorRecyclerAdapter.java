@@ -243,6 +243,16 @@ public abstract class CursorRecyclerAdapter<VH extends RecyclerView.ViewHolder>
      * Cursor, null is also returned.
      */
     public Cursor swapCursor(final Cursor newCursor) {
+        return swapCursor(newCursor, true /* notifyDataSetChanged */);
+    }
+
+    /**
+     * Swap in a new Cursor, returning the old Cursor.
+     *
+     * @param notifyDataSetChanged whether to notify the observers that the whole data set
+     * changed. If not, the caller must notify them of the changes between the cursors.
+     */
+    protected Cursor swapCursor(final Cursor newCursor, final boolean notifyDataSetChanged) {
         if (newCursor == mCursor) {
             return null;
         }
@@ -266,7 +276,9 @@ public abstract class CursorRecyclerAdapter<VH extends RecyclerView.ViewHolder>
             mRowIDColumn = newCursor.getColumnIndexOrThrow("_id");
             mDataValid = true;
             // notify the observers about the new cursor
-            notifyDataSetChanged();
+            if (notifyDataSetChanged) {
+                notifyDataSetChanged();
+            }
         } else {
             mRowIDColumn = -1;
             mDataValid = false;
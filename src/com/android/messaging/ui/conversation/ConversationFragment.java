@@ -138,6 +138,8 @@ public class ConversationFragment extends Fragment implements ConversationDataLi
 
     static final int REQUEST_CHOOSE_ATTACHMENTS = 2;
     private static final int JUMP_SCROLL_THRESHOLD = 15;
+    // Older messages are loaded once the first visible message is within this many of the top
+    private static final int LOAD_OLDER_MESSAGES_THRESHOLD = 30;
     // We animate the message from draft to message list, if we the message doesn't show up in the
     // list within this time limit, then we just do a fade in animation instead
     public static final int MESSAGE_ANIMATION_MAX_WAIT = 500;
@@ -265,6 +267,15 @@ public class ConversationFragment extends Fragment implements ConversationDataLi
                     mConversationComposeDivider.animate().alpha(isScrolledToBottom() ? 0 : 1);
                     mWasScrolledToBottom = isScrolledToBottom();
                 }
+                // Only a window of the newest messages is loaded; extend it before the user
+                // (or the fast scroller) reaches its top
+                final int firstVisibleItem = ((LinearLayoutManager) mRecyclerView
+                        .getLayoutManager()).findFirstVisibleItemPosition();
+                if (firstVisibleItem != RecyclerView.NO_POSITION
+                        && firstVisibleItem < LOAD_OLDER_MESSAGES_THRESHOLD
+                        && mBinding.isBound()) {
+                    mBinding.getData().loadOlderMessages(0 /* minCount */);
+                }
             }
     };
 
@@ -897,15 +908,23 @@ public class ConversationFragment extends Fragment implements ConversationDataLi
             mHost.onConversationMessagesUpdated(cursor.getCount());
 
             // Are we coming from a widget click where we're told to scroll to a particular item?
+            // The position counts from the first message of the conversation, which may be older
+            // than the loaded ones. In that case load up to it and scroll on the next update.
             final int scrollToPos = getScrollToMessagePosition();
+            final int olderMessageCount = data.getOlderMessageCount();
             if (scrollToPos >= 0) {
                 if (LogUtil.isLoggable(LogUtil.BUGLE_TAG, LogUtil.VERBOSE)) {
                     LogUtil.v(LogUtil.BUGLE_TAG, "onConversationMessagesCursorUpdated " +
                             " scrollToPos: " + scrollToPos +
-                            " cursorCount: " + cursor.getCount());
+                            " cursorCount: " + cursor.getCount() +
+                            " olderMessageCount: " + olderMessageCount);
+                }
+                if (scrollToPos < olderMessageCount) {
+                    data.loadOlderMessages(olderMessageCount - scrollToPos);
+                } else {
+                    scrollToPosition(scrollToPos - olderMessageCount, true /*smoothScroll*/);
+                    clearScrollToMessagePosition();
                 }
-                scrollToPosition(scrollToPos, true /*smoothScroll*/);
-                clearScrollToMessagePosition();
             }
         }
 
@@ -18,6 +18,7 @@ package com.android.messaging.ui.conversation;
 
 import android.content.Context;
 import android.database.Cursor;
+import androidx.annotation.NonNull;
 import androidx.recyclerview.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -40,6 +41,7 @@ public class ConversationMessageAdapter extends
     private final AsyncImageViewDelayLoader mImageViewDelayLoader;
     private final View.OnClickListener mViewClickListener;
     private final View.OnLongClickListener mViewLongClickListener;
+    private final ConversationMessagePrebinder mPrebinder = new ConversationMessagePrebinder();
     private boolean mOneOnOne;
     private String mSelectedMessageId;
 
@@ -65,6 +67,14 @@ public class ConversationMessageAdapter extends
         conversationMessageView.bind(cursor, mOneOnOne, mSelectedMessageId);
     }
 
+    @Override
+    public void onBindViewHolder(@NonNull final ConversationMessageViewHolder holder,
+            final int position) {
+        super.onBindViewHolder(holder, position);
+        // Prepare the messages likely to be bound next while this one is drawn
+        mPrebinder.prefetch(mCursor, position);
+    }
+
     @Override
     public ConversationMessageViewHolder createViewHolder(final Context context,
             final ViewGroup parent, final int viewType) {
@@ -72,6 +82,7 @@ public class ConversationMessageAdapter extends
         final ConversationMessageView conversationMessageView = (ConversationMessageView)
                 layoutInflater.inflate(R.layout.conversation_message_view, null);
         conversationMessageView.setHost(mHost);
+        conversationMessageView.setPrebinder(mPrebinder);
         conversationMessageView.setImageViewDelayLoader(mImageViewDelayLoader);
         return new ConversationMessageViewHolder(conversationMessageView,
                             mViewClickListener, mViewLongClickListener);
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2024 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.messaging.ui.conversation;
+
+import android.database.Cursor;
+import android.os.Process;
+import android.text.Spanned;
+import android.text.SpannableString;
+import android.text.TextUtils;
+import android.util.LruCache;
+
+import com.android.messaging.datamodel.data.ConversationMessageData;
+import com.android.messaging.util.Assert;
+import com.android.messaging.util.LinkifyHelper;
+import com.android.messaging.util.ThreadUtil;
+
+import java.util.HashSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Linkifies the text of the messages around the ones being bound on a background thread, so
+ * that binding a {@link ConversationMessageView} while scrolling only sets the precomputed
+ * text. Finding links, phone numbers in particular, is the most expensive part of binding a
+ * message.
+ *
+ * Results are kept in an LRU cache keyed by message id, along with the text they were computed
+ * from, so that an edited or reloaded message is not shown with stale links.
+ */
+public class ConversationMessagePrebinder {
+    // Number of messages before and after the bound one to prepare
+    private static final int PREFETCH_DISTANCE = 8;
+    private static final int MAX_ENTRIES = 128;
+
+    private static final ExecutorService sExecutor = Executors.newSingleThreadExecutor(r -> {
+        final Thread thread = new Thread(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            r.run();
+        }, "ConversationMessagePrebinder");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Message text with its links
+     */
+    public static final class LinkifiedText {
+        final String mText;
+        public final Spanned mSpanned;
+        public final boolean mHasLinks;
+
+        private LinkifiedText(final String text, final Spanned spanned, final boolean hasLinks) {
+            mText = text;
+            mSpanned = spanned;
+            mHasLinks = hasLinks;
+        }
+    }
+
+    private final LruCache<String, LinkifiedText> mCache = new LruCache<>(MAX_ENTRIES);
+
+    // Messages queued for linkifying. Only accessed on the UI thread.
+    private final HashSet<String> mQueuedMessageIds = new HashSet<>();
+
+    /**
+     * @return the message text with its links, computed now if it was not prepared
+     */
+    public LinkifiedText getLinkifiedText(final String messageId, final String text) {
+        Assert.isMainThread();
+        final LinkifiedText cached = mCache.get(messageId);
+        if (cached != null && TextUtils.equals(cached.mText, text)) {
+            return cached;
+        }
+        final LinkifiedText linkified = linkify(text);
+        mCache.put(messageId, linkified);
+        return linkified;
+    }
+
+    /**
+     * Queue the messages around the given position of the cursor for linkifying. The cursor is
+     * moved back to the position afterwards.
+     */
+    public void prefetch(final Cursor cursor, final int position) {
+        Assert.isMainThread();
+        final int start = Math.max(0, position - PREFETCH_DISTANCE);
+        final int end = Math.min(cursor.getCount() - 1, position + PREFETCH_DISTANCE);
+        for (int i = start; i <= end; i++) {
+            if (i == position || !cursor.moveToPosition(i)) {
+                continue;
+            }
+            // Prepared text is checked against the message text when it is bound, so a cached
+            // message is not read again here
+            final String messageId = ConversationMessageData.getMessageId(cursor);
+            if (mQueuedMessageIds.contains(messageId) || mCache.get(messageId) != null) {
+                continue;
+            }
+            final String text = ConversationMessageData.peekText(cursor);
+            if (TextUtils.isEmpty(text)) {
+                // Either no text, or not readable without binding the message
+                continue;
+            }
+            mQueuedMessageIds.add(messageId);
+            sExecutor.execute(() -> {
+                final LinkifiedText linkified = linkify(text);
+                ThreadUtil.getMainThreadHandler().post(() -> {
+                    mQueuedMessageIds.remove(messageId);
+                    mCache.put(messageId, linkified);
+                });
+            });
+        }
+        cursor.moveToPosition(position);
+    }
+
+    private static LinkifiedText linkify(final String text) {
+        if (TextUtils.isEmpty(text)) {
+            return new LinkifiedText(text, null, false);
+        }
+        final SpannableString spannable = new SpannableString(text);
+        final boolean hasLinks = LinkifyHelper.addLinks(spannable);
+        return new LinkifiedText(text, spannable, hasLinks);
+    }
+}
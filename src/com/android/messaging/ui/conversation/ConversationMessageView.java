@@ -96,6 +96,7 @@ public class ConversationMessageView extends FrameLayout implements View.OnClick
     private AsyncImageView mMessageImageView;
     private TextView mMessageTextView;
     private boolean mMessageTextHasLinks;
+    private ConversationMessagePrebinder mPrebinder;
     private boolean mMessageHasYouTubeLink;
     private TextView mStatusTextView;
     private TextView mTitleTextView;
@@ -259,6 +260,13 @@ public class ConversationMessageView extends FrameLayout implements View.OnClick
         mHost = host;
     }
 
+    /**
+     * Sets the source of the message text linkified ahead of binding
+     */
+    public void setPrebinder(final ConversationMessagePrebinder prebinder) {
+        mPrebinder = prebinder;
+    }
+
     /**
      * Sets a delay loader instance to manage loading / resuming of image attachments.
      */
@@ -640,10 +648,18 @@ public class ConversationMessageView extends FrameLayout implements View.OnClick
     private void updateMessageText() {
         final String text = mData.getText();
         if (!TextUtils.isEmpty(text)) {
-            mMessageTextView.setText(text);
             // Linkify phone numbers, web urls, emails, and map addresses to allow users to
             // click on them and take the default intent.
-            mMessageTextHasLinks = LinkifyHelper.addLinks(mMessageTextView);
+            if (mPrebinder != null) {
+                final ConversationMessagePrebinder.LinkifiedText linkified =
+                        mPrebinder.getLinkifiedText(mData.getMessageId(), text);
+                LinkifyHelper.setLinkifiedText(mMessageTextView, linkified.mSpanned,
+                        linkified.mHasLinks);
+                mMessageTextHasLinks = linkified.mHasLinks;
+            } else {
+                mMessageTextView.setText(text);
+                mMessageTextHasLinks = LinkifyHelper.addLinks(mMessageTextView);
+            }
             mMessageTextView.setVisibility(View.VISIBLE);
         } else {
             mMessageTextView.setVisibility(View.GONE);
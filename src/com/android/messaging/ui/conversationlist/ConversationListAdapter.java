@@ -19,11 +19,13 @@ package com.android.messaging.ui.conversationlist;
 
 import android.content.Context;
 import android.database.Cursor;
+import androidx.recyclerview.widget.AdapterListUpdateCallback;
 import androidx.recyclerview.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.ViewGroup;
 
 import com.android.messaging.R;
+import com.android.messaging.datamodel.ConversationListCursor;
 import com.android.messaging.ui.CursorRecyclerAdapter;
 
 /**
@@ -41,6 +43,22 @@ public class ConversationListAdapter
         setHasStableIds(true);
     }
 
+    /**
+     * A cursor updated from the current one by changes to some conversations only notifies the
+     * rows they moved or changed, instead of rebinding the whole list.
+     */
+    @Override
+    public Cursor swapCursor(final Cursor newCursor) {
+        if (newCursor instanceof ConversationListCursor
+                && ((ConversationListCursor) newCursor).isUpdateOf(mCursor)) {
+            final Cursor oldCursor = swapCursor(newCursor, false /* notifyDataSetChanged */);
+            ((ConversationListCursor) newCursor).dispatchUpdatesTo(
+                    new AdapterListUpdateCallback(this));
+            return oldCursor;
+        }
+        return super.swapCursor(newCursor);
+    }
+
     /**
      * @see com.android.messaging.ui.CursorRecyclerAdapter#bindViewHolder(
      * androidx.recyclerview.widget.RecyclerView.ViewHolder, android.content.Context,
@@ -44,11 +44,35 @@ public final class BugleGservicesKeys {
      */
     public static final long MESSAGE_DOWNLOAD_TIMEOUT_MS_DEFAULT = 20 * 60 * 1000L;
 
+    /**
+     * Whether actions that allow it (see Action#runsInProcess) run on an in-process executor with
+     * the live Action objects rather than being parcelled through the ActionService job queue.
+     * Other actions, those delivered by alarms and pending intents, and all background work
+     * always go through the job queues so that they survive the process.
+     */
+    public static final boolean ACTION_SERVICE_IN_PROCESS_DEFAULT = true;
+
     /**
      * Time in milliseconds for SMS send timeout
      */
     public static final long SMS_SEND_TIMEOUT_IN_MILLIS_DEFAULT = 5 * 60 * 1000L;
 
+    /**
+     * Max number of pending messages of a subscription that are sent or downloaded at once, per
+     * kind of work. Messages of a conversation are still sent one at a time, in order.
+     */
+    public static final int PENDING_SMS_SENDS_PER_SUBSCRIPTION_DEFAULT = 4;
+    public static final int PENDING_MMS_SENDS_PER_SUBSCRIPTION_DEFAULT = 2;
+    public static final int PENDING_MMS_DOWNLOADS_PER_SUBSCRIPTION_DEFAULT = 2;
+
+    /**
+     * Max number of SMS messages of a subscription waiting for their sent status at once.
+     * Further sends are queued until one of them completes. At least as many as the pending
+     * message sends per subscription, so that those never queue.
+     */
+    public static final int SMS_MAX_IN_FLIGHT_PER_SUBSCRIPTION_DEFAULT =
+            PENDING_SMS_SENDS_PER_SUBSCRIPTION_DEFAULT * 2;
+
     /**
      * Keys to control the SMS sync batch size. The batch size is defined by the number
      * of messages that incur local database change, e.g. importing messages and
@@ -73,6 +97,12 @@ public final class BugleGservicesKeys {
     public static final int SMS_SYNC_BATCH_MAX_MESSAGES_TO_SCAN_DEFAULT =
             SMS_SYNC_BATCH_SIZE_MAX_DEFAULT * 4;
 
+    /**
+     * Number of worker threads used to load the MMS parts and senders of a sync batch from
+     * the telephony provider in parallel. The local database is still written by one thread.
+     */
+    public static final int SMS_SYNC_WORKER_THREADS_DEFAULT = 4;
+
     /**
      * Time in ms for sync to backoff from "now" to the latest message that will be sync'd.
      *
@@ -87,6 +117,19 @@ public final class BugleGservicesKeys {
      * This forces a backoff time so that we at most do full sync once a while (an hour by default)
      */
     public static final long SMS_FULL_SYNC_BACKOFF_TIME_MILLIS_DEFAULT = 60 * 60 * 1000;
+
+    /**
+     * Time in ms that changes to the messaging content provider are collected for before their
+     * observers are notified, so that a burst of changes to the same data reloads it once.
+     */
+    public static final long CONTENT_CHANGE_DEBOUNCE_MILLIS_DEFAULT = 100L;
+
+    /**
+     * Minimum time in ms between two posts of the message notification for the same
+     * conversation. Updates within that time are merged into one post at its end.
+     */
+    public static final long NOTIFICATION_UPDATE_INTERVAL_MILLIS_DEFAULT = 1000L;
+
     /**
      * MMS UA profile url.
      *
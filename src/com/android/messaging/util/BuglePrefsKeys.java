@@ -48,6 +48,23 @@ public final class BuglePrefsKeys {
     public static final long LAST_FULL_SYNC_TIME_DEFAULT
             = -1;
 
+    /**
+     * Learned cost of syncing one SMS and one MMS into the local database (in micros), and the
+     * share of MMS among synced messages (in thousandths). Used to size sync batches.
+     */
+    public static final String SYNC_SMS_COST_MICROS
+            = "sync_sms_cost_micros";
+    public static final long SYNC_SMS_COST_MICROS_DEFAULT
+            = 0;
+    public static final String SYNC_MMS_COST_MICROS
+            = "sync_mms_cost_micros";
+    public static final long SYNC_MMS_COST_MICROS_DEFAULT
+            = 0;
+    public static final String SYNC_MMS_PERMILLE
+            = "sync_mms_permille";
+    public static final int SYNC_MMS_PERMILLE_DEFAULT
+            = 0;
+
     /**
      * Timestamp of the message for which we last did a message notification.
      */
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2024 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.messaging.util;
+
+import java.io.PrintWriter;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache of the results of parsing phone numbers into E164, keyed by country and phone
+ * text. Numbers that cannot be parsed are cached too, so that they are not parsed again.
+ *
+ * Entries are spread over independently locked stripes, each an LRU map with an equal share of
+ * the capacity, so that threads canonicalizing numbers concurrently (sync, participant refresh
+ * and the UI) rarely wait on each other.
+ */
+class CanonicalPhoneNumberCache {
+    private static final int STRIPE_COUNT = 16;   // Must be a power of two
+    private static final int MAX_ENTRIES_PER_STRIPE = 256;
+
+    private static final class Stripe extends LinkedHashMap<String, Lookup> {
+        Stripe() {
+            super(16, 0.75f, true /* accessOrder */);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, Lookup> eldest) {
+            return size() > MAX_ENTRIES_PER_STRIPE;
+        }
+    }
+
+    /**
+     * Result of a cache lookup
+     */
+    static final class Lookup {
+        final boolean mFound;
+        // The E164 number, or null if the number cannot be parsed
+        final String mCanonical;
+
+        private Lookup(final boolean found, final String canonical) {
+            mFound = found;
+            mCanonical = canonical;
+        }
+    }
+
+    private static final Lookup MISS = new Lookup(false, null);
+    // Cached for numbers that cannot be parsed
+    private static final Lookup NEGATIVE_HIT = new Lookup(true, null);
+
+    private final Stripe[] mStripes = new Stripe[STRIPE_COUNT];
+
+    private final AtomicLong mHitCount = new AtomicLong();
+    private final AtomicLong mNegativeHitCount = new AtomicLong();
+    private final AtomicLong mMissCount = new AtomicLong();
+
+    CanonicalPhoneNumberCache() {
+        for (int i = 0; i < STRIPE_COUNT; i++) {
+            mStripes[i] = new Stripe();
+        }
+    }
+
+    private static String makeKey(final String phoneText, final String country) {
+        // Country codes are letters only, so the separator cannot be part of them
+        return (country != null ? country : "") + '\n' + phoneText;
+    }
+
+    private Stripe getStripe(final String key) {
+        final int hash = key.hashCode();
+        return mStripes[(hash ^ (hash >>> 16)) & (STRIPE_COUNT - 1)];
+    }
+
+    Lookup get(final String phoneText, final String country) {
+        final String key = makeKey(phoneText, country);
+        final Stripe stripe = getStripe(key);
+        final Lookup lookup;
+        synchronized (stripe) {
+            lookup = stripe.get(key);
+        }
+        if (lookup == null) {
+            mMissCount.incrementAndGet();
+            return MISS;
+        }
+        if (lookup == NEGATIVE_HIT) {
+            mNegativeHitCount.incrementAndGet();
+        } else {
+            mHitCount.incrementAndGet();
+        }
+        return lookup;
+    }
+
+    /**
+     * @param canonical the E164 number, or null if the number cannot be parsed
+     */
+    void put(final String phoneText, final String country, final String canonical) {
+        final String key = makeKey(phoneText, country);
+        final Stripe stripe = getStripe(key);
+        synchronized (stripe) {
+            stripe.put(key, canonical != null ? new Lookup(true, canonical) : NEGATIVE_HIT);
+        }
+    }
+
+    /**
+     * @return the share of lookups answered from the cache, including unparseable numbers
+     */
+    double getHitRate() {
+        final long hits = mHitCount.get() + mNegativeHitCount.get();
+        final long lookups = hits + mMissCount.get();
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    void dump(final PrintWriter writer) {
+        int size = 0;
+        for (final Stripe stripe : mStripes) {
+            synchronized (stripe) {
+                size += stripe.size();
+            }
+        }
+        writer.println("Canonical phone number cache:");
+        writer.println("  entries: " + size + " of " + (STRIPE_COUNT * MAX_ENTRIES_PER_STRIPE));
+        writer.println("  hits: " + mHitCount.get() + ", unparseable hits: "
+                + mNegativeHitCount.get() + ", misses: " + mMissCount.get()
+                + String.format(Locale.US, ", hit rate: %.1f%%", getHitRate() * 100));
+    }
+}
@@ -70,6 +70,9 @@ public class ContactUtil {
     // Lookup key column index specific to frequent contacts query.
     public static final int INDEX_LOOKUP_KEY_FREQUENT     = 3;
 
+    // Query parameter holding the photo ids in the photo uris from getVersionedPhotoUri
+    private static final String PHOTO_VERSION_PARAM = "photo_version";
+
     /**
      * Constants for listing and filtering phones.
      */
@@ -102,6 +105,9 @@ public class ContactUtil {
             PhoneLookup.TYPE,                         // 4
             PhoneLookup.LABEL,                        // 5
             PhoneLookup.LOOKUP_KEY,                   // 6
+            // Photo ids, read by name in getVersionedPhotoUri
+            PhoneLookup.PHOTO_ID,                     // 7
+            PhoneLookup.PHOTO_FILE_ID,                // 8
             // The data id is not included as part of the projection since it's not part of
             // PhoneLookup. This is okay because the _id field serves as both the data id and
             // contact id. Also we never show the results directly in a list view so we are not
@@ -135,6 +141,9 @@ public class ContactUtil {
             Email.LOOKUP_KEY,                   // 6
             Email._ID,                          // 7
             EmailQuery.SORT_KEY,                // 8
+            // Photo ids, read by name in getVersionedPhotoUri
+            Email.PHOTO_ID,                     // 9
+            Email.PHOTO_FILE_ID,                // 10
         };
     }
 
@@ -148,7 +157,10 @@ public class ContactUtil {
             Profile._ID,                        // 0
             Profile.DISPLAY_NAME_PRIMARY,       // 1
             Profile.PHOTO_THUMBNAIL_URI,        // 2
-            Profile.LOOKUP_KEY                  // 3
+            Profile.LOOKUP_KEY,                 // 3
+            // Photo ids, read by name in getVersionedPhotoUri
+            Profile.PHOTO_ID,                   // 4
+            Profile.PHOTO_FILE_ID               // 5
             // Phone number, type, label and data_id is not provided in this projection since
             // Profile CONTENT_URI doesn't include this information. Also, we don't need it
             // we just need the name and avatar url.
@@ -468,6 +480,25 @@ public class ContactUtil {
      * Creates a RecipientEntry for PhoneQuery result. The result is then displayed in the
      * contact search drop down or as replacement chips in the chips edit box.
      */
+    /**
+     * Get the photo uri of the contact at the cursor position, with the ids of the photo added.
+     * The thumbnail uri of a contact stays the same when its photo is replaced, so the avatar
+     * caches, which are keyed by uri, would keep showing the old photo. The added parameter is
+     * ignored when the photo is loaded.
+     */
+    public static String getVersionedPhotoUri(final Cursor cursor) {
+        final String photoUri = cursor.getString(INDEX_PHOTO_URI);
+        final int photoIdIndex = cursor.getColumnIndex(Contacts.PHOTO_ID);
+        final int photoFileIdIndex = cursor.getColumnIndex(Contacts.PHOTO_FILE_ID);
+        if (photoUri == null || photoIdIndex < 0 || photoFileIdIndex < 0) {
+            return photoUri;
+        }
+        return Uri.parse(photoUri).buildUpon()
+                .appendQueryParameter(PHOTO_VERSION_PARAM, cursor.getLong(photoIdIndex) + "."
+                        + cursor.getLong(photoFileIdIndex))
+                .build().toString();
+    }
+
     public static RecipientEntry createRecipientEntryForPhoneQuery(final Cursor cursor,
             final boolean isFirstLevel) {
         final long contactId = cursor.getLong(ContactUtil.INDEX_CONTACT_ID);
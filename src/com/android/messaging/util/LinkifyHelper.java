@@ -5,7 +5,9 @@
 
 package com.android.messaging.util;
 
+import android.text.Spannable;
 import android.text.SpannableString;
+import android.text.method.LinkMovementMethod;
 import android.text.style.URLSpan;
 import android.text.util.Linkify;
 import android.util.Log;
@@ -32,27 +34,37 @@ public class LinkifyHelper {
     // This could have been simpler, but Linkify.addLinks() removes existing links
     // and PHONE_NUMBERS also matches parts of the geo-url
     public static boolean addLinks(TextView text) {
+        final SpannableString s = SpannableString.valueOf(text.getText());
+        final boolean ret = addLinks(s);
+        setLinkifiedText(text, s, ret);
+        return ret;
+    }
+
+    /**
+     * Adds the links to the text itself, without needing a view, so that it can be done off
+     * the UI thread.
+     *
+     * @return whether any link was added
+     */
+    public static boolean addLinks(Spannable s) {
         boolean ret;
 
         // We need to add and know the geo spans first since Linkify will replace them with
         // phone numbers - therefore we remove those later and replace them with the geo ones
         // again
-        Linkify.addLinks(text, GEO_URL_PATTERN, null);
-        SpannableString geoSpannable = SpannableString.valueOf(text.getText());
-        final URLSpan[] geoSpans = geoSpannable.getSpans(0, geoSpannable.length(), URLSpan.class);
+        Linkify.addLinks(s, GEO_URL_PATTERN, null);
+        final URLSpan[] geoSpans = s.getSpans(0, s.length(), URLSpan.class);
 
         ArrayList<Pair<Integer, Integer>> geoSpanPairs = new ArrayList<>();
         for (URLSpan geoSpan : geoSpans) {
-            geoSpanPairs.add(new Pair<>(geoSpannable.getSpanStart(geoSpan),
-                    geoSpannable.getSpanEnd(geoSpan)));
+            geoSpanPairs.add(new Pair<>(s.getSpanStart(geoSpan), s.getSpanEnd(geoSpan)));
         }
 
         // We want "ALL" but that's deprecated due to Linkify.MAP_ADDRESSES
         int mask = Linkify.WEB_URLS | Linkify.EMAIL_ADDRESSES | Linkify.PHONE_NUMBERS;
 
         // This will remove our existing spans
-        ret = Linkify.addLinks(text, mask);
-        SpannableString s = SpannableString.valueOf(text.getText());
+        ret = Linkify.addLinks(s, mask);
 
         if (geoSpans.length > 0) {
             ret = true;
@@ -72,11 +84,22 @@ public class LinkifyHelper {
                     }
                 }
             }
-            text.setText(s);
             // Add the geo spans again
-            Linkify.addLinks(text, GEO_URL_PATTERN, null);
+            Linkify.addLinks(s, GEO_URL_PATTERN, null);
         }
 
         return ret;
     }
+
+    /**
+     * Shows text linkified by {@link #addLinks(Spannable)}, making its links clickable like
+     * Linkify does
+     */
+    public static void setLinkifiedText(TextView view, CharSequence text, boolean hasLinks) {
+        view.setText(text);
+        if (hasLinks && !(view.getMovementMethod() instanceof LinkMovementMethod)
+                && view.getLinksClickable()) {
+            view.setMovementMethod(LinkMovementMethod.getInstance());
+        }
+    }
 }
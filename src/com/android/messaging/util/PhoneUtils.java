@@ -34,8 +34,6 @@ import android.telephony.SubscriptionManager;
 import android.telephony.TelephonyManager;
 import android.text.TextUtils;
 
-import androidx.collection.ArrayMap;
-
 import com.android.messaging.Factory;
 import com.android.messaging.R;
 import com.android.messaging.datamodel.data.ParticipantData;
@@ -45,6 +43,7 @@ import com.google.i18n.phonenumbers.PhoneNumberUtil;
 import com.google.i18n.phonenumbers.PhoneNumberUtil.PhoneNumberFormat;
 import com.google.i18n.phonenumbers.Phonenumber.PhoneNumber;
 
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
@@ -69,11 +68,9 @@ public class PhoneUtils {
 
     private static final List<SubscriptionInfo> EMPTY_SUBSCRIPTION_LIST = new ArrayList<>();
 
-    // The canonical phone number cache
-    // Each country gets its own cache. The following maps from ISO country code to
-    // the country's cache. Each cache maps from original phone number to canonicalized phone
-    private static final ArrayMap<String, ArrayMap<String, String>> sCanonicalPhoneNumberCache =
-            new ArrayMap<>();
+    // The canonical phone number cache, keyed by ISO country code and original phone number
+    private static final CanonicalPhoneNumberCache sCanonicalPhoneNumberCache =
+            new CanonicalPhoneNumberCache();
 
     protected final Context mContext;
     protected final TelephonyManager mTelephonyManager;
@@ -422,34 +419,11 @@ public class PhoneUtils {
         return country;
     }
 
-    // Get or set the cache of canonicalized phone numbers for a specific country
-    private static ArrayMap<String, String> getOrAddCountryMapInCacheLocked(String country) {
-        if (country == null) {
-            country = "";
-        }
-        ArrayMap<String, String> countryMap = sCanonicalPhoneNumberCache.get(country);
-        if (countryMap == null) {
-            countryMap = new ArrayMap<>();
-            sCanonicalPhoneNumberCache.put(country, countryMap);
-        }
-        return countryMap;
-    }
-
-    // Get canonicalized phone number from cache
-    private static String getCanonicalFromCache(final String phoneText, String country) {
-        synchronized (sCanonicalPhoneNumberCache) {
-            final ArrayMap<String, String> countryMap = getOrAddCountryMapInCacheLocked(country);
-            return countryMap.get(phoneText);
-        }
-    }
-
-    // Put canonicalized phone number into cache
-    private static void putCanonicalToCache(final String phoneText, String country,
-            final String canonical) {
-        synchronized (sCanonicalPhoneNumberCache) {
-            final ArrayMap<String, String> countryMap = getOrAddCountryMapInCacheLocked(country);
-            countryMap.put(phoneText, canonical);
-        }
+    /**
+     * Print the size and hit statistics of the canonical phone number cache
+     */
+    public static void dumpCanonicalPhoneNumberCache(final PrintWriter writer) {
+        sCanonicalPhoneNumberCache.dump(writer);
     }
 
     /**
@@ -505,17 +479,20 @@ public class PhoneUtils {
     private String getCanonicalByCountry(final String phoneText, final String country) {
         Assert.notNull(phoneText);
 
-        String canonicalNumber = getCanonicalFromCache(phoneText, country);
-        if (canonicalNumber != null) {
-            return canonicalNumber;
+        final CanonicalPhoneNumberCache.Lookup cached =
+                sCanonicalPhoneNumberCache.get(phoneText, country);
+        String canonicalNumber;
+        if (cached.mFound) {
+            canonicalNumber = cached.mCanonical;
+        } else {
+            canonicalNumber = getValidE164Number(phoneText, country);
+            sCanonicalPhoneNumberCache.put(phoneText, country, canonicalNumber);
         }
-        canonicalNumber = getValidE164Number(phoneText, country);
         if (canonicalNumber == null) {
             // If we can't normalize this number, we just use the display string number.
             // This is possible for short codes and other non-localizable numbers.
             canonicalNumber = phoneText;
         }
-        putCanonicalToCache(phoneText, country, canonicalNumber);
         return canonicalNumber;
     }
 
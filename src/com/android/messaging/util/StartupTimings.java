@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2024 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.messaging.util;
+
+import android.os.Process;
+import android.os.SystemClock;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Records how long the steps of application startup take, by phase, so that they can be seen in
+ * dumps without tracing. Each step also runs in a {@link Trace} section of the same name.
+ *
+ * Times are uptime in milliseconds, shown relative to the start of the process.
+ */
+public final class StartupTimings {
+    /** Work done before the application can show anything */
+    public static final String PHASE_CRITICAL = "critical";
+    /** Work deferred until the first activity has drawn its first frame */
+    public static final String PHASE_AFTER_FIRST_FRAME = "after-first-frame";
+    /** Work deferred until the main thread is idle after that */
+    public static final String PHASE_IDLE = "idle";
+
+    private static final class Step {
+        final String mPhase;
+        final String mName;
+        final long mStartMillis;
+        final long mDurationMillis;
+
+        Step(final String phase, final String name, final long startMillis,
+                final long durationMillis) {
+            mPhase = phase;
+            mName = name;
+            mStartMillis = startMillis;
+            mDurationMillis = durationMillis;
+        }
+    }
+
+    private static final ArrayList<Step> sSteps = new ArrayList<>();
+    private static long sFirstFrameMillis = -1;
+
+    private StartupTimings() {
+    }
+
+    /**
+     * Run a startup step in a trace section, recording its duration under the phase
+     */
+    public static void run(final String phase, final String name, final Runnable step) {
+        Trace.beginSection(name);
+        final long startMillis = SystemClock.uptimeMillis();
+        try {
+            step.run();
+        } finally {
+            final long durationMillis = SystemClock.uptimeMillis() - startMillis;
+            Trace.endSection();
+            synchronized (StartupTimings.class) {
+                sSteps.add(new Step(phase, name, startMillis, durationMillis));
+            }
+        }
+    }
+
+    /**
+     * Record that the first activity has drawn its first frame
+     */
+    public static synchronized void onFirstFrame() {
+        if (sFirstFrameMillis < 0) {
+            sFirstFrameMillis = SystemClock.uptimeMillis();
+        }
+    }
+
+    public static synchronized void dump(final PrintWriter writer) {
+        final long processStartMillis = Process.getStartUptimeMillis();
+        writer.println("Startup timings:");
+        writer.println("  first frame: " + (sFirstFrameMillis < 0 ? "not drawn"
+                : "+" + (sFirstFrameMillis - processStartMillis) + " ms"));
+        // Phase to {total duration, start of the first step}
+        final LinkedHashMap<String, long[]> phases = new LinkedHashMap<>();
+        for (final Step step : sSteps) {
+            long[] phase = phases.get(step.mPhase);
+            if (phase == null) {
+                phase = new long[] { 0, step.mStartMillis };
+                phases.put(step.mPhase, phase);
+            }
+            phase[0] += step.mDurationMillis;
+        }
+        for (final Map.Entry<String, long[]> phase : phases.entrySet()) {
+            writer.println("  " + phase.getKey() + ": " + phase.getValue()[0] + " ms, from +"
+                    + (phase.getValue()[1] - processStartMillis) + " ms");
+            for (final Step step : sSteps) {
+                if (step.mPhase.equals(phase.getKey())) {
+                    writer.println("    " + step.mName + ": " + step.mDurationMillis + " ms");
+                }
+            }
+        }
+    }
+}